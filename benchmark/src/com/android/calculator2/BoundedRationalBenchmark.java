@@ -0,0 +1,80 @@
+/*
+ * SPDX-FileCopyrightText: 2026 The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.calculator2;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BoundedRational arithmetic on operands of varying size.
+ * Operands are unreduced fractions with numerators and denominators of the given number of
+ * bits, so that the benchmarks also reflect the cost of our reduction policy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoundedRationalBenchmark {
+    private static final BigInteger POW_EXPONENT = BigInteger.valueOf(7);
+
+    @Param({"32", "256", "2048"})
+    public int bits;
+
+    private BoundedRational mX;
+    private BoundedRational mY;
+    // A fraction with a denominator of the form 2^a 5^b, which has a finite decimal expansion.
+    private BoundedRational mDecimal;
+
+    @Setup
+    public void setup() {
+        final Random rand = new Random(42);
+        mX = randomFraction(rand);
+        mY = randomFraction(rand);
+        mDecimal = new BoundedRational(new BigInteger(bits, rand),
+                BigInteger.valueOf(2).pow(bits / 2).multiply(BigInteger.valueOf(5).pow(bits / 4)));
+    }
+
+    private BoundedRational randomFraction(Random rand) {
+        final BigInteger common = new BigInteger(bits / 4 + 1, rand).setBit(0);
+        return new BoundedRational(new BigInteger(bits, rand).multiply(common),
+                new BigInteger(bits, rand).setBit(bits - 1).multiply(common));
+    }
+
+    @Benchmark
+    public BoundedRational add() {
+        return BoundedRational.add(mX, mY);
+    }
+
+    @Benchmark
+    public BoundedRational multiply() {
+        return BoundedRational.multiply(mX, mY);
+    }
+
+    @Benchmark
+    public BoundedRational pow() {
+        return mX.pow(POW_EXPONENT);
+    }
+
+    @Benchmark
+    public int digitsRequired() {
+        return BoundedRational.digitsRequired(mDecimal);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * SPDX-FileCopyrightText: 2026 The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.calculator2;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ExprProgram compilation and execution overhead per token, for formulas of increasing length.
+ * Each invocation processes TOKENS_PER_INVOCATION tokens, as a number of copies of a formula
+ * with the given number of tokens, so that scores are in nanoseconds per token, and comparable
+ * across lengths. Formulas use small integer arithmetic, whose results stay small, so that
+ * the scores mostly reflect the interpreter rather than the arithmetic.
+ * treeWalk() evaluates the same formulas with TreeWalkingEvaluator, which reparses them each
+ * time, as evaluation did before ExprProgram. It is the baseline for execute().
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExprProgramBenchmark {
+    private static final int TOKENS_PER_INVOCATION = 10000;
+    // Repeated to build formulas. 10 tokens, the last of which we replace by a factorial
+    // sign in the final copy.
+    private static final String TERM = "(3*7-5)/2+";
+
+    // Number of tokens in each formula. Multiples of the length of TERM.
+    @Param({"10", "100", "1000", "10000"})
+    public int length;
+
+    private HeadlessEvaluator.Formula mFormula;
+    private ExprProgram mProgram;
+    private int mCopies;
+
+    private static final ExprProgram.ValueResolver NO_REFERENCES =
+            new ExprProgram.ValueResolver() {
+                @Override
+                public UnifiedReal getValue(long index) {
+                    throw new AssertionError("Unexpected reference " + index);
+                }
+            };
+
+    @Setup
+    public void setup() {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length / TERM.length(); ++i) {
+            sb.append(TERM);
+        }
+        sb.setCharAt(sb.length() - 1, '!');
+        mFormula = HeadlessEvaluator.Formula.parse(sb.toString());
+        if (mFormula.size() != length) {
+            throw new AssertionError("Formula has " + mFormula.size() + " tokens");
+        }
+        mProgram = ExprProgram.compile(mFormula, length);
+        mCopies = TOKENS_PER_INVOCATION / length;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TOKENS_PER_INVOCATION)
+    public ExprProgram compile() {
+        ExprProgram result = null;
+        for (int i = 0; i < mCopies; ++i) {
+            result = ExprProgram.compile(mFormula, length);
+        }
+        return result;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TOKENS_PER_INVOCATION)
+    public UnifiedReal execute() throws SyntaxException {
+        UnifiedReal result = null;
+        for (int i = 0; i < mCopies; ++i) {
+            result = mProgram.execute(false, NO_REFERENCES);
+        }
+        return result;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TOKENS_PER_INVOCATION)
+    public UnifiedReal compileAndExecute() throws SyntaxException {
+        UnifiedReal result = null;
+        for (int i = 0; i < mCopies; ++i) {
+            result = ExprProgram.compile(mFormula, length).execute(false, NO_REFERENCES);
+        }
+        return result;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TOKENS_PER_INVOCATION)
+    public UnifiedReal treeWalk() throws SyntaxException {
+        UnifiedReal result = null;
+        for (int i = 0; i < mCopies; ++i) {
+            result = TreeWalkingEvaluator.eval(mFormula, length, false, NO_REFERENCES);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * SPDX-FileCopyrightText: 2026 The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.calculator2;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BoundedRational reduction policies on long chains of operations whose unreduced results grow
+ * quickly. BoundedRational itself only implements its size-driven policy. For comparison, we
+ * also run the same chains on Fraction, a plain BigInteger model of rational arithmetic that
+ * can reduce either at random, as BoundedRational previously did, or once results have grown by
+ * a given factor. Besides the time, we report the maximum size in bits of any intermediate
+ * result as the maxBits counter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReductionBenchmark {
+    // "BoundedRational" for the production code, or for the Fraction model "random" for the
+    // previous policy, or the growth factor for the size-driven one.
+    @Param({"BoundedRational", "random", "2", "4"})
+    public String policy;
+
+    @Param({"100", "1000"})
+    public int n;
+
+    private boolean mProduction;
+    private Random mRng;  // Non-null for the random policy.
+    private int mGrowthFactor;
+
+    @Setup
+    public void setup() {
+        mProduction = policy.equals("BoundedRational");
+        if (policy.equals("random")) {
+            mRng = new Random(42);
+        } else if (!mProduction) {
+            mGrowthFactor = Integer.parseInt(policy);
+        }
+    }
+
+    /**
+     * Maximum intermediate result size seen during the current iteration.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Sizes {
+        public long maxBits;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            maxBits = 0;
+        }
+
+        BoundedRational note(BoundedRational r) {
+            maxBits = Math.max(maxBits, r.sizeInBits());
+            return r;
+        }
+
+        Fraction note(Fraction f) {
+            maxBits = Math.max(maxBits, f.mNum.bitLength() + f.mDen.bitLength());
+            return f;
+        }
+    }
+
+    /**
+     * A rational number as a BigInteger fraction, with an explicit reduction policy.
+     */
+    private static final class Fraction {
+        final BigInteger mNum;
+        final BigInteger mDen;
+        // As BoundedRational.mReducedBits.
+        final int mReducedBits;
+
+        Fraction(BigInteger num, BigInteger den, int reducedBits) {
+            mNum = num;
+            mDen = den;
+            mReducedBits = reducedBits;
+        }
+
+        Fraction(long num, long den) {
+            mNum = BigInteger.valueOf(num);
+            mDen = BigInteger.valueOf(den);
+            mReducedBits = mNum.bitLength() + mDen.bitLength();
+        }
+    }
+
+    private Fraction maybeReduce(BigInteger num, BigInteger den, int reducedBits) {
+        final boolean reduce = mRng != null ? (mRng.nextInt() & 0xf) == 0
+                : (long) num.bitLength() + den.bitLength() > (long) mGrowthFactor * reducedBits;
+        if (!reduce) {
+            return new Fraction(num, den, reducedBits);
+        }
+        final BigInteger gcd = num.gcd(den);
+        final BigInteger rNum = num.divide(gcd);
+        final BigInteger rDen = den.divide(gcd);
+        return new Fraction(rNum, rDen, rNum.bitLength() + rDen.bitLength());
+    }
+
+    private Fraction add(Fraction f1, Fraction f2) {
+        return maybeReduce(f1.mNum.multiply(f2.mDen).add(f2.mNum.multiply(f1.mDen)),
+                f1.mDen.multiply(f2.mDen), Math.max(f1.mReducedBits, f2.mReducedBits));
+    }
+
+    private Fraction multiply(Fraction f1, Fraction f2) {
+        return maybeReduce(f1.mNum.multiply(f2.mNum), f1.mDen.multiply(f2.mDen),
+                Math.max(f1.mReducedBits, f2.mReducedBits));
+    }
+
+    /**
+     * 1 + 1/2 + ... + 1/n. The reduced sums grow, but much more slowly than unreduced ones.
+     */
+    @Benchmark
+    public Object harmonicSum(Sizes sizes) {
+        if (mProduction) {
+            BoundedRational sum = BoundedRational.ZERO;
+            for (int k = 1; k <= n; ++k) {
+                sum = sizes.note(BoundedRational.add(sum, new BoundedRational(1, k)));
+            }
+            return sum;
+        }
+        Fraction sum = new Fraction(0, 1);
+        for (int k = 1; k <= n; ++k) {
+            sum = sizes.note(add(sum, new Fraction(1, k)));
+        }
+        return sum;
+    }
+
+    /**
+     * s = s * k/(k+1) + 1/(3k), for k = 1 .. n. Multiplications produce common factors that
+     * reduction removes; additions produce denominators that keep growing.
+     */
+    @Benchmark
+    public Object scaledSum(Sizes sizes) {
+        if (mProduction) {
+            BoundedRational sum = BoundedRational.ONE;
+            for (int k = 1; k <= n; ++k) {
+                sum = sizes.note(BoundedRational.multiply(sum, new BoundedRational(k, k + 1)));
+                sum = sizes.note(BoundedRational.add(sum, new BoundedRational(1, 3 * k)));
+            }
+            return sum;
+        }
+        Fraction sum = new Fraction(1, 1);
+        for (int k = 1; k <= n; ++k) {
+            sum = sizes.note(multiply(sum, new Fraction(k, k + 1)));
+            sum = sizes.note(add(sum, new Fraction(1, 3 * k)));
+        }
+        return sum;
+    }
+}
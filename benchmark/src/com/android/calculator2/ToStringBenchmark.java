@@ -0,0 +1,64 @@
+/*
+ * SPDX-FileCopyrightText: 2026 The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.calculator2;
+
+import com.hp.creals.CR;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decimal conversion with UnifiedReal.toStringTruncated(), as used when scrolling a result.
+ * Values are rebuilt for every invocation, since constructive reals cache their
+ * approximations. The symbolic case uses our shared pi constant, and thus measures conversion
+ * of an already cached approximation after the first invocation. The exp case exercises the
+ * binary splitting series evaluation used at high precision.
+ * Large conversions are too slow for the usual time-based iterations, so we time single
+ * invocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ToStringBenchmark {
+    @Param({"50", "1000", "10000", "100000"})
+    public int digits;
+
+    @Param({"rational", "symbolic", "generic", "exp"})
+    public String kind;
+
+    private UnifiedReal value() {
+        switch (kind) {
+            case "rational":
+                return new UnifiedReal(new BoundedRational(1, 7));
+            case "symbolic":
+                return UnifiedReal.PI.multiply(new UnifiedReal(new BoundedRational(2, 3)));
+            case "generic":
+                return new UnifiedReal(CR.valueOf(2).sqrt());
+            case "exp":
+                return new UnifiedReal(new BoundedRational(2, 3)).exp();
+            default:
+                throw new IllegalArgumentException(kind);
+        }
+    }
+
+    @Benchmark
+    public String toStringTruncated() {
+        return value().toStringTruncated(digits);
+    }
+}
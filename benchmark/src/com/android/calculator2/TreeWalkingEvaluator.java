@@ -0,0 +1,260 @@
+/*
+ * SPDX-FileCopyrightText: 2026 The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.calculator2;
+
+/**
+ * The recursive descent evaluator that CalculatorExpr used before expressions were compiled
+ * to an ExprProgram, adapted to read ExprProgram.TokenSource tokens. It parses the tokens
+ * again on every evaluation, and calls the same UnifiedReal operations in the same order as
+ * it did then. Only for comparison in ExprProgramBenchmark.
+ */
+final class TreeWalkingEvaluator {
+    private final ExprProgram.TokenSource mTokens;
+    private final int mPrefixLength;
+    private final boolean mDegreeMode;
+    private final ExprProgram.ValueResolver mResolver;
+
+    private TreeWalkingEvaluator(ExprProgram.TokenSource tokens, int prefixLength,
+            boolean degreeMode, ExprProgram.ValueResolver resolver) {
+        mTokens = tokens;
+        mPrefixLength = prefixLength;
+        mDegreeMode = degreeMode;
+        mResolver = resolver;
+    }
+
+    /**
+     * Evaluate the first prefixLength tokens, as
+     * ExprProgram.compile(tokens, prefixLength).execute(degreeMode, resolver) does.
+     */
+    static UnifiedReal eval(ExprProgram.TokenSource tokens, int prefixLength, boolean degreeMode,
+            ExprProgram.ValueResolver resolver) throws SyntaxException {
+        final TreeWalkingEvaluator evaluator =
+                new TreeWalkingEvaluator(tokens, prefixLength, degreeMode, resolver);
+        try {
+            final EvalRet result = evaluator.evalExpr(0);
+            if (result.pos != prefixLength) {
+                throw new SyntaxException("Failed to parse full expression");
+            }
+            return result.val;
+        } catch (IndexOutOfBoundsException e) {
+            throw new SyntaxException("Unexpected expression end");
+        }
+    }
+
+    private static class EvalRet {
+        public int pos; // Next position (expression index) to be parsed.
+        public final UnifiedReal val; // Value of the subexpression.
+        EvalRet(int p, UnifiedReal v) {
+            pos = p;
+            val = v;
+        }
+    }
+
+    private UnifiedReal toRadians(UnifiedReal x) {
+        return mDegreeMode ? x.multiply(UnifiedReal.RADIANS_PER_DEGREE) : x;
+    }
+
+    private UnifiedReal fromRadians(UnifiedReal x) {
+        return mDegreeMode ? x.divide(UnifiedReal.RADIANS_PER_DEGREE) : x;
+    }
+
+    private boolean isOperator(int i, int op) {
+        if (i >= mPrefixLength) {
+            return false;
+        }
+        return mTokens.tokenId(i) == op;
+    }
+
+    // Evaluate a function argument, and skip the closing paren, if any.
+    private EvalRet evalArgument(int i) throws SyntaxException {
+        final EvalRet argVal = evalExpr(i);
+        if (isOperator(argVal.pos, ExprProgram.TOKEN_RPAREN)) {
+            argVal.pos++;
+        }
+        return argVal;
+    }
+
+    private EvalRet evalUnary(int i) throws SyntaxException {
+        final int id = mTokens.tokenId(i);
+        if (id == ExprProgram.TOKEN_CONSTANT) {
+            return new EvalRet(i + 1, new UnifiedReal(mTokens.constantValue(i)));
+        }
+        if (id == ExprProgram.TOKEN_PRE_EVAL) {
+            return new EvalRet(i + 1, mResolver.getValue(mTokens.preEvalIndex(i)));
+        }
+        EvalRet argVal;
+        switch (id) {
+            case ExprProgram.TOKEN_PI:
+                return new EvalRet(i + 1, UnifiedReal.PI);
+            case ExprProgram.TOKEN_E:
+                return new EvalRet(i + 1, UnifiedReal.E);
+            case ExprProgram.TOKEN_SQRT:
+                if (isOperator(i + 1, ExprProgram.TOKEN_SUB)) {
+                    argVal = evalUnary(i + 2);
+                    return new EvalRet(argVal.pos, argVal.val.negate().sqrt());
+                }
+                argVal = evalUnary(i + 1);
+                return new EvalRet(argVal.pos, argVal.val.sqrt());
+            case ExprProgram.TOKEN_LPAREN:
+                return evalArgument(i + 1);
+            case ExprProgram.TOKEN_SIN:
+                argVal = evalArgument(i + 1);
+                return new EvalRet(argVal.pos, toRadians(argVal.val).sin());
+            case ExprProgram.TOKEN_COS:
+                argVal = evalArgument(i + 1);
+                return new EvalRet(argVal.pos, toRadians(argVal.val).cos());
+            case ExprProgram.TOKEN_TAN:
+                argVal = evalArgument(i + 1);
+                final UnifiedReal arg = toRadians(argVal.val);
+                return new EvalRet(argVal.pos, arg.sin().divide(arg.cos()));
+            case ExprProgram.TOKEN_LN:
+                argVal = evalArgument(i + 1);
+                return new EvalRet(argVal.pos, argVal.val.ln());
+            case ExprProgram.TOKEN_EXP:
+                argVal = evalArgument(i + 1);
+                return new EvalRet(argVal.pos, argVal.val.exp());
+            case ExprProgram.TOKEN_LOG:
+                argVal = evalArgument(i + 1);
+                return new EvalRet(argVal.pos, argVal.val.ln().divide(UnifiedReal.TEN.ln()));
+            case ExprProgram.TOKEN_ASIN:
+                argVal = evalArgument(i + 1);
+                return new EvalRet(argVal.pos, fromRadians(argVal.val.asin()));
+            case ExprProgram.TOKEN_ACOS:
+                argVal = evalArgument(i + 1);
+                return new EvalRet(argVal.pos, fromRadians(argVal.val.acos()));
+            case ExprProgram.TOKEN_ATAN:
+                argVal = evalArgument(i + 1);
+                return new EvalRet(argVal.pos, fromRadians(argVal.val.atan()));
+            default:
+                throw new SyntaxException("Unrecognized token in expression");
+        }
+    }
+
+    private static final UnifiedReal ONE_HUNDREDTH = new UnifiedReal(100).inverse();
+
+    private EvalRet evalSuffix(int i) throws SyntaxException {
+        final EvalRet tmp = evalUnary(i);
+        int cpos = tmp.pos;
+        UnifiedReal val = tmp.val;
+
+        boolean isFact;
+        boolean isSquared = false;
+        while ((isFact = isOperator(cpos, ExprProgram.TOKEN_FACT))
+                || (isSquared = isOperator(cpos, ExprProgram.TOKEN_SQR))
+                || isOperator(cpos, ExprProgram.TOKEN_PCT)) {
+            if (isFact) {
+                val = val.fact();
+            } else if (isSquared) {
+                val = val.multiply(val);
+            } else /* percent */ {
+                val = val.multiply(ONE_HUNDREDTH);
+            }
+            ++cpos;
+        }
+        return new EvalRet(cpos, val);
+    }
+
+    private EvalRet evalFactor(int i) throws SyntaxException {
+        final EvalRet result1 = evalSuffix(i);
+        int cpos = result1.pos;  // current position
+        UnifiedReal val = result1.val;   // value so far
+        if (isOperator(cpos, ExprProgram.TOKEN_POW)) {
+            final EvalRet exp = evalSignedFactor(cpos + 1);
+            cpos = exp.pos;
+            val = val.pow(exp.val);
+        }
+        return new EvalRet(cpos, val);
+    }
+
+    private EvalRet evalSignedFactor(int i) throws SyntaxException {
+        final boolean negative = isOperator(i, ExprProgram.TOKEN_SUB);
+        int cpos = negative ? i + 1 : i;
+        EvalRet tmp = evalFactor(cpos);
+        cpos = tmp.pos;
+        final UnifiedReal result = negative ? tmp.val.negate() : tmp.val;
+        return new EvalRet(cpos, result);
+    }
+
+    private boolean canStartFactor(int i) {
+        if (i >= mTokens.size()) return false;
+        final int id = mTokens.tokenId(i);
+        if (id < 0) return true;
+        if (ExprProgram.isBinary(id)) return false;
+        if (id == ExprProgram.TOKEN_FACT || id == ExprProgram.TOKEN_RPAREN) {
+            return false;
+        }
+        return true;
+    }
+
+    private EvalRet evalTerm(int i) throws SyntaxException {
+        EvalRet tmp = evalSignedFactor(i);
+        boolean is_mul = false;
+        boolean is_div = false;
+        int cpos = tmp.pos;   // Current position in expression.
+        UnifiedReal val = tmp.val;    // Current value.
+        while ((is_mul = isOperator(cpos, ExprProgram.TOKEN_MUL))
+               || (is_div = isOperator(cpos, ExprProgram.TOKEN_DIV))
+               || canStartFactor(cpos)) {
+            if (is_mul || is_div) ++cpos;
+            tmp = evalSignedFactor(cpos);
+            if (is_div) {
+                val = val.divide(tmp.val);
+            } else {
+                val = val.multiply(tmp.val);
+            }
+            cpos = tmp.pos;
+            is_mul = is_div = false;
+        }
+        return new EvalRet(cpos, val);
+    }
+
+    // As ExprProgram's isPercent().
+    private boolean isPercent(int pos) {
+        final int size = mTokens.size();
+        if (size < pos + 2 || mTokens.tokenId(pos + 1) != ExprProgram.TOKEN_PCT) {
+            return false;
+        }
+        if (mTokens.tokenId(pos) >= 0) {
+            return false;
+        }
+        if (size == pos + 2) {
+            return true;
+        }
+        final int op = mTokens.tokenId(pos + 2);
+        return op == ExprProgram.TOKEN_ADD || op == ExprProgram.TOKEN_SUB
+                || op == ExprProgram.TOKEN_RPAREN;
+    }
+
+    private EvalRet getPercentFactor(int pos, boolean isSubtraction) throws SyntaxException {
+        EvalRet tmp = evalUnary(pos);
+        UnifiedReal val = isSubtraction ? tmp.val.negate() : tmp.val;
+        val = UnifiedReal.ONE.add(val.multiply(ONE_HUNDREDTH));
+        return new EvalRet(pos + 2 /* after percent sign */, val);
+    }
+
+    private EvalRet evalExpr(int i) throws SyntaxException {
+        EvalRet tmp = evalTerm(i);
+        boolean is_plus;
+        int cpos = tmp.pos;
+        UnifiedReal val = tmp.val;
+        while ((is_plus = isOperator(cpos, ExprProgram.TOKEN_ADD))
+               || isOperator(cpos, ExprProgram.TOKEN_SUB)) {
+            if (isPercent(cpos + 1)) {
+                tmp = getPercentFactor(cpos + 1, !is_plus);
+                val = val.multiply(tmp.val);
+            } else {
+                tmp = evalTerm(cpos + 1);
+                if (is_plus) {
+                    val = val.add(tmp.val);
+                } else {
+                    val = val.subtract(tmp.val);
+                }
+            }
+            cpos = tmp.pos;
+        }
+        return new EvalRet(cpos, val);
+    }
+}
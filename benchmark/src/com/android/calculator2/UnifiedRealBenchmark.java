@@ -0,0 +1,108 @@
+/*
+ * SPDX-FileCopyrightText: 2026 The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.calculator2;
+
+import com.hp.creals.CR;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UnifiedReal operations on rational, symbolic, and generic constructive real arguments.
+ * Each benchmark also computes DISPLAY_DIGITS digits of the result, roughly as the calculator
+ * does for an initial display. Otherwise operations on constructive reals would only measure
+ * the cost of building the lazily evaluated representation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UnifiedRealBenchmark {
+    private static final int DISPLAY_DIGITS = 20;
+    private static final UnifiedReal THREE = new UnifiedReal(3);
+
+    @Param({"rational", "pi", "sqrt2", "e", "generic"})
+    public String kind;
+
+    private UnifiedReal mX;
+    private UnifiedReal mY;
+
+    @Setup
+    public void setup() {
+        switch (kind) {
+            case "rational":
+                mX = new UnifiedReal(new BoundedRational(355, 113));
+                mY = new UnifiedReal(new BoundedRational(-22, 7));
+                break;
+            case "pi":
+                mX = UnifiedReal.PI.multiply(new UnifiedReal(new BoundedRational(1, 3)));
+                mY = UnifiedReal.PI;
+                break;
+            case "sqrt2":
+                mX = UnifiedReal.TWO.sqrt();
+                mY = new UnifiedReal(8).sqrt();
+                break;
+            case "e":
+                mX = UnifiedReal.E;
+                mY = UnifiedReal.E.multiply(UnifiedReal.TWO);
+                break;
+            case "generic":
+                mX = new UnifiedReal(CR.valueOf(7).sqrt().add(CR.ONE));
+                mY = new UnifiedReal(CR.valueOf(3).ln());
+                break;
+            default:
+                throw new IllegalArgumentException(kind);
+        }
+    }
+
+    @Benchmark
+    public String add() {
+        return mX.add(mY).toStringTruncated(DISPLAY_DIGITS);
+    }
+
+    @Benchmark
+    public String multiply() {
+        return mX.multiply(mY).toStringTruncated(DISPLAY_DIGITS);
+    }
+
+    @Benchmark
+    public String sqrt() {
+        return mX.sqrt().toStringTruncated(DISPLAY_DIGITS);
+    }
+
+    @Benchmark
+    public String sin() {
+        return mX.sin().toStringTruncated(DISPLAY_DIGITS);
+    }
+
+    @Benchmark
+    public String ln() {
+        return mX.ln().toStringTruncated(DISPLAY_DIGITS);
+    }
+
+    @Benchmark
+    public String exp() {
+        return mX.exp().toStringTruncated(DISPLAY_DIGITS);
+    }
+
+    @Benchmark
+    public String pow() {
+        return mX.pow(THREE).toStringTruncated(DISPLAY_DIGITS);
+    }
+}
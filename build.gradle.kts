@@ -78,6 +78,7 @@ dependencies {
     implementation("androidx.webkit:webkit:1.7.0")
     implementation("com.google.android.material:material:1.9.0")
     implementation("com.hp:crcalc:1.0")
+    implementation(project(":core"))
 }
 
 configure<GenerateBpPluginExtension> {
@@ -0,0 +1,26 @@
+/*
+ * SPDX-FileCopyrightText: 2026 The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+plugins {
+    `java-library`
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_17
+    targetCompatibility = JavaVersion.VERSION_17
+}
+
+sourceSets {
+    getByName("main") {
+        java.srcDirs("src")
+        // Unit tests are in src/test/java, the default for the test source set.
+        java.exclude("test/**")
+    }
+}
+
+dependencies {
+    api("com.hp:crcalc:1.0")
+    testImplementation("junit:junit:4.13.2")
+}
@@ -0,0 +1,53 @@
+/*
+ * SPDX-FileCopyrightText: 2026 The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.calculator2;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * The fork-join pool on which Factorial and DecimalConverter run large computations in
+ * parallel.
+ *
+ * We don't use the common pool, whose threads run at normal priority, and which other code in
+ * the process may rely on. Our workers run at a priority that Android maps to
+ * THREAD_PRIORITY_BACKGROUND, that of the evaluation threads that wait for them.
+ */
+final class ArithmeticPool {
+    private ArithmeticPool() {}
+
+    private static final int WORKER_PRIORITY = Thread.NORM_PRIORITY - 1;
+
+    // Initialized on first use.
+    private static class Holder {
+        static final ForkJoinPool sPool = new ForkJoinPool(
+                Runtime.getRuntime().availableProcessors(),
+                new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                    @Override
+                    public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                        final ForkJoinWorkerThread thread =
+                                ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                        thread.setName("ArithmeticPool-" + thread.getPoolIndex());
+                        thread.setPriority(WORKER_PRIORITY);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, null, false);
+    }
+
+    /**
+     * Run task in the pool, and return its result once it completes. Tasks it forks also run
+     * in the pool. Exceptions thrown by the task are rethrown.
+     */
+    static <T> T invoke(ForkJoinTask<T> task) {
+        if (ForkJoinTask.getPool() == Holder.sPool) {
+            // Already running in the pool.
+            return task.invoke();
+        }
+        return Holder.sPool.invoke(task);
+    }
+}
@@ -0,0 +1,562 @@
+/*
+ * SPDX-FileCopyrightText: 2026 The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.calculator2;
+
+import com.hp.creals.CR;
+import com.hp.creals.UnaryCRFunction;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+
+/**
+ * Constructive reals for exp, ln, atan, pi, e and ln(2) that are fast at high precision.
+ *
+ * The CR implementations sum Taylor series term by term, which takes time roughly quadratic
+ * in the number of terms even with fast multiplication. Here we instead evaluate series with
+ * rational terms by binary splitting: the sum of a range of terms is computed as a fraction
+ * from the sums of its two halves, so that the work is dominated by a few multiplications of
+ * large, similarly sized numbers. Arguments that are not small rationals are handled with the
+ * "bit-burst" technique: the argument is split into pieces with 8, 16, 32, ... bits, each of
+ * which is a small rational with a rapidly converging series.
+ *
+ * Below PRECISION_THRESHOLD bits, where the setup costs dominate, each CR simply delegates to
+ * the corresponding CR library implementation.
+ *
+ * Internally, we mostly compute with fixed point numbers: a BigInteger x with w fractional
+ * bits represents x / 2^w.
+ */
+final class BinarySplitting {
+    private BinarySplitting() {}
+
+    // Approximations with fewer bits to the right of the binary point than this are computed
+    // by the CR library.
+    static final int PRECISION_THRESHOLD = 2000;
+
+    // Extra bits carried to absorb rounding errors in intermediate results.
+    private static final int GUARD_BITS = 32;
+
+    // Number of bits in the first piece of a bit-burst decomposition.
+    private static final int FIRST_BURST_BITS = 8;
+
+    /**
+     * Return exp(x).
+     */
+    static CR exp(CR x) {
+        return new ExpCR(x);
+    }
+
+    /**
+     * Return ln(x).
+     */
+    static CR ln(CR x) {
+        return new LnCR(x);
+    }
+
+    /**
+     * Return atan(x).
+     */
+    static CR atan(CR x) {
+        return new AtanCR(x);
+    }
+
+    /**
+     * Return a new CR for pi. Each call returns a separate instance, with its own cached
+     * approximation.
+     */
+    static CR pi() {
+        return new PiCR();
+    }
+
+    /**
+     * Return a new CR for e, as pi() does for pi.
+     */
+    static CR e() {
+        return new ECR();
+    }
+
+    /**
+     * Return a new CR for ln(2), as pi() does for pi.
+     */
+    static CR ln2() {
+        return new Ln2CR();
+    }
+
+    /**
+     * Return x * 2^-n, rounded to nearest. n >= 0.
+     */
+    private static BigInteger roundedShiftRight(BigInteger x, int n) {
+        if (n == 0) {
+            return x;
+        }
+        return x.add(BigInteger.ONE.shiftLeft(n - 1)).shiftRight(n);
+    }
+
+    private static void checkInterrupt() {
+        if (Thread.interrupted()) {
+            throw new CR.AbortedException();
+        }
+    }
+
+    /**
+     * A series sum_{n >= 1} a(n) prod_{j = 1 .. n} p(j) / (q(j) 2^shift), with integer p, q and
+     * a. Subclasses define p, q, and optionally a, which is 1 by default.
+     */
+    private abstract static class Series {
+        final int mShift;
+
+        Series(int shift) {
+            mShift = shift;
+        }
+
+        abstract BigInteger p(long n);
+
+        abstract BigInteger q(long n);
+
+        BigInteger a(long n) {
+            return null;
+        }
+
+        /**
+         * Return the sum of terms 1 through nTerms - 1, as a fixed point number with w bits.
+         */
+        BigInteger sum(long nTerms, int w) {
+            if (nTerms <= 1) {
+                return BigInteger.ZERO;
+            }
+            final BigInteger[] pqt = split(1, nTerms);
+            final long shift = mShift * (nTerms - 1);
+            if (shift <= w) {
+                return pqt[2].shiftLeft((int) (w - shift)).divide(pqt[1]);
+            }
+            return pqt[2].shiftLeft(w).divide(pqt[1].shiftLeft((int) shift));
+        }
+
+        /**
+         * Return {P, Q, T} for the terms n1 .. n2 - 1, such that their sum is
+         * T / (Q 2^(shift (n2 - n1))), and P is the product of the p(j).
+         */
+        BigInteger[] split(long n1, long n2) {
+            if (n2 - n1 == 1) {
+                final BigInteger p = p(n1);
+                final BigInteger a = a(n1);
+                return new BigInteger[] { p, q(n1), a == null ? p : a.multiply(p) };
+            }
+            if (n2 - n1 > 64) {
+                checkInterrupt();
+            }
+            final long mid = (n1 + n2) >>> 1;
+            final BigInteger[] left = split(n1, mid);
+            final BigInteger[] right = split(mid, n2);
+            final BigInteger t = left[2].multiply(right[1]).shiftLeft((int) (mShift * (n2 - mid)))
+                    .add(left[0].multiply(right[2]));
+            return new BigInteger[] { left[0].multiply(right[0]), left[1].multiply(right[1]), t };
+        }
+    }
+
+    /**
+     * The Taylor series for exp(a / 2^k) - 1.
+     */
+    private static class ExpSeries extends Series {
+        private final BigInteger mA;
+
+        ExpSeries(BigInteger a, int k) {
+            super(k);
+            mA = a;
+        }
+
+        @Override
+        BigInteger p(long n) {
+            return mA;
+        }
+
+        @Override
+        BigInteger q(long n) {
+            return BigInteger.valueOf(n);
+        }
+    }
+
+    /**
+     * Return exp(a / 2^k), 0 < a / 2^k <= 1, as a fixed point number with w bits.
+     */
+    private static BigInteger expSeries(BigInteger a, int k, int w) {
+        // Find the number of terms needed for the next term to be below 2^-(w+2). Since
+        // successive terms then at least halve, the remaining terms are below 2^-(w+1).
+        final double log2Ratio = a.bitLength() - k;
+        double log2Term = 0;
+        long n = 1;
+        do {
+            log2Term += log2Ratio - Math.log(n) / Math.log(2);
+            ++n;
+        } while (log2Term > -(w + 2) || n < 3);
+        return BigInteger.ONE.shiftLeft(w).add(new ExpSeries(a, k).sum(n, w));
+    }
+
+    /**
+     * Return exp(r), for fixed point r with w bits, |r| <= 1/2.
+     */
+    private static BigInteger expReduced(BigInteger r, int w) {
+        final boolean negative = r.signum() < 0;
+        r = r.abs();
+        BigInteger result = BigInteger.ONE.shiftLeft(w);
+        int prevBits = 0;
+        for (int k = FIRST_BURST_BITS; prevBits < w; k *= 2) {
+            k = Math.min(k, w);
+            // The piece of r consisting of fraction bits prevBits + 1 .. k, as a / 2^k.
+            final BigInteger a = r.shiftRight(w - k)
+                    .subtract(r.shiftRight(w - prevBits).shiftLeft(k - prevBits));
+            if (a.signum() != 0) {
+                result = result.multiply(expSeries(a, k, w)).shiftRight(w);
+            }
+            prevBits = k;
+        }
+        if (negative) {
+            result = BigInteger.ONE.shiftLeft(2 * w).divide(result);
+        }
+        return result;
+    }
+
+    /**
+     * Return exp(x), for fixed point x with w bits. The result has a relative error of a
+     * small multiple of 2^-w, but may have fewer than w significant bits if it's tiny.
+     */
+    private static BigInteger expFixed(BigInteger x, int w) {
+        // Halve the argument until it's at most 1/2, and square the result correspondingly,
+        // with enough extra bits to cover the precision lost by squaring.
+        final int halvings = Math.max(0, x.abs().bitLength() - w + 1);
+        final int extra = halvings + GUARD_BITS;
+        BigInteger result = expReduced(x.shiftLeft(GUARD_BITS), w + extra);
+        for (int i = 0; i < halvings; ++i) {
+            checkInterrupt();
+            result = result.multiply(result).shiftRight(w + extra);
+        }
+        return result.shiftRight(extra);
+    }
+
+    /**
+     * The series (4/3) ln(2) = sum_{n >= 0} (-1)^n (n!)^2 / (2^n (2n + 1)!), excluding the first
+     * term, which is 1.
+     */
+    private static class Ln2Series extends Series {
+        Ln2Series() {
+            super(2);
+        }
+
+        @Override
+        BigInteger p(long n) {
+            return BigInteger.valueOf(-n);
+        }
+
+        @Override
+        BigInteger q(long n) {
+            return BigInteger.valueOf(2 * n + 1);
+        }
+    }
+
+    /**
+     * Return ln(2) as a fixed point number with w bits.
+     */
+    private static BigInteger ln2Fixed(int w) {
+        // Each term contributes about 3 bits.
+        final long nTerms = (w + GUARD_BITS) / 3 + 2;
+        final int wp = w + GUARD_BITS;
+        final BigInteger sum = BigInteger.ONE.shiftLeft(wp).add(new Ln2Series().sum(nTerms, wp));
+        return sum.multiply(BigInteger.valueOf(3)).shiftRight(2 + GUARD_BITS);
+    }
+
+    /**
+     * The Taylor series for atan(a / 2^k) / (a / 2^k) - 1.
+     */
+    private static class AtanSeries extends Series {
+        private final BigInteger mMinusASquared;
+
+        AtanSeries(BigInteger a, int k) {
+            super(2 * k);
+            mMinusASquared = a.multiply(a).negate();
+        }
+
+        @Override
+        BigInteger p(long n) {
+            return mMinusASquared.multiply(BigInteger.valueOf(2 * n - 1));
+        }
+
+        @Override
+        BigInteger q(long n) {
+            return BigInteger.valueOf(2 * n + 1);
+        }
+    }
+
+    /**
+     * Return atan(a / 2^k), |a / 2^k| <= 1/2, as a fixed point number with w bits.
+     */
+    private static BigInteger atanSeries(BigInteger a, int k, int w) {
+        // Each term is smaller than the previous one by a factor of at least 2^(2 * bitsPerTerm).
+        final long bitsPerTerm = k - a.abs().bitLength();
+        final long nTerms = (w + 2) / (2 * Math.max(bitsPerTerm, 1)) + 2;
+        final BigInteger sum = BigInteger.ONE.shiftLeft(w).add(new AtanSeries(a, k).sum(nTerms, w));
+        return sum.multiply(a).shiftRight(k);
+    }
+
+    /**
+     * Return atan(z), for fixed point z with w bits, |z| <= 1/2.
+     */
+    private static BigInteger atanReduced(BigInteger z, int w) {
+        final BigInteger one = BigInteger.ONE.shiftLeft(w);
+        BigInteger result = BigInteger.ZERO;
+        for (int k = FIRST_BURST_BITS; ; k *= 2) {
+            if (k >= w || z.signum() == 0) {
+                // atan(z) = z to within the error of z.
+                return result.add(z);
+            }
+            // Truncate z to k bits, as a / 2^k, and use
+            // atan(z) = atan(a / 2^k) + atan((z - a / 2^k) / (1 + z a / 2^k)).
+            // The second argument is less than 2^-(k-1) in absolute value.
+            final BigInteger a = z.signum() > 0 ? z.shiftRight(w - k)
+                    : z.negate().shiftRight(w - k).negate();
+            if (a.signum() != 0) {
+                result = result.add(atanSeries(a, k, w));
+                final BigInteger num = z.subtract(a.shiftLeft(w - k)).shiftLeft(w);
+                final BigInteger den = one.add(z.multiply(a).shiftRight(k));
+                z = num.divide(den);
+            }
+        }
+    }
+
+    /**
+     * Return an approximation of pi as a fixed point number with w bits, using the Chudnovsky
+     * series.
+     */
+    private static BigInteger piFixed(int w) {
+        final int wp = w + GUARD_BITS;
+        // Each term contributes about 47 bits.
+        final long nTerms = wp / 47 + 2;
+        final BigInteger[] pqt = new ChudnovskySeries().split(1, nTerms);
+        // pi = 426880 sqrt(10005) / (13591409 + T / Q)
+        final BigInteger sqrt10005 =
+                BoundedRational.isqrt(BigInteger.valueOf(10005).shiftLeft(2 * wp));
+        final BigInteger num = sqrt10005.multiply(BigInteger.valueOf(426880)).multiply(pqt[1]);
+        final BigInteger den = pqt[1].multiply(BigInteger.valueOf(13591409)).add(pqt[2]);
+        return num.divide(den).shiftRight(GUARD_BITS);
+    }
+
+    private static class ChudnovskySeries extends Series {
+        // 640320^3 / 24
+        private static final BigInteger C3_OVER_24 = BigInteger.valueOf(10939058860032000L);
+
+        ChudnovskySeries() {
+            super(0);
+        }
+
+        @Override
+        BigInteger p(long n) {
+            return BigInteger.valueOf(6 * n - 5).multiply(BigInteger.valueOf(2 * n - 1))
+                    .multiply(BigInteger.valueOf(6 * n - 1)).negate();
+        }
+
+        @Override
+        BigInteger q(long n) {
+            final BigInteger bigN = BigInteger.valueOf(n);
+            return bigN.multiply(bigN).multiply(bigN).multiply(C3_OVER_24);
+        }
+
+        @Override
+        BigInteger a(long n) {
+            return BigInteger.valueOf(545140134L).multiply(BigInteger.valueOf(n))
+                    .add(BigInteger.valueOf(13591409));
+        }
+    }
+
+    /**
+     * A CR that delegates to a CR library implementation at low precision.
+     */
+    private abstract static class ThresholdCR extends CR {
+        private final CR mFallback;
+
+        ThresholdCR(CR fallback) {
+            mFallback = fallback;
+        }
+
+        @Override
+        protected BigInteger approximate(int p) {
+            if (p > -PRECISION_THRESHOLD) {
+                return fallbackApproximate(p);
+            }
+            return fastApproximate(p);
+        }
+
+        protected BigInteger fallbackApproximate(int p) {
+            return mFallback.get_appr(p);
+        }
+
+        /**
+         * Return this value scaled by 2^-p, with an error of less than 1.
+         */
+        protected abstract BigInteger fastApproximate(int p);
+    }
+
+    private static class PiCR extends ThresholdCR {
+        PiCR() {
+            super(CR.PI);
+        }
+
+        @Override
+        protected BigInteger fastApproximate(int p) {
+            return roundedShiftRight(piFixed(-p + 2), 2);
+        }
+    }
+
+    private static class ECR extends ThresholdCR {
+        ECR() {
+            super(CR.ONE.exp());
+        }
+
+        @Override
+        protected BigInteger fastApproximate(int p) {
+            final int w = -p + GUARD_BITS;
+            return roundedShiftRight(expSeries(BigInteger.ONE, 0, w), GUARD_BITS);
+        }
+    }
+
+    private static class Ln2CR extends ThresholdCR {
+        Ln2CR() {
+            super(CR.valueOf(2).ln());
+        }
+
+        @Override
+        protected BigInteger fastApproximate(int p) {
+            return roundedShiftRight(ln2Fixed(-p + 2), 2);
+        }
+    }
+
+    private static class ExpCR extends ThresholdCR {
+        private final CR mArg;
+
+        ExpCR(CR arg) {
+            super(arg.exp());
+            mArg = arg;
+        }
+
+        @Override
+        protected BigInteger fastApproximate(int p) {
+            // Bound the size of the result, so that we know how much relative precision we
+            // need.
+            final BigInteger roughArg = mArg.get_appr(0);
+            if (roughArg.bitLength() > 30) {
+                // The result is either astronomically large or indistinguishable from zero.
+                return fallbackApproximate(p);
+            }
+            final long bound = Math.abs(roughArg.longValue()) + 1;
+            final int resultBits = roughArg.signum() > 0 ? (int) (bound * 1.4427 + 2) : 0;
+            final int w = -p + resultBits + GUARD_BITS;
+            final BigInteger x = mArg.get_appr(-w);
+            return roundedShiftRight(expFixed(x, w), w + p);
+        }
+    }
+
+    private static class LnCR extends ThresholdCR {
+        private final CR mArg;
+
+        LnCR(CR arg) {
+            super(arg.ln());
+            mArg = arg;
+        }
+
+        @Override
+        protected BigInteger fastApproximate(int p) {
+            // Find m such that x / 2^m is close to 1. Let the CR library deal with
+            // nonpositive and tiny arguments.
+            BigInteger rough = null;
+            int roughPrec = -64;
+            while (roughPrec >= -4 * PRECISION_THRESHOLD) {
+                rough = mArg.get_appr(roughPrec);
+                if (rough.bitLength() >= 32) {
+                    break;
+                }
+                roughPrec *= 2;
+            }
+            if (rough.signum() <= 0 || rough.bitLength() < 32) {
+                return fallbackApproximate(p);
+            }
+            final int m = rough.bitLength() - 1 + roughPrec;
+            final int w = -p + GUARD_BITS + 32 - Integer.numberOfLeadingZeros(Math.abs(m) | 1);
+            // ln(x) = ln(x / 2^m) + m ln(2), where x / 2^m is in [1/2, 2].
+            final BigInteger xScaled = mArg.get_appr(m - w);
+            BigInteger y = lnNear1(xScaled, w);
+            if (m != 0) {
+                y = y.add(ln2Fixed(w).multiply(BigInteger.valueOf(m)));
+            }
+            return roundedShiftRight(y, w + p);
+        }
+    }
+
+    /**
+     * Return ln(x) for fixed point x with w bits, 1/2 <= x <= 2.
+     * We use Newton's method, y' = y - 1 + x exp(-y), doubling the precision at each step.
+     */
+    private static BigInteger lnNear1(BigInteger x, int w) {
+        // Precisions for successive Newton steps, from last to first.
+        final int startBits = 48;
+        final ArrayList<Integer> precs = new ArrayList<Integer>();
+        for (int prec = w; prec > startBits; prec = prec / 2 + 8) {
+            precs.add(prec);
+        }
+        // Initial approximation, accurate to about startBits bits.
+        final double xDouble = x.shiftRight(Math.max(0, w - 60)).doubleValue()
+                / Math.pow(2, Math.min(w, 60));
+        int curPrec = 60;
+        BigInteger y = BigInteger.valueOf((long) (Math.log(xDouble) * Math.pow(2, 60)));
+        for (int i = precs.size() - 1; i >= 0; --i) {
+            checkInterrupt();
+            final int prec = precs.get(i) + GUARD_BITS;
+            y = curPrec <= prec ? y.shiftLeft(prec - curPrec) : y.shiftRight(curPrec - prec);
+            curPrec = prec;
+            final BigInteger xPrec = x.shiftLeft(prec).shiftRight(w);
+            final BigInteger e = expFixed(y.negate(), prec);
+            y = y.subtract(BigInteger.ONE.shiftLeft(prec)).add(xPrec.multiply(e).shiftRight(prec));
+        }
+        return curPrec <= w ? y.shiftLeft(w - curPrec) : y.shiftRight(curPrec - w);
+    }
+
+    private static class AtanCR extends ThresholdCR {
+        private final CR mArg;
+
+        AtanCR(CR arg) {
+            super(UnaryCRFunction.atanFunction.execute(arg));
+            mArg = arg;
+        }
+
+        @Override
+        protected BigInteger fastApproximate(int p) {
+            final int w = -p + GUARD_BITS;
+            final BigInteger one = BigInteger.ONE.shiftLeft(w);
+            BigInteger z = mArg.get_appr(-w);
+            final boolean negative = z.signum() < 0;
+            z = z.abs();
+            final BigInteger half = one.shiftRight(1);
+            BigInteger result = BigInteger.ZERO;
+            if (z.compareTo(one) > 0) {
+                // atan(z) = pi/2 - atan(1/z)
+                final BigInteger pi = piFixed(w);
+                result = pi.shiftRight(1);
+                z = one.shiftLeft(w).divide(z);
+                if (z.compareTo(half) > 0) {
+                    // atan(z) = pi/4 + atan((z - 1) / (z + 1)), so the original value is
+                    // pi/4 - atan((z - 1) / (z + 1)).
+                    result = result.subtract(pi.shiftRight(2));
+                    z = z.subtract(one).shiftLeft(w).divide(z.add(one));
+                }
+                result = result.subtract(atanReduced(z, w));
+            } else {
+                if (z.compareTo(half) > 0) {
+                    result = piFixed(w).shiftRight(2);
+                    z = z.subtract(one).shiftLeft(w).divide(z.add(one));
+                }
+                result = result.add(atanReduced(z, w));
+            }
+            result = roundedShiftRight(result, GUARD_BITS);
+            return negative ? result.negate() : result;
+        }
+    }
+}
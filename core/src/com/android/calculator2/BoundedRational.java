@@ -0,0 +1,1103 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calculator2;
+
+import com.hp.creals.CR;
+
+import java.math.BigInteger;
+import java.util.Objects;
+
+/**
+ * Rational numbers that may turn to null if they get too big.
+ * For many operations, if the length of the nuumerator plus the length of the denominator exceeds
+ * a maximum size, we simply return null, and rely on our caller do something else.
+ * We currently never return null for a pure integer or for a BoundedRational that has just been
+ * constructed, except that pow() returns null for integers with more bits than a BigInteger
+ * can hold, or exponents with more than 1000 bits.
+ *
+ * We also implement a number of irrational functions.  These return a non-null result only when
+ * the result is known to be rational.
+ */
+public class BoundedRational {
+    // TODO: Consider returning null for integers.  With some care, large factorials might become
+    // much faster.
+    // TODO: Maybe eventually make this extend Number?
+
+    private static final int MAX_SIZE = 10000; // total, in bits
+
+    // If both numerator and denominator fit in a long, other than Long.MIN_VALUE, they are
+    // stored in mSmallNum and mSmallDen, and mNum and mDen are null. Otherwise mNum and mDen
+    // hold the value. Numbers entered by users almost always fit, and operations on them then
+    // use overflow-checked long arithmetic, promoting to BigInteger only on overflow. Excluding
+    // Long.MIN_VALUE ensures that negation cannot overflow.
+    // The representation is determined by the numerator and denominator values; the fraction is
+    // not necessarily in lowest terms in either case.
+    private final long mSmallNum;
+    private final long mSmallDen;
+    private final BigInteger mNum;
+    private final BigInteger mDen;
+    // For the BigInteger representation, the size in bits of the last reduced value from which
+    // this one was computed, or of this value if it was constructed directly. Determines when
+    // we next reduce. See maybeReduce().
+    private final int mReducedBits;
+
+    public BoundedRational(BigInteger n, BigInteger d) {
+        this(n, d, n.bitLength() + d.bitLength());
+    }
+
+    private BoundedRational(BigInteger n, BigInteger d, int reducedBits) {
+        if (fitsSmall(n) && fitsSmall(d)) {
+            mSmallNum = n.longValue();
+            mSmallDen = d.longValue();
+            mNum = mDen = null;
+            mReducedBits = 0;
+        } else {
+            mSmallNum = mSmallDen = 0;
+            mNum = n;
+            mDen = d;
+            mReducedBits = reducedBits;
+        }
+    }
+
+    public BoundedRational(BigInteger n) {
+        this(n, BigInteger.ONE);
+    }
+
+    public BoundedRational(long n, long d) {
+        if (n != Long.MIN_VALUE && d != Long.MIN_VALUE) {
+            mSmallNum = n;
+            mSmallDen = d;
+            mNum = mDen = null;
+            mReducedBits = 0;
+        } else {
+            mSmallNum = mSmallDen = 0;
+            mNum = BigInteger.valueOf(n);
+            mDen = BigInteger.valueOf(d);
+            mReducedBits = mNum.bitLength() + mDen.bitLength();
+        }
+    }
+
+    public BoundedRational(long n) {
+        this(n, 1);
+    }
+
+    private static boolean fitsSmall(BigInteger x) {
+        return x.bitLength() < 64 && x.longValue() != Long.MIN_VALUE;
+    }
+
+    private boolean isSmall() {
+        return mNum == null;
+    }
+
+    BigInteger bigNum() {
+        return mNum != null ? mNum : BigInteger.valueOf(mSmallNum);
+    }
+
+    BigInteger bigDen() {
+        return mDen != null ? mDen : BigInteger.valueOf(mSmallDen);
+    }
+
+    private boolean denIsOne() {
+        return isSmall() ? mSmallDen == 1 : mDen.equals(BigInteger.ONE);
+    }
+
+    /**
+     * Return x.bitLength() for BigInteger x with the same value.
+     */
+    private static int bitLength(long x) {
+        return 64 - Long.numberOfLeadingZeros(x < 0 ? ~x : x);
+    }
+
+    /**
+     * Return the size of the last reduced value from which this one was computed.
+     * Small values are always reduced.
+     */
+    private int reducedBits() {
+        return isSmall() ? sizeInBits() : mReducedBits;
+    }
+
+    /**
+     * Return the greatest common divisor of the absolute values of the arguments, neither of
+     * which may be Long.MIN_VALUE, using the binary GCD algorithm.
+     */
+    private static long gcd(long a, long b) {
+        a = Math.abs(a);
+        b = Math.abs(b);
+        if (a == 0) {
+            return b;
+        }
+        if (b == 0) {
+            return a;
+        }
+        final int shift = Long.numberOfTrailingZeros(a | b);
+        a >>= Long.numberOfTrailingZeros(a);
+        do {
+            b >>= Long.numberOfTrailingZeros(b);
+            if (a > b) {
+                final long t = a;
+                a = b;
+                b = t;
+            }
+            b -= a;
+        } while (b != 0);
+        return a << shift;
+    }
+
+    // Returned by multiplySmall() and addSmall() if the result does not fit. Long.MIN_VALUE is
+    // never a small numerator or denominator. Overflow is common on the long fast paths, so we
+    // avoid Math.multiplyExact() and addExact(): throwing and catching their exception costs far
+    // more than the BigInteger arithmetic we then fall back to.
+    private static final long OVERFLOW = Long.MIN_VALUE;
+
+    /**
+     * Return a * b, or OVERFLOW if that does not fit.
+     */
+    private static long multiplySmall(long a, long b) {
+        final long product = a * b;
+        return Math.multiplyHigh(a, b) == (product >> 63) ? product : OVERFLOW;
+    }
+
+    /**
+     * Return a + b, or OVERFLOW if that does not fit or either argument is OVERFLOW.
+     */
+    private static long addSmall(long a, long b) {
+        final long sum = a + b;
+        if (a == OVERFLOW || b == OVERFLOW || ((a ^ sum) & (b ^ sum)) < 0) {
+            return OVERFLOW;
+        }
+        return sum;
+    }
+
+    /**
+     * Produce BoundedRational equal to the given double.
+     */
+    public static BoundedRational valueOf(double x) {
+        final long l = Math.round(x);
+        if ((double) l == x && Math.abs(l) <= 1000) {
+            return valueOf(l);
+        }
+        final long allBits = Double.doubleToRawLongBits(Math.abs(x));
+        long mantissa = (allBits & ((1L << 52) - 1));
+        final int biased_exp = (int)(allBits >>> 52);
+        if ((biased_exp & 0x7ff) == 0x7ff) {
+            throw new ArithmeticException("Infinity or NaN not convertible to BoundedRational");
+        }
+        final long sign = x < 0.0 ? -1 : 1;
+        int exp = biased_exp - 1075;  // 1023 + 52; we treat mantissa as integer.
+        if (biased_exp == 0) {
+            exp += 1;  // Denormal exponent is 1 greater.
+        } else {
+            mantissa += (1L << 52);  // Implied leading one.
+        }
+        BigInteger num = BigInteger.valueOf(sign * mantissa);
+        BigInteger den = BigInteger.ONE;
+        if (exp >= 0) {
+            num = num.shiftLeft(exp);
+        } else {
+            den = den.shiftLeft(-exp);
+        }
+        return new BoundedRational(num, den);
+    }
+
+    /**
+     * Produce BoundedRational equal to the given long.
+     */
+    public static BoundedRational valueOf(long x) {
+        return valueOf(x, 1);
+    }
+
+    /**
+     * Convert to String reflecting raw representation.
+     * Debug or log messages only, not pretty.
+     */
+    public String toString() {
+        if (isSmall()) {
+            return mSmallNum + "/" + mSmallDen;
+        }
+        return mNum.toString() + "/" + mDen.toString();
+    }
+
+    /**
+     * Convert to readable String.
+     * Intended for output to user.  More expensive, less useful for debugging than
+     * toString().  Not internationalized.
+     */
+    public String toNiceString() {
+        final BoundedRational nicer = reduce().positiveDen();
+        String result = nicer.bigNum().toString();
+        if (!nicer.denIsOne()) {
+            result += "/" + nicer.bigDen();
+        }
+        return result;
+    }
+
+    public static String toString(BoundedRational r) {
+        if (r == null) {
+            return "not a small rational";
+        }
+        return r.toString();
+    }
+
+    /**
+     * Returns a truncated (rounded towards 0) representation of the result.
+     * Includes n digits to the right of the decimal point.
+     * @param n result precision, >= 0
+     */
+    public String toStringTruncated(int n) {
+        String digits = DecimalConverter.toString(
+                bigNum().abs().multiply(BigInteger.TEN.pow(n)).divide(bigDen().abs()));
+        int len = digits.length();
+        if (len < n + 1) {
+            digits = StringUtils.repeat('0', n + 1 - len) + digits;
+            len = n + 1;
+        }
+        return (signum() < 0 ? "-" : "") + digits.substring(0, len - n) + "."
+                + digits.substring(len - n);
+    }
+
+    /**
+     * Return the absolute value of this times 10^n, truncated to an integer, together with the
+     * remainder of the corresponding division.  The remainder can be passed to
+     * nextScaledDigits() to compute additional digits.
+     * @param n result precision, >= 0
+     */
+    BigInteger[] scaledAbsAndRemainder(int n) {
+        return bigNum().abs().multiply(BigInteger.TEN.pow(n)).divideAndRemainder(bigDen().abs());
+    }
+
+    /**
+     * Return the n decimal digits following those produced by a previous call to
+     * scaledAbsAndRemainder() or nextScaledDigits(), as an integer, together with the new
+     * remainder.  The cost depends only on n and the size of this, not on the number of digits
+     * previously computed.
+     * @param remainder remainder returned by the previous call
+     * @param n number of additional digits, >= 0
+     */
+    BigInteger[] nextScaledDigits(BigInteger remainder, int n) {
+        return remainder.multiply(BigInteger.TEN.pow(n)).divideAndRemainder(bigDen().abs());
+    }
+
+    /**
+     * Return a double approximation.
+     * The result is correctly rounded to nearest, with ties rounded away from zero.
+     * TODO: Should round ties to even.
+     */
+    public double doubleValue() {
+        if (isSmall() && Math.abs(mSmallNum) <= DOUBLE_EXACT_LIMIT
+                && Math.abs(mSmallDen) <= DOUBLE_EXACT_LIMIT) {
+            // Both are exactly representable, so the quotient is correctly rounded. It cannot
+            // be a tie, since it is either exactly representable or not a dyadic rational.
+            return mSmallNum == 0 ? 0.0 : (double) mSmallNum / (double) mSmallDen;
+        }
+        final BigInteger num = bigNum();
+        final BigInteger den = bigDen();
+        final int sign = signum();
+        if (sign < 0) {
+            return -BoundedRational.negate(this).doubleValue();
+        }
+        // We get the mantissa by dividing the numerator by denominator, after
+        // suitably prescaling them so that the integral part of the result contains
+        // enough bits. We do the prescaling to avoid any precision loss, so the division result
+        // is correctly truncated towards zero.
+        final int apprExp = num.bitLength() - den.bitLength();
+        if (apprExp < -1100 || sign == 0) {
+            // Bail fast for clearly zero result.
+            return 0.0;
+        }
+        final int neededPrec = apprExp - 80;
+        final BigInteger dividend = neededPrec < 0 ? num.shiftLeft(-neededPrec) : num;
+        final BigInteger divisor = neededPrec > 0 ? den.shiftLeft(neededPrec) : den;
+        final BigInteger quotient = dividend.divide(divisor);
+        final int qLength = quotient.bitLength();
+        int extraBits = qLength - 53;
+        int exponent = neededPrec + qLength;  // Exponent assuming leading binary point.
+        if (exponent >= -1021) {
+            // Binary point is actually to right of leading bit.
+            --exponent;
+        } else {
+            // We're in the gradual underflow range. Drop more bits.
+            extraBits += (-1022 - exponent) + 1;
+            exponent = -1023;
+        }
+        final BigInteger bigMantissa =
+                quotient.add(BigInteger.ONE.shiftLeft(extraBits - 1)).shiftRight(extraBits);
+        if (exponent > 1024) {
+            return Double.POSITIVE_INFINITY;
+        }
+        if (exponent > -1023 && bigMantissa.bitLength() != 53
+                || exponent <= -1023 && bigMantissa.bitLength() >= 53) {
+            throw new AssertionError("doubleValue internal error");
+        }
+        final long mantissa = bigMantissa.longValue();
+        final long bits = (mantissa & ((1l << 52) - 1)) | (((long) exponent + 1023) << 52);
+        return Double.longBitsToDouble(bits);
+    }
+
+    public CR crValue() {
+        if (isSmall()) {
+            return CR.valueOf(mSmallNum).divide(CR.valueOf(mSmallDen));
+        }
+        return CR.valueOf(mNum).divide(CR.valueOf(mDen));
+    }
+
+    public int intValue() {
+        BoundedRational reduced = reduce();
+        if (!reduced.denIsOne()) {
+            throw new ArithmeticException("intValue of non-int");
+        }
+        return reduced.isSmall() ? (int) reduced.mSmallNum : reduced.mNum.intValue();
+    }
+
+    // Approximate number of bits to left of binary point.
+    // Negative indicates leading zeroes to the right of binary point.
+    public int wholeNumberBits() {
+        if (isSmall()) {
+            return mSmallNum == 0 ? Integer.MIN_VALUE
+                    : bitLength(mSmallNum) - bitLength(mSmallDen);
+        }
+        if (mNum.signum() == 0) {
+            return Integer.MIN_VALUE;
+        } else {
+            return mNum.bitLength() - mDen.bitLength();
+        }
+    }
+
+    /**
+     * Is this number too big for us to continue with rational arithmetic?
+     * We return fals for integers on the assumption that we have no better fallback.
+     */
+    private boolean tooBig() {
+        if (isSmall() || mDen.equals(BigInteger.ONE)) {
+            return false;
+        }
+        return (sizeInBits() > MAX_SIZE);
+    }
+
+    /**
+     * Return the combined bit length of numerator and denominator.
+     * A rough measure of the space occupied by this number.
+     */
+    public int sizeInBits() {
+        if (isSmall()) {
+            return bitLength(mSmallNum) + bitLength(mSmallDen);
+        }
+        return mNum.bitLength() + mDen.bitLength();
+    }
+
+    /**
+     * Return an equivalent fraction with a positive denominator.
+     */
+    private BoundedRational positiveDen() {
+        if (isSmall()) {
+            return mSmallDen > 0 ? this : new BoundedRational(-mSmallNum, -mSmallDen);
+        }
+        if (mDen.signum() > 0) {
+            return this;
+        }
+        return new BoundedRational(mNum.negate(), mDen.negate(), mReducedBits);
+    }
+
+    /**
+     * Return an equivalent fraction in lowest terms.
+     * Denominator sign may remain negative.
+     */
+    private BoundedRational reduce() {
+        if (isSmall()) {
+            final long divisor = gcd(mSmallNum, mSmallDen);
+            if (divisor == 1) {
+                return this;
+            }
+            return new BoundedRational(mSmallNum / divisor, mSmallDen / divisor);
+        }
+        if (mDen.equals(BigInteger.ONE)) {
+            return this;  // Optimization only
+        }
+        final BigInteger divisor = gcd(mNum, mDen);
+        return new BoundedRational(mNum.divide(divisor), mDen.divide(divisor));
+    }
+
+    /**
+     * Return the greatest common divisor of the absolute values of a and b.
+     * If one of them fits in a long, as is common for denominators, we need only a single
+     * BigInteger remainder operation before switching to binary GCD on longs. Otherwise
+     * BigInteger.gcd() uses a hybrid of Euclid's algorithm and binary GCD.
+     */
+    private static BigInteger gcd(BigInteger a, BigInteger b) {
+        if (a.bitLength() < b.bitLength()) {
+            final BigInteger t = a;
+            a = b;
+            b = t;
+        }
+        if (b.signum() != 0 && fitsSmall(b)) {
+            final long small = Math.abs(b.longValue());
+            return BigInteger.valueOf(gcd(small, a.mod(BigInteger.valueOf(small)).longValue()));
+        }
+        return a.gcd(b);
+    }
+
+    // We reduce a result once its size exceeds REDUCE_GROWTH_FACTOR times the size of the last
+    // reduced value it was computed from. Thus the cost of reduction is amortized over the
+    // operations that made the value grow, and intermediate results stay within a constant
+    // factor of their reduced size. The policy is deterministic, and depends only on the values.
+    private static final int REDUCE_GROWTH_FACTOR = 2;
+
+    /**
+     * Return a possibly reduced version of r that's not tooBig().
+     * Return null if none exists.
+     */
+    private static BoundedRational maybeReduce(BoundedRational r) {
+        if (r == null) return null;
+        if (r.isSmall()) {
+            // Reducing is cheap, and keeps us on the long fast path longer.
+            return canonical(r.reduce());
+        }
+        if (!r.tooBig()
+                && (long) r.sizeInBits() <= (long) REDUCE_GROWTH_FACTOR * r.mReducedBits) {
+            return r;
+        }
+        BoundedRational result = r.positiveDen();
+        result = result.reduce();
+        if (!result.tooBig()) {
+            return result;
+        }
+        return null;
+    }
+
+    public int compareTo(BoundedRational r) {
+        // Compare by multiplying both sides by denominators, invert result if denominator product
+        // was negative.
+        if (isSmall() && r.isSmall()) {
+            // Compare the full 128-bit products.
+            final long high = Math.multiplyHigh(mSmallNum, r.mSmallDen);
+            final long rHigh = Math.multiplyHigh(r.mSmallNum, mSmallDen);
+            final int cmp = high != rHigh ? Long.compare(high, rHigh)
+                    : Long.compareUnsigned(mSmallNum * r.mSmallDen, r.mSmallNum * mSmallDen);
+            return cmp * Long.signum(mSmallDen) * Long.signum(r.mSmallDen);
+        }
+        final BigInteger num = bigNum();
+        final BigInteger den = bigDen();
+        final BigInteger rNum = r.bigNum();
+        final BigInteger rDen = r.bigDen();
+        return num.multiply(rDen).compareTo(rNum.multiply(den)) * den.signum() * rDen.signum();
+    }
+
+    public int signum() {
+        if (isSmall()) {
+            return Long.signum(mSmallNum) * Long.signum(mSmallDen);
+        }
+        return mNum.signum() * mDen.signum();
+    }
+
+    @Override
+    public int hashCode() {
+        // Note that this may be too expensive to be useful.
+        // Reduced fractions have a unique representation, so equal values hash consistently.
+        BoundedRational reduced = reduce().positiveDen();
+        if (reduced.isSmall()) {
+            return 31 * Long.hashCode(reduced.mSmallNum) + Long.hashCode(reduced.mSmallDen);
+        }
+        return Objects.hash(reduced.mNum, reduced.mDen);
+    }
+
+    @Override
+    public boolean equals(Object r) {
+        return r != null && r instanceof BoundedRational && compareTo((BoundedRational) r) == 0;
+    }
+
+    // We use static methods for arithmetic, so that we can easily handle the null case.  We try
+    // to catch domain errors whenever possible, sometimes even when one of the arguments is null,
+    // but not relevant.
+
+    /**
+     * Returns equivalent BigInteger result if it exists, null if not.
+     */
+    public static BigInteger asBigInteger(BoundedRational r) {
+        if (r == null) {
+            return null;
+        }
+        if (r.isSmall()) {
+            return r.mSmallNum % r.mSmallDen == 0
+                    ? BigInteger.valueOf(r.mSmallNum / r.mSmallDen) : null;
+        }
+        final BigInteger[] quotAndRem = r.mNum.divideAndRemainder(r.mDen);
+        if (quotAndRem[1].signum() == 0) {
+            return quotAndRem[0];
+        } else {
+            return null;
+        }
+    }
+    public static BoundedRational add(BoundedRational r1, BoundedRational r2) {
+        if (r1 == null || r2 == null) {
+            return null;
+        }
+        if (r1.isSmall() && r2.isSmall()) {
+            final long num;
+            final long den;
+            if (r1.mSmallDen == r2.mSmallDen) {
+                num = addSmall(r1.mSmallNum, r2.mSmallNum);
+                den = r1.mSmallDen;
+            } else {
+                num = addSmall(multiplySmall(r1.mSmallNum, r2.mSmallDen),
+                        multiplySmall(r2.mSmallNum, r1.mSmallDen));
+                den = multiplySmall(r1.mSmallDen, r2.mSmallDen);
+            }
+            if (num != OVERFLOW && den != OVERFLOW) {
+                return maybeReduce(new BoundedRational(num, den));
+            }
+            // Overflow. Fall back to BigInteger arithmetic.
+        }
+        final BigInteger den1 = r1.bigDen();
+        final BigInteger den2 = r2.bigDen();
+        final BigInteger den = den1.multiply(den2);
+        final BigInteger num = r1.bigNum().multiply(den2).add(r2.bigNum().multiply(den1));
+        return maybeReduce(new BoundedRational(num, den,
+                Math.max(r1.reducedBits(), r2.reducedBits())));
+    }
+
+    /**
+     * Return the argument, but with the opposite sign.
+     * Returns null only for a null argument.
+     */
+    public static BoundedRational negate(BoundedRational r) {
+        if (r == null) {
+            return null;
+        }
+        if (r.isSmall()) {
+            return new BoundedRational(-r.mSmallNum, r.mSmallDen);
+        }
+        return new BoundedRational(r.mNum.negate(), r.mDen, r.mReducedBits);
+    }
+
+    public static BoundedRational subtract(BoundedRational r1, BoundedRational r2) {
+        return add(r1, negate(r2));
+    }
+
+    /**
+     * Return product of r1 and r2 without reducing the result.
+     */
+    private static BoundedRational rawMultiply(BoundedRational r1, BoundedRational r2) {
+        // It's tempting but marginally unsound to reduce 0 * null to 0.  The null could represent
+        // an infinite value, for which we failed to throw an exception because it was too big.
+        if (r1 == null || r2 == null) {
+            return null;
+        }
+        // Optimize the case of our special ONE constant, since that's cheap and somewhat frequent.
+        if (r1 == ONE) {
+            return r2;
+        }
+        if (r2 == ONE) {
+            return r1;
+        }
+        if (r1.isSmall() && r2.isSmall()) {
+            final long num = multiplySmall(r1.mSmallNum, r2.mSmallNum);
+            final long den = multiplySmall(r1.mSmallDen, r2.mSmallDen);
+            if (num != OVERFLOW && den != OVERFLOW) {
+                return new BoundedRational(num, den);
+            }
+            // Overflow. Fall back to BigInteger arithmetic.
+        }
+        final BigInteger num = r1.bigNum().multiply(r2.bigNum());
+        final BigInteger den = r1.bigDen().multiply(r2.bigDen());
+        return new BoundedRational(num, den, Math.max(r1.reducedBits(), r2.reducedBits()));
+    }
+
+    public static BoundedRational multiply(BoundedRational r1, BoundedRational r2) {
+        return maybeReduce(rawMultiply(r1, r2));
+    }
+
+    public static class ZeroDivisionException extends ArithmeticException {
+        public ZeroDivisionException() {
+            super("Division by zero");
+        }
+    }
+
+    /**
+     * Return the reciprocal of r (or null if the argument was null).
+     */
+    public static BoundedRational inverse(BoundedRational r) {
+        if (r == null) {
+            return null;
+        }
+        if (r.signum() == 0) {
+            throw new ZeroDivisionException();
+        }
+        if (r.isSmall()) {
+            return new BoundedRational(r.mSmallDen, r.mSmallNum);
+        }
+        return new BoundedRational(r.mDen, r.mNum, r.mReducedBits);
+    }
+
+    public static BoundedRational divide(BoundedRational r1, BoundedRational r2) {
+        return multiply(r1, inverse(r2));
+    }
+
+    public static BoundedRational sqrt(BoundedRational r) {
+        // Return non-null if numerator and denominator are perfect squares.
+        if (r == null) {
+            return null;
+        }
+        r = r.positiveDen().reduce();
+        if (r.signum() < 0) {
+            throw new ArithmeticException("sqrt(negative)");
+        }
+        if (r.isSmall()) {
+            final long numSqrt = isqrt(r.mSmallNum);
+            if (numSqrt * numSqrt != r.mSmallNum) {
+                return null;
+            }
+            final long denSqrt = isqrt(r.mSmallDen);
+            if (denSqrt * denSqrt != r.mSmallDen) {
+                return null;
+            }
+            return new BoundedRational(numSqrt, denSqrt);
+        }
+        final BigInteger num = r.mNum;
+        final BigInteger den = r.mDen;
+        if (!isPossibleSquare(num) || !isPossibleSquare(den)
+                || num.bitLength() > MAX_SQRT_BITS || den.bitLength() > MAX_SQRT_BITS) {
+            return null;
+        }
+        final BigInteger num_sqrt = isqrt(num);
+        if (!num_sqrt.multiply(num_sqrt).equals(num)) {
+            return null;
+        }
+        final BigInteger den_sqrt = isqrt(den);
+        if (!den_sqrt.multiply(den_sqrt).equals(den)) {
+            return null;
+        }
+        return new BoundedRational(num_sqrt, den_sqrt);
+    }
+
+    // We don't try to take exact square roots of larger numerators or denominators, since
+    // that may take a noticeable amount of time. Results that large are not displayed exactly
+    // anyway.
+    private static final int MAX_SQRT_BITS = 100000;
+
+    // Bit i is set if i is a square mod 64, resp. 63.
+    private static final long SQUARES_MOD_64 = squaresMod(64);
+    private static final long SQUARES_MOD_63 = squaresMod(63);
+
+    private static long squaresMod(int m) {
+        long result = 0;
+        for (int i = 0; i < m; ++i) {
+            result |= 1L << (i * i % m);
+        }
+        return result;
+    }
+
+    /**
+     * Return false if the nonnegative argument is definitely not a perfect square.
+     * Quickly rejects about 94% of non-squares, based on their residues mod 64 and 63.
+     */
+    private static boolean isPossibleSquare(BigInteger n) {
+        return (SQUARES_MOD_64 & (1L << (n.intValue() & 63))) != 0
+                && (SQUARES_MOD_63 & (1L << n.mod(BIG_63).intValue())) != 0;
+    }
+
+    private static final BigInteger BIG_63 = BigInteger.valueOf(63);
+
+    // The floor of the square root of Long.MAX_VALUE.
+    private static final long MAX_LONG_SQRT = 3037000499L;
+
+    /**
+     * Return the floor of the square root of the nonnegative argument.
+     */
+    private static long isqrt(long n) {
+        long result = (long) Math.sqrt((double) n);
+        // The double computation may be slightly off for n >= 2^52.
+        while (result * result > n) {
+            --result;
+        }
+        while (result < MAX_LONG_SQRT && (result + 1) * (result + 1) <= n) {
+            ++result;
+        }
+        return result;
+    }
+
+    /**
+     * Return the floor of the square root of the nonnegative argument, using Newton's method.
+     * BigInteger.sqrt() is not available on all Android versions we support.
+     */
+    static BigInteger isqrt(BigInteger n) {
+        if (fitsSmall(n)) {
+            return BigInteger.valueOf(isqrt(n.longValue()));
+        }
+        // Start with an overestimate, accurate to about 50 bits, computed from the leading
+        // bits of n. An even shift preserves the square root up to a power of two.
+        final int shift = (n.bitLength() - 52) & ~1;
+        BigInteger result = BigInteger.valueOf(isqrt(n.shiftRight(shift).longValue()) + 1)
+                .shiftLeft(shift / 2);
+        // Starting from above, the iterates decrease until they reach the floor of the root.
+        while (true) {
+            if (Thread.interrupted()) {
+                throw new CR.AbortedException();
+            }
+            final BigInteger next = result.add(n.divide(result)).shiftRight(1);
+            if (next.compareTo(result) >= 0) {
+                return result;
+            }
+            result = next;
+        }
+    }
+
+    public final static BoundedRational ZERO = new BoundedRational(0);
+    public final static BoundedRational HALF = new BoundedRational(1,2);
+    public final static BoundedRational MINUS_HALF = new BoundedRational(-1,2);
+    public final static BoundedRational THIRD = new BoundedRational(1,3);
+    public final static BoundedRational QUARTER = new BoundedRational(1,4);
+    public final static BoundedRational SIXTH = new BoundedRational(1,6);
+    public final static BoundedRational ONE = new BoundedRational(1);
+    public final static BoundedRational MINUS_ONE = new BoundedRational(-1);
+    public final static BoundedRational TWO = new BoundedRational(2);
+    public final static BoundedRational MINUS_TWO = new BoundedRational(-2);
+    public final static BoundedRational TEN = new BoundedRational(10);
+    public final static BoundedRational TWELVE = new BoundedRational(12);
+    public final static BoundedRational THIRTY = new BoundedRational(30);
+    public final static BoundedRational MINUS_THIRTY = new BoundedRational(-30);
+    public final static BoundedRational FORTY_FIVE = new BoundedRational(45);
+    public final static BoundedRational MINUS_FORTY_FIVE = new BoundedRational(-45);
+    public final static BoundedRational NINETY = new BoundedRational(90);
+    public final static BoundedRational MINUS_NINETY = new BoundedRational(-90);
+
+    // Named constants that canonical() should return when asked for their values.
+    private static final BoundedRational[] NAMED_CONSTANTS = { ZERO, HALF, MINUS_HALF, THIRD,
+            QUARTER, SIXTH, ONE, MINUS_ONE, TWO, MINUS_TWO, TEN, TWELVE, THIRTY, MINUS_THIRTY,
+            FORTY_FIVE, MINUS_FORTY_FIVE, NINETY, MINUS_NINETY };
+
+    // We keep shared canonical instances of common small values: integers n with
+    // |n| <= limit, reciprocals 1/n with 2 <= n <= limit, and 10^k and 10^-k for
+    // 1 <= k <= MAX_CANONICAL_POWER_OF_TEN. Reusing them avoids allocation when parsing
+    // constants and combining small values, and makes identity checks like r == ONE succeed
+    // more often. The table holds, in order, the integers -limit .. limit, the reciprocals, and
+    // the positive and negative powers of ten. Entries are filled in lazily; a race at worst
+    // allocates an extra copy.
+    public static final int DEFAULT_CANONICAL_LIMIT = 1000;
+    private static final int MAX_CANONICAL_POWER_OF_TEN = 18;
+    private static final long[] POWERS_OF_TEN = new long[MAX_CANONICAL_POWER_OF_TEN + 1];
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int k = 1; k <= MAX_CANONICAL_POWER_OF_TEN; ++k) {
+            POWERS_OF_TEN[k] = 10 * POWERS_OF_TEN[k - 1];
+        }
+    }
+    private static volatile BoundedRational[] sCanonical =
+            new BoundedRational[canonicalTableSize(DEFAULT_CANONICAL_LIMIT)];
+
+    private static int canonicalTableSize(int limit) {
+        return 3 * limit + 2 * MAX_CANONICAL_POWER_OF_TEN;
+    }
+
+    /**
+     * Set the range of integers and reciprocals for which we keep canonical instances.
+     * Existing canonical instances remain valid, but may no longer be returned.
+     */
+    static void setCanonicalLimit(int limit) {
+        if (limit < 10) {
+            // We need at least the single-digit values for valueOf(long).
+            throw new IllegalArgumentException("Canonical limit too small: " + limit);
+        }
+        sCanonical = new BoundedRational[canonicalTableSize(limit)];
+    }
+
+    /**
+     * Return k > 0 such that x == 10^k, with k <= MAX_CANONICAL_POWER_OF_TEN, or 0.
+     */
+    private static int powerOfTenExponent(long x) {
+        // 10^k is divisible by exactly k factors of 2.
+        final int k = Long.numberOfTrailingZeros(x);
+        return k >= 1 && k <= MAX_CANONICAL_POWER_OF_TEN && x == POWERS_OF_TEN[k] ? k : 0;
+    }
+
+    /**
+     * Return the canonical table index for num/den in a table of the given size, or -1.
+     * The fraction need not be in lowest terms.
+     */
+    private static int canonicalIndex(long num, long den, int tableSize) {
+        final int limit = (tableSize - 2 * MAX_CANONICAL_POWER_OF_TEN) / 3;
+        if (den < 0) {
+            num = -num;
+            den = -den;
+        }
+        if (den == 0) {
+            return -1;
+        }
+        if (num % den == 0) {
+            final long n = num / den;
+            if (n >= -limit && n <= limit) {
+                return (int) n + limit;
+            }
+            final int k = n > 0 ? powerOfTenExponent(n) : 0;
+            return k > 0 ? 3 * limit - 1 + k : -1;
+        }
+        if (num > 0 && den % num == 0) {
+            final long d = den / num;
+            if (d <= limit) {
+                return 2 * limit - 1 + (int) d;
+            }
+            final int k = powerOfTenExponent(d);
+            return k > 0 ? 3 * limit - 1 + MAX_CANONICAL_POWER_OF_TEN + k : -1;
+        }
+        return -1;
+    }
+
+    /**
+     * Return the canonical instance at index i of the table, creating it if necessary.
+     */
+    private static BoundedRational canonicalAt(BoundedRational[] table, int i) {
+        BoundedRational result = table[i];
+        if (result != null) {
+            return result;
+        }
+        final int limit = (table.length - 2 * MAX_CANONICAL_POWER_OF_TEN) / 3;
+        if (i <= 2 * limit) {
+            result = new BoundedRational(i - limit);
+        } else if (i < 3 * limit) {
+            result = new BoundedRational(1, i - 2 * limit + 1);
+        } else if (i < 3 * limit + MAX_CANONICAL_POWER_OF_TEN) {
+            result = new BoundedRational(POWERS_OF_TEN[i - 3 * limit + 1]);
+        } else {
+            result = new BoundedRational(1,
+                    POWERS_OF_TEN[i - 3 * limit - MAX_CANONICAL_POWER_OF_TEN + 1]);
+        }
+        for (BoundedRational named : NAMED_CONSTANTS) {
+            if (named.mSmallNum == result.mSmallNum && named.mSmallDen == result.mSmallDen) {
+                result = named;
+                break;
+            }
+        }
+        table[i] = result;
+        return result;
+    }
+
+    /**
+     * Return the index of r's value in the table of canonical instances, or -1 if we don't
+     * keep one. The index is only meaningful in conjunction with canonicalTableSize().
+     */
+    static int canonicalIndex(BoundedRational r) {
+        if (r == null || !r.isSmall()) {
+            return -1;
+        }
+        return canonicalIndex(r.mSmallNum, r.mSmallDen, sCanonical.length);
+    }
+
+    /**
+     * Return the current size of the table of canonical instances.
+     */
+    static int canonicalTableSize() {
+        return sCanonical.length;
+    }
+
+    /**
+     * Return a shared instance with the same value as r, if we keep one. Otherwise return r.
+     */
+    public static BoundedRational canonical(BoundedRational r) {
+        if (r == null || !r.isSmall()) {
+            return r;
+        }
+        final BoundedRational[] table = sCanonical;
+        final int i = canonicalIndex(r.mSmallNum, r.mSmallDen, table.length);
+        return i < 0 ? r : canonicalAt(table, i);
+    }
+
+    /**
+     * Produce BoundedRational equal to num/den, returning a shared instance when we have one.
+     */
+    public static BoundedRational valueOf(long num, long den) {
+        final BoundedRational[] table = sCanonical;
+        final int i = canonicalIndex(num, den, table.length);
+        return i < 0 ? new BoundedRational(num, den) : canonicalAt(table, i);
+    }
+
+    private static final BigInteger BIG_TWO = BigInteger.valueOf(2);
+
+    /**
+     * Return a lower bound on the size in bits of this^exp, assuming this is reduced and exp is
+     * nonnegative. Saturates at Long.MAX_VALUE. Nothing is allocated.
+     * An m-bit numerator raised to the e-th power has at least e * (m - 1) + 1 bits.
+     */
+    private long powSizeLowerBound(BigInteger exp) {
+        final long perPower = isSmall()
+                ? bitLength(Math.abs(mSmallNum)) + bitLength(mSmallDen) - 2
+                : mNum.abs().bitLength() + mDen.bitLength() - 2;
+        if (perPower == 0 || exp.signum() == 0) {
+            return 0;
+        }
+        if (exp.bitLength() > 62 || exp.longValue() > Long.MAX_VALUE / perPower) {
+            return Long.MAX_VALUE;
+        }
+        return perPower * exp.longValue();
+    }
+
+    /**
+     * Would rawPow(exp) certainly fail?
+     * Assumes this is reduced and exp is positive.
+     */
+    private boolean powTooBig(BigInteger exp) {
+        if (denIsOne()) {
+            // We compute integer powers exactly, however large, unless BigInteger can't
+            // represent them at all.
+            return powSizeLowerBound(exp) > Integer.MAX_VALUE;
+        }
+        // rawPow() gives up if its last squaring, which computes this^(exp with the low bit
+        // cleared), is tooBig(). If even a lower bound on that size is, we know in advance.
+        return powSizeLowerBound(exp.clearBit(0)) > MAX_SIZE;
+    }
+
+    private static final BigInteger BIG_MINUS_ONE = BigInteger.valueOf(-1);
+
+    // Longs with at most this magnitude are exactly representable as doubles.
+    private static final long DOUBLE_EXACT_LIMIT = 1L << 53;
+
+    /**
+     * Compute integral power of this, assuming this has been reduced and exp is >= 0.
+     * Uses left-to-right binary exponentiation, so that stack usage is independent of exp.
+     */
+    private BoundedRational rawPow(BigInteger exp) {
+        if (exp.signum() == 0) {
+            return ONE;
+        }
+        BoundedRational result = this;
+        for (int i = exp.bitLength() - 2; i >= 0; --i) {
+            if (Thread.interrupted()) {
+                throw new CR.AbortedException();
+            }
+            result = rawMultiply(result, result);
+            if (result == null || result.tooBig()) {
+                return null;
+            }
+            if (exp.testBit(i)) {
+                result = rawMultiply(result, this);
+            }
+        }
+        // Powers of a fraction in lowest terms are in lowest terms.
+        return result.isSmall() ? result : new BoundedRational(result.mNum, result.mDen);
+    }
+
+    /**
+     * Compute an integral power of this.
+     */
+    public BoundedRational pow(BigInteger exp) {
+        int expSign = exp.signum();
+        if (expSign == 0) {
+            // Questionable if base has undefined or zero value.
+            // java.lang.Math.pow() returns 1 anyway, so we do the same.
+            return BoundedRational.ONE;
+        }
+        if (exp.equals(BigInteger.ONE)) {
+            return this;
+        }
+        // Reducing once at the beginning means there's no point in reducing later.
+        BoundedRational reduced = reduce().positiveDen();
+        // First handle cases in which huge exponents could give compact results.
+        // These values have a small representation.
+        if (reduced.isSmall() && reduced.mSmallDen == 1) {
+            if (reduced.mSmallNum == 0) {
+                return ZERO;
+            }
+            if (reduced.mSmallNum == 1) {
+                return ONE;
+            }
+            if (reduced.mSmallNum == -1) {
+                if (exp.testBit(0)) {
+                    return MINUS_ONE;
+                } else {
+                    return ONE;
+                }
+            }
+        }
+        if (exp.bitLength() > 1000) {
+            // Any other reduced base has a numerator or denominator of absolute value at
+            // least 2, so the result would take more than 2^1000 bits to represent.
+            return null;
+        }
+        final BoundedRational base = expSign < 0 ? inverse(reduced).positiveDen() : reduced;
+        final BigInteger absExp = exp.abs();
+        // Predict the result size before doing any real work, so that non-integer results
+        // that would exceed MAX_SIZE fail fast, and callers can fall back to an approximation.
+        if (base.powTooBig(absExp)) {
+            return null;
+        }
+        return base.rawPow(absExp);
+    }
+
+    public static BoundedRational pow(BoundedRational base, BoundedRational exp) {
+        if (exp == null) {
+            return null;
+        }
+        if (base == null) {
+            return null;
+        }
+        exp = exp.reduce().positiveDen();
+        if (!exp.denIsOne()) {
+            return null;
+        }
+        return base.pow(exp.bigNum());
+    }
+
+
+    private static final BigInteger BIG_FIVE = BigInteger.valueOf(5);
+
+    /**
+     * Return the number of decimal digits to the right of the decimal point required to represent
+     * the argument exactly.
+     * Return Integer.MAX_VALUE if that's not possible.  Never returns a value less than zero, even
+     * if r is a power of ten.
+     */
+    public static int digitsRequired(BoundedRational r) {
+        if (r == null) {
+            return Integer.MAX_VALUE;
+        }
+        int powersOfTwo = 0;  // Max power of 2 that divides denominator
+        int powersOfFive = 0;  // Max power of 5 that divides denominator
+        // Try the easy case first to speed things up.
+        if (r.denIsOne()) {
+            return 0;
+        }
+        r = r.reduce();
+        if (r.isSmall()) {
+            long smallDen = Math.abs(r.mSmallDen);
+            powersOfTwo = Long.numberOfTrailingZeros(smallDen);
+            smallDen >>= powersOfTwo;
+            while (smallDen % 5 == 0) {
+                ++powersOfFive;
+                smallDen /= 5;
+            }
+            return smallDen == 1 ? Math.max(powersOfTwo, powersOfFive) : Integer.MAX_VALUE;
+        }
+        BigInteger den = r.mDen;
+        if (den.bitLength() > MAX_SIZE) {
+            return Integer.MAX_VALUE;
+        }
+        while (!den.testBit(0)) {
+            ++powersOfTwo;
+            den = den.shiftRight(1);
+        }
+        while (den.mod(BIG_FIVE).signum() == 0) {
+            ++powersOfFive;
+            den = den.divide(BIG_FIVE);
+        }
+        // If the denominator has a factor of other than 2 or 5 (the divisors of 10), the decimal
+        // expansion does not terminate.  Multiplying the fraction by any number of powers of 10
+        // will not cancel the demoniator.  (Recall the fraction was in lowest terms to start
+        // with.) Otherwise the powers of 10 we need to cancel the denominator is the larger of
+        // powersOfTwo and powersOfFive.
+        if (!den.equals(BigInteger.ONE) && !den.equals(BIG_MINUS_ONE)) {
+            return Integer.MAX_VALUE;
+        }
+        return Math.max(powersOfTwo, powersOfFive);
+    }
+}
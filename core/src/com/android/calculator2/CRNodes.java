@@ -0,0 +1,227 @@
+/*
+ * SPDX-FileCopyrightText: 2026 The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.calculator2;
+
+import com.hp.creals.CR;
+
+import java.util.HashMap;
+
+/**
+ * Hash-consed constructive real operations.
+ *
+ * Each CR caches its most precise approximation. But UnifiedReal builds a new CR for every
+ * operation, so a formula that mentions the same subexpression repeatedly, e.g. sin(x)/cos(x),
+ * or the same PreEval value twice, evaluates the shared part once per occurrence, at every
+ * precision. Within an evaluation scope, these methods instead return the existing node for a
+ * structurally identical operation on identical operands, so that its approximations are
+ * shared. Rational leaves are identified by value, other operands by identity.
+ *
+ * Scopes are per thread, and are entered by ExprProgram.execute(). Outside a scope, each call
+ * simply builds a new node. Nodes are only remembered until the outermost scope exits.
+ */
+final class CRNodes {
+    private CRNodes() {}
+
+    // Rationals with more bits are not worth looking up by value.
+    private static final int MAX_LEAF_BITS = 256;
+
+    private static final int OP_ADD = 0;
+    private static final int OP_MULTIPLY = 1;
+    private static final int OP_NEGATE = 2;
+    private static final int OP_INVERSE = 3;
+    private static final int OP_SQRT = 4;
+    private static final int OP_SIN = 5;
+    private static final int OP_COS = 6;
+    private static final int OP_ASIN = 7;
+    private static final int OP_LN = 8;
+    private static final int OP_EXP = 9;
+    private static final int OP_ATAN = 10;
+
+    /**
+     * An operation applied to operands, compared by identity.
+     */
+    private static final class Key {
+        private final int mOp;
+        private final CR mX;
+        private final CR mY;  // Null for unary operations.
+
+        Key(int op, CR x, CR y) {
+            mOp = op;
+            mX = x;
+            mY = y;
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * mOp + System.identityHashCode(mX)) * 31 + System.identityHashCode(mY);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key k = (Key) o;
+            return mOp == k.mOp && mX == k.mX && mY == k.mY;
+        }
+    }
+
+    /**
+     * The nodes built in one evaluation scope.
+     */
+    private static final class Scope {
+        int mDepth = 0;
+        final HashMap<Key, CR> mNodes = new HashMap<Key, CR>();
+        final HashMap<BoundedRational, CR> mLeaves = new HashMap<BoundedRational, CR>();
+    }
+
+    private static final ThreadLocal<Scope> sScope = new ThreadLocal<Scope>();
+
+    /**
+     * Enter an evaluation scope. Must be paired with exit(), typically in a finally clause.
+     * Scopes nest; nodes are shared until the outermost one exits.
+     */
+    static void enter() {
+        Scope scope = sScope.get();
+        if (scope == null) {
+            scope = new Scope();
+            sScope.set(scope);
+        }
+        ++scope.mDepth;
+    }
+
+    static void exit() {
+        final Scope scope = sScope.get();
+        if (--scope.mDepth == 0) {
+            sScope.remove();
+        }
+    }
+
+    /**
+     * Return the node for op(x, y), building it if necessary.
+     */
+    private static CR node(int op, CR x, CR y) {
+        final Scope scope = sScope.get();
+        final Key key = scope == null ? null : new Key(op, x, y);
+        if (key != null) {
+            final CR result = scope.mNodes.get(key);
+            if (result != null) {
+                return result;
+            }
+        }
+        final CR result;
+        switch (op) {
+            case OP_ADD:
+                result = x.add(y);
+                break;
+            case OP_MULTIPLY:
+                result = x.multiply(y);
+                break;
+            case OP_NEGATE:
+                result = x.negate();
+                break;
+            case OP_INVERSE:
+                result = x.inverse();
+                break;
+            case OP_SQRT:
+                result = x.sqrt();
+                break;
+            case OP_SIN:
+                result = x.sin();
+                break;
+            case OP_COS:
+                result = x.cos();
+                break;
+            case OP_ASIN:
+                result = x.asin();
+                break;
+            case OP_LN:
+                result = BinarySplitting.ln(x);
+                break;
+            case OP_EXP:
+                result = BinarySplitting.exp(x);
+                break;
+            case OP_ATAN:
+                result = BinarySplitting.atan(x);
+                break;
+            default:
+                throw new AssertionError("Bad CR node op " + op);
+        }
+        if (key != null) {
+            scope.mNodes.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Return a CR equal to r.
+     */
+    static CR valueOf(BoundedRational r) {
+        final Scope scope = sScope.get();
+        if (scope == null || r.sizeInBits() > MAX_LEAF_BITS) {
+            return r.crValue();
+        }
+        CR result = scope.mLeaves.get(r);
+        if (result == null) {
+            result = r.crValue();
+            scope.mLeaves.put(r, result);
+        }
+        return result;
+    }
+
+    static CR add(CR x, CR y) {
+        return node(OP_ADD, x, y);
+    }
+
+    static CR multiply(CR x, CR y) {
+        return node(OP_MULTIPLY, x, y);
+    }
+
+    static CR negate(CR x) {
+        return node(OP_NEGATE, x, null);
+    }
+
+    static CR inverse(CR x) {
+        return node(OP_INVERSE, x, null);
+    }
+
+    static CR sqrt(CR x) {
+        return node(OP_SQRT, x, null);
+    }
+
+    static CR sin(CR x) {
+        return node(OP_SIN, x, null);
+    }
+
+    static CR cos(CR x) {
+        return node(OP_COS, x, null);
+    }
+
+    static CR asin(CR x) {
+        return node(OP_ASIN, x, null);
+    }
+
+    /**
+     * Return ln(x), using BinarySplitting.
+     */
+    static CR ln(CR x) {
+        return node(OP_LN, x, null);
+    }
+
+    /**
+     * Return exp(x), using BinarySplitting.
+     */
+    static CR exp(CR x) {
+        return node(OP_EXP, x, null);
+    }
+
+    /**
+     * Return atan(x), using BinarySplitting.
+     */
+    static CR atan(CR x) {
+        return node(OP_ATAN, x, null);
+    }
+}
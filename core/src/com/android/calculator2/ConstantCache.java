@@ -0,0 +1,338 @@
+/*
+ * SPDX-FileCopyrightText: 2026 The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.calculator2;
+
+import com.hp.creals.CR;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * A persistent cache of high-precision approximations of named constants, such as pi.
+ *
+ * Named constants are wrapped with wrap(), which returns a CR that serves approximations from
+ * the cache when the cache is precise enough, and otherwise computes them as usual. Once
+ * init() names the cache file, its contents are memory-mapped in the background, and each
+ * constant is decoded the first time it's needed. Constants are extended to DEFAULT_BITS in
+ * the background, and more precise approximations computed on demand are recorded as well.
+ * Either way the file is rewritten in the background.
+ *
+ * Background extensions compute on a private instance of the constant, not holding the lock
+ * of the shared one, which foreground evaluations may need in the meantime.
+ *
+ * File format, big-endian: MAGIC, FORMAT_VERSION, the number of entries, then for each entry
+ * its name as a length-prefixed UTF-8 string, the precision p of the approximation, and the
+ * approximation, scaled by 2^-p, as a length-prefixed two's complement byte array.
+ * Caching is only an optimization: unreadable or stale files are ignored, and write failures
+ * are silently dropped.
+ */
+public final class ConstantCache {
+    private ConstantCache() {}
+
+    private static final int MAGIC = 0x43524331;  // "CRC1"
+    // Increment whenever the definition of a cached constant changes.
+    private static final int FORMAT_VERSION = 1;
+
+    // Number of bits to the right of the binary point we compute for each constant in the
+    // background.
+    private static final int DEFAULT_BITS = 8192;
+    // We don't record approximations with more bits than this.
+    private static final int MAX_BITS = 1 << 17;
+
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor(r -> {
+        final Thread t = new Thread(r, "ConstantCache");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    /**
+     * A cached approximation: mAppr is the constant scaled by 2^-mPrec, with an error of less
+     * than 1.
+     */
+    private static final class Approximation {
+        final int mPrec;
+        final BigInteger mAppr;
+
+        Approximation(int prec, BigInteger appr) {
+            mPrec = prec;
+            mAppr = appr;
+        }
+    }
+
+    // All fields below are protected by the class lock.
+    private static File sFile = null;
+    private static MappedByteBuffer sMapped = null;
+    // Offsets of not yet decoded entries in sMapped, by name.
+    private static final HashMap<String, Integer> sOffsets = new HashMap<String, Integer>();
+    private static final ArrayList<CachedCR> sConstants = new ArrayList<CachedCR>();
+    private static boolean sWriteScheduled = false;
+    // Set once we have tried to map sFile.
+    private static boolean sReady = false;
+
+    /**
+     * Use the given file to persist approximations. Should be called once, early.
+     * Does no I/O on the calling thread.
+     */
+    public static void init(File file) {
+        synchronized (ConstantCache.class) {
+            if (sFile != null) {
+                return;
+            }
+            sFile = file;
+            // Queued while holding the lock, so that it precedes any write.
+            sExecutor.execute(() -> {
+                final ArrayList<CachedCR> constants;
+                synchronized (ConstantCache.class) {
+                    map(file);
+                    sReady = true;
+                    constants = new ArrayList<CachedCR>(sConstants);
+                }
+                for (CachedCR c : constants) {
+                    scheduleExtension(c);
+                }
+            });
+        }
+    }
+
+    /**
+     * Map the file and index its entries. Leaves sMapped null if the file is unusable.
+     */
+    private static void map(File file) {
+        if (!file.exists()) {
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                FileChannel channel = raf.getChannel()) {
+            final MappedByteBuffer buf =
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            if (buf.getInt() != MAGIC || buf.getInt() != FORMAT_VERSION) {
+                return;
+            }
+            final int count = buf.getInt();
+            final HashMap<String, Integer> offsets = new HashMap<String, Integer>();
+            for (int i = 0; i < count; ++i) {
+                final String name = readName(buf);
+                offsets.put(name, buf.position());
+                buf.getInt();  // Precision.
+                final int length = buf.getInt();
+                buf.position(buf.position() + length);
+            }
+            sMapped = buf;
+            sOffsets.putAll(offsets);
+        } catch (IOException | RuntimeException e) {
+            // Includes BufferUnderflowException and IllegalArgumentException for truncated
+            // or corrupted files. Start from scratch.
+            sOffsets.clear();
+        }
+    }
+
+    private static String readName(ByteBuffer buf) {
+        final byte[] bytes = new byte[buf.getShort()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decode the mapped approximation for the named constant, or return null.
+     */
+    private static Approximation decode(String name) {
+        final Integer offset = sOffsets.remove(name);
+        if (offset == null) {
+            return null;
+        }
+        try {
+            final ByteBuffer buf = sMapped.duplicate();
+            buf.position(offset);
+            final int prec = buf.getInt();
+            final byte[] bytes = new byte[buf.getInt()];
+            buf.get(bytes);
+            return new Approximation(prec, new BigInteger(bytes));
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            // Includes NumberFormatException for an empty byte array.
+            return null;
+        }
+    }
+
+    /**
+     * Return a CR equal to the ones built by factory, that uses the cache under the given name.
+     * Names must be unique. Each call to factory must return a new instance.
+     */
+    static CR wrap(String name, Supplier<CR> factory) {
+        final CachedCR result = new CachedCR(name, factory);
+        final boolean initialized;
+        synchronized (ConstantCache.class) {
+            sConstants.add(result);
+            initialized = sReady;
+        }
+        if (initialized) {
+            scheduleExtension(result);
+        }
+        return result;
+    }
+
+    private static void scheduleExtension(CachedCR c) {
+        sExecutor.execute(() -> {
+            final Approximation best = c.approximation();
+            if (best != null && best.mPrec <= -DEFAULT_BITS) {
+                return;
+            }
+            // CR.get_appr() holds the CR's lock throughout. Use our own instance, so that
+            // we don't block evaluations that need the constant in the meantime.
+            final CR fresh = c.mFactory.get();
+            c.offer(new Approximation(-DEFAULT_BITS, fresh.get_appr(-DEFAULT_BITS)));
+        });
+    }
+
+    /**
+     * Arrange for the file to be rewritten soon.
+     */
+    private static void scheduleWrite() {
+        synchronized (ConstantCache.class) {
+            if (sFile == null || sWriteScheduled) {
+                return;
+            }
+            sWriteScheduled = true;
+        }
+        sExecutor.execute(ConstantCache::write);
+    }
+
+    private static void write() {
+        final File file;
+        final ArrayList<CachedCR> constants;
+        synchronized (ConstantCache.class) {
+            sWriteScheduled = false;
+            file = sFile;
+            constants = new ArrayList<CachedCR>(sConstants);
+        }
+        final ArrayList<String> names = new ArrayList<String>();
+        final ArrayList<Approximation> apprs = new ArrayList<Approximation>();
+        for (CachedCR c : constants) {
+            final Approximation a = c.approximation();
+            if (a != null) {
+                names.add(c.mName);
+                apprs.add(a);
+            }
+        }
+        // Write a new file and rename it, so that readers never see a partial file, and we
+        // don't modify a file that may be mapped.
+        final File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(names.size());
+            for (int i = 0; i < names.size(); ++i) {
+                final byte[] name = names.get(i).getBytes(StandardCharsets.UTF_8);
+                out.writeShort(name.length);
+                out.write(name);
+                out.writeInt(apprs.get(i).mPrec);
+                final byte[] appr = apprs.get(i).mAppr.toByteArray();
+                out.writeInt(appr.length);
+                out.write(appr);
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * A named constant whose approximations are served from the cache when possible.
+     */
+    private static final class CachedCR extends CR {
+        final String mName;
+        final Supplier<CR> mFactory;
+        private final CR mBase;
+        // Most precise approximation known, or null. Protected by this object's lock, which
+        // CR.get_appr() also holds when calling approximate().
+        private Approximation mBest = null;
+        private boolean mLoaded = false;
+
+        CachedCR(String name, Supplier<CR> factory) {
+            mName = name;
+            mFactory = factory;
+            mBase = factory.get();
+        }
+
+        synchronized Approximation approximation() {
+            load();
+            return mBest;
+        }
+
+        /**
+         * Record a, if it's more precise than what we have.
+         */
+        synchronized void offer(Approximation a) {
+            load();
+            if (mBest == null || a.mPrec < mBest.mPrec) {
+                mBest = a;
+                scheduleWrite();
+            }
+        }
+
+        /**
+         * Pick up the file's approximation, if the file has been mapped.
+         */
+        private void load() {
+            if (mLoaded) {
+                return;
+            }
+            synchronized (ConstantCache.class) {
+                if (!sReady) {
+                    // Try again once init() has mapped the file.
+                    return;
+                }
+                mLoaded = true;
+                final Approximation a = sMapped == null ? null : decode(mName);
+                if (a != null && (mBest == null || a.mPrec < mBest.mPrec)) {
+                    mBest = a;
+                }
+            }
+        }
+
+        @Override
+        protected synchronized BigInteger approximate(int p) {
+            load();
+            final Approximation best = mBest;
+            if (best != null) {
+                if (p == best.mPrec) {
+                    return best.mAppr;
+                }
+                // Rounding contributes an error of at most 1/2, and the cached error then
+                // contributes at most 1/4.
+                if (p >= best.mPrec + 2) {
+                    final int shift = p - best.mPrec;
+                    return best.mAppr.add(BigInteger.ONE.shiftLeft(shift - 1)).shiftRight(shift);
+                }
+            }
+            final BigInteger result = mBase.get_appr(p);
+            if (p >= -MAX_BITS && (best == null || p < best.mPrec)) {
+                mBest = new Approximation(p, result);
+                scheduleWrite();
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * SPDX-FileCopyrightText: 2026 The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.calculator2;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Decimal conversion of huge nonnegative BigIntegers.
+ *
+ * We recursively divide by a power of ten with about half as many digits as the number being
+ * converted, and convert quotient and remainder separately. The powers of ten are cached
+ * across calls. BigInteger.toString() is not guaranteed to do this; on Android it takes time
+ * quadratic in the number of digits. For very large numbers, the two halves are converted in
+ * parallel on the ArithmeticPool.
+ */
+final class DecimalConverter {
+    private DecimalConverter() {}
+
+    // Numbers with fewer bits are converted directly with BigInteger.toString().
+    private static final int BASE_CASE_BITS = 2048;
+
+    // Number of digits in the smallest power of ten we divide by.
+    private static final int BASE_DIGITS = 256;
+
+    // Pieces with fewer digits are converted sequentially.
+    private static final int PARALLEL_MIN_DIGITS = 30000;
+
+    // sPowers.get(j) is 10^(BASE_DIGITS * 2^j). Only accessed while holding its lock.
+    private static final ArrayList<BigInteger> sPowers = new ArrayList<BigInteger>();
+
+    private static BigInteger power(int level) {
+        synchronized (sPowers) {
+            while (sPowers.size() <= level) {
+                if (sPowers.isEmpty()) {
+                    sPowers.add(BigInteger.TEN.pow(BASE_DIGITS));
+                } else {
+                    final BigInteger last = sPowers.get(sPowers.size() - 1);
+                    sPowers.add(last.multiply(last));
+                }
+            }
+            return sPowers.get(level);
+        }
+    }
+
+    /**
+     * Forget the cached powers of ten. They are recomputed as needed.
+     */
+    static void clearPowers() {
+        synchronized (sPowers) {
+            sPowers.clear();
+        }
+    }
+
+    /**
+     * Number of digits in power(level).
+     */
+    private static int width(int level) {
+        return BASE_DIGITS << level;
+    }
+
+    /**
+     * Return the decimal representation of the nonnegative integer i, with no leading zeroes.
+     * Equivalent to i.toString().
+     */
+    static String toString(BigInteger i) {
+        if (i.bitLength() <= BASE_CASE_BITS) {
+            return i.toString();
+        }
+        if (i.bitLength() < 3 * PARALLEL_MIN_DIGITS) {
+            // Fewer than PARALLEL_MIN_DIGITS digits. Nothing would be forked; stay on this thread.
+            return new NaturalTask(i).invoke();
+        }
+        return ArithmeticPool.invoke(new NaturalTask(i));
+    }
+
+    /**
+     * Return the decimal representation of the nonnegative integer i, padded with leading
+     * zeroes to at least len digits.
+     */
+    static String toString(BigInteger i, int len) {
+        final String digits = toString(i);
+        if (digits.length() < len) {
+            return StringUtils.repeat('0', len - digits.length()) + digits;
+        }
+        return digits;
+    }
+
+    /**
+     * Converts a number to a string with no leading zeroes.
+     */
+    private static class NaturalTask extends RecursiveTask<String> {
+        private final BigInteger mValue;
+
+        NaturalTask(BigInteger value) {
+            mValue = value;
+        }
+
+        @Override
+        protected String compute() {
+            if (mValue.bitLength() <= BASE_CASE_BITS) {
+                return mValue.toString();
+            }
+            // Find the smallest level at which power(level)^2 exceeds mValue. The quotient
+            // by power(level) then has at most width(level) digits.
+            int level = 0;
+            while (2L * power(level).bitLength() - 1 <= mValue.bitLength()) {
+                ++level;
+            }
+            final BigInteger[] quotAndRem = mValue.divideAndRemainder(power(level));
+            final int lowWidth = width(level);
+            final char[] low = new char[lowWidth];
+            final FixedWidthTask lowTask =
+                    new FixedWidthTask(quotAndRem[1], level - 1, low, 0, lowWidth);
+            final NaturalTask highTask = new NaturalTask(quotAndRem[0]);
+            final String high;
+            if (lowWidth < PARALLEL_MIN_DIGITS) {
+                lowTask.compute();
+                high = highTask.compute();
+            } else {
+                highTask.fork();
+                lowTask.compute();
+                high = highTask.join();
+            }
+            if (high.equals("0")) {
+                // Strip leading zeroes from the low part.
+                int start = 0;
+                while (start < lowWidth - 1 && low[start] == '0') {
+                    ++start;
+                }
+                return new String(low, start, lowWidth - start);
+            }
+            return high.concat(new String(low));
+        }
+    }
+
+    /**
+     * Writes a number less than 10^width as exactly width digits, with leading zeroes, into
+     * a range of a char array. The number is split by power(level), which has width / 2
+     * digits, and the two halves are written by recursive tasks.
+     */
+    private static class FixedWidthTask extends RecursiveAction {
+        private final BigInteger mValue;
+        private final int mLevel;
+        private final char[] mBuf;
+        private final int mStart;
+        private final int mWidth;
+
+        FixedWidthTask(BigInteger value, int level, char[] buf, int start, int width) {
+            mValue = value;
+            mLevel = level;
+            mBuf = buf;
+            mStart = start;
+            mWidth = width;
+        }
+
+        @Override
+        protected void compute() {
+            if (mLevel < 0 || mValue.bitLength() <= BASE_CASE_BITS) {
+                final String digits = mValue.toString();
+                final int nZeroes = mWidth - digits.length();
+                for (int i = 0; i < nZeroes; ++i) {
+                    mBuf[mStart + i] = '0';
+                }
+                digits.getChars(0, digits.length(), mBuf, mStart + nZeroes);
+                return;
+            }
+            final BigInteger[] quotAndRem = mValue.divideAndRemainder(power(mLevel));
+            final int lowWidth = width(mLevel);
+            final FixedWidthTask highTask = new FixedWidthTask(quotAndRem[0], mLevel - 1,
+                    mBuf, mStart, mWidth - lowWidth);
+            final FixedWidthTask lowTask = new FixedWidthTask(quotAndRem[1], mLevel - 1,
+                    mBuf, mStart + mWidth - lowWidth, lowWidth);
+            if (mWidth < PARALLEL_MIN_DIGITS) {
+                highTask.compute();
+                lowTask.compute();
+            } else {
+                invokeAll(highTask, lowTask);
+            }
+        }
+    }
+}
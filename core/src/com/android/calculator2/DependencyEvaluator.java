@@ -0,0 +1,232 @@
+/*
+ * SPDX-FileCopyrightText: 2026 The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.calculator2;
+
+import com.hp.creals.CR;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Evaluates the not yet evaluated expressions transitively referenced by a program through
+ * PreEval tokens, so that the program itself can then be executed without recursion.
+ *
+ * We build the dependency DAG of referenced expression indices, and evaluate each expression
+ * once all of its dependencies have been evaluated. Independent expressions are evaluated
+ * concurrently on the EvaluationEngine's pool, so that an expression built by repeatedly
+ * pasting earlier results takes time proportional to the longest dependency chain, rather than
+ * to the total number of referenced expressions. Each expression is evaluated by exactly one
+ * task, and its result is recorded with Entry.putResultIfAbsent(), which also resolves races
+ * with other evaluations of the same expression.
+ *
+ * Cycles cannot arise from expressions built through the UI. If we nonetheless find one, we
+ * evaluate the affected expressions sequentially afterwards, as we used to.
+ *
+ * Interrupting the calling thread aborts the evaluation, and interrupts any tasks still running
+ * on its behalf.
+ */
+class DependencyEvaluator {
+    private static class Node {
+        final long mIndex;
+        final ArrayList<Node> mDependents = new ArrayList<Node>();
+        int mPendingDeps;  // Number of dependencies not yet evaluated.  Guarded by evaluator.
+        Node(long index) {
+            mIndex = index;
+        }
+    }
+
+    private final EvaluationEngine mEngine;
+    private final ExprProgram mProgram;
+    private int mRemaining;  // Nodes not yet finished.  Guarded by this.
+    private Throwable mError;  // First failure.  Guarded by this.
+    private boolean mCancelled;  // Guarded by this.
+    private final HashSet<Thread> mRunners = new HashSet<Thread>();  // Guarded by this.
+
+    DependencyEvaluator(EvaluationEngine engine, ExprProgram program) {
+        mEngine = engine;
+        mProgram = program;
+    }
+
+    /**
+     * Evaluate and save the results of all unevaluated expressions referenced by mProgram.
+     * Rethrows the exception thrown by a failed dependency evaluation, if any.
+     */
+    void run() throws SyntaxException {
+        // Discover the dependency graph in breadth-first order.  Calls getEntry() on every
+        // referenced expression from this thread, before any of them are evaluated.
+        final HashMap<Long, Node> nodes = new HashMap<Long, Node>();
+        final ArrayList<Long> order = new ArrayList<Long>();
+        mEngine.addUnevaluatedReferences(mProgram, order);
+        final ArrayList<Long> deps = new ArrayList<Long>();
+        for (int scanned = 0; scanned < order.size(); ++scanned) {
+            final Long index = order.get(scanned);
+            Node node = nodes.get(index);
+            if (node == null) {
+                node = new Node(index);
+                nodes.put(index, node);
+            }
+            deps.clear();
+            mEngine.addUnevaluatedReferences(mEngine.getEntry(index).getProgram(), deps);
+            for (Long dep : deps) {
+                Node depNode = nodes.get(dep);
+                if (depNode == null) {
+                    depNode = new Node(dep);
+                    nodes.put(dep, depNode);
+                    order.add(dep);
+                }
+                depNode.mDependents.add(node);
+                ++node.mPendingDeps;
+            }
+        }
+        if (order.isEmpty()) {
+            return;
+        }
+        if (order.size() == 1) {
+            // Nothing to run concurrently.
+            mEngine.evaluateNested(order.get(0));
+            return;
+        }
+
+        // Find the nodes that will eventually become ready.  Anything else is part of, or
+        // depends on, a cycle.
+        final ArrayList<Node> initial = new ArrayList<Node>();
+        final HashMap<Node, Integer> pending = new HashMap<Node, Integer>();
+        final ArrayDeque<Node> ready = new ArrayDeque<Node>();
+        for (Long index : order) {
+            final Node node = nodes.get(index);
+            pending.put(node, node.mPendingDeps);
+            if (node.mPendingDeps == 0) {
+                initial.add(node);
+                ready.add(node);
+            }
+        }
+        final HashSet<Node> acyclic = new HashSet<Node>();
+        while (!ready.isEmpty()) {
+            final Node node = ready.remove();
+            acyclic.add(node);
+            for (Node dependent : node.mDependents) {
+                final int count = pending.get(dependent) - 1;
+                pending.put(dependent, count);
+                if (count == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+
+        evaluateConcurrently(initial, acyclic.size());
+
+        if (acyclic.size() != order.size()) {
+            // Sequentially evaluate what's left, in reverse breadth-first order.  This recurses
+            // through evaluateNested().
+            for (int i = order.size() - 1; i >= 0; --i) {
+                final Node node = nodes.get(order.get(i));
+                if (!acyclic.contains(node)) {
+                    mEngine.evaluateNested(node.mIndex);
+                }
+            }
+        }
+    }
+
+    private void evaluateConcurrently(ArrayList<Node> initial, int count)
+            throws SyntaxException {
+        synchronized (this) {
+            mRemaining = count;
+        }
+        for (Node node : initial) {
+            schedule(node);
+        }
+        final Throwable error;
+        synchronized (this) {
+            try {
+                while (mRemaining > 0 && mError == null) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                cancelLocked();
+                throw new CR.AbortedException();
+            }
+            error = mError;
+            if (error != null) {
+                // Nothing still running can affect the outcome.
+                cancelLocked();
+            } else {
+                // Don't start anything else; we are about to return.
+                mCancelled = true;
+            }
+        }
+        if (error instanceof SyntaxException) {
+            throw (SyntaxException) error;
+        } else if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        } else if (error instanceof Error) {
+            throw (Error) error;
+        } else if (error != null) {
+            throw new AssertionError("Unexpected exception", error);
+        }
+    }
+
+    /**
+     * Don't start any further evaluations, and abort the running ones.
+     * Must be called with our lock held.
+     */
+    private void cancelLocked() {
+        mCancelled = true;
+        for (Thread runner : mRunners) {
+            runner.interrupt();
+        }
+    }
+
+    private void schedule(final Node node) {
+        mEngine.getPool().execute(new Runnable() {
+            @Override
+            public void run() {
+                evaluate(node);
+            }
+        });
+    }
+
+    private void evaluate(Node node) {
+        final Thread self = Thread.currentThread();
+        synchronized (this) {
+            if (mCancelled) {
+                return;
+            }
+            // Clear any interrupt left over from a previous evaluation on this thread.
+            Thread.interrupted();
+            mRunners.add(self);
+        }
+        Throwable error = null;
+        try {
+            mEngine.evaluateNested(node.mIndex);
+        } catch (Throwable e) {
+            error = e;
+        }
+        final ArrayList<Node> nowReady = new ArrayList<Node>();
+        synchronized (this) {
+            mRunners.remove(self);
+            // Don't let a cancellation leak into unrelated work.
+            Thread.interrupted();
+            if (error != null) {
+                if (mError == null) {
+                    mError = error;
+                }
+            } else {
+                for (Node dependent : node.mDependents) {
+                    if (--dependent.mPendingDeps == 0) {
+                        nowReady.add(dependent);
+                    }
+                }
+            }
+            --mRemaining;
+            notifyAll();
+        }
+        for (Node dependent : nowReady) {
+            schedule(dependent);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * SPDX-FileCopyrightText: 2026 The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.calculator2;
+
+/**
+ * An immutable CharSequence holding a decimal number, as produced by
+ * UnifiedReal.toStringTruncated().
+ *
+ * Characters are packed two per byte, in fixed size chunks, which roughly halves the space
+ * needed for very long results compared to a String.  Only digits, '.', and '-' can be
+ * represented.  subSequence() returns a view that shares storage with the original.
+ * append() returns a new DigitString, but normally also shares storage: It appends in place
+ * if nobody else has already appended to the same storage, and otherwise only copies the last,
+ * partially filled, chunk.  This makes repeatedly extending a cached result cheap.
+ *
+ * Instances may be read from any thread once safely published.
+ */
+public final class DigitString implements CharSequence {
+
+    // Characters per chunk, as a power of two.
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_CHARS = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_CHARS - 1;
+
+    private static final char[] DECODE = {
+        '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', '.', '-'
+    };
+
+    /**
+     * Append-only packed character storage, possibly shared by many DigitStrings.
+     * Characters below mLength are never modified once written.  Only the last chunk may be
+     * partially filled, and only that chunk is ever written to.
+     */
+    private static final class Storage {
+        private byte[][] mChunks;
+        private int mLength;  // Number of characters written.  Guarded by this.
+
+        Storage(int capacity) {
+            mChunks = new byte[Math.max((capacity + CHUNK_MASK) >> CHUNK_SHIFT, 1)][];
+        }
+
+        /**
+         * Copy the first len characters of other, sharing all completely filled chunks.
+         */
+        Storage(Storage other, int len) {
+            synchronized (other) {
+                final int nChunks = (len + CHUNK_MASK) >> CHUNK_SHIFT;
+                mChunks = new byte[Math.max(nChunks + 1, 1)][];
+                System.arraycopy(other.mChunks, 0, mChunks, 0, nChunks);
+                if ((len & CHUNK_MASK) != 0) {
+                    mChunks[nChunks - 1] = mChunks[nChunks - 1].clone();
+                }
+                mLength = len;
+            }
+        }
+
+        synchronized void append(CharSequence s, int begin, int end) {
+            for (int i = begin; i < end; ++i) {
+                final int pos = mLength;
+                final int chunkIndex = pos >> CHUNK_SHIFT;
+                if (chunkIndex == mChunks.length) {
+                    final byte[][] newChunks = new byte[2 * chunkIndex][];
+                    System.arraycopy(mChunks, 0, newChunks, 0, chunkIndex);
+                    mChunks = newChunks;
+                }
+                if (mChunks[chunkIndex] == null) {
+                    mChunks[chunkIndex] = new byte[CHUNK_CHARS / 2];
+                }
+                final int nibble = encode(s.charAt(i));
+                final int byteIndex = (pos & CHUNK_MASK) >> 1;
+                if ((pos & 1) == 0) {
+                    mChunks[chunkIndex][byteIndex] = (byte) nibble;
+                } else {
+                    // The high nibble may hold stale data if this chunk was copied.
+                    mChunks[chunkIndex][byteIndex] =
+                            (byte) ((mChunks[chunkIndex][byteIndex] & 0xf) | (nibble << 4));
+                }
+                mLength = pos + 1;
+            }
+        }
+
+        synchronized int length() {
+            return mLength;
+        }
+
+        // Only valid for pos < a length previously observed via length() or append().
+        char charAt(int pos) {
+            final byte b = mChunks[pos >> CHUNK_SHIFT][(pos & CHUNK_MASK) >> 1];
+            return DECODE[(pos & 1) == 0 ? b & 0xf : (b >> 4) & 0xf];
+        }
+    }
+
+    private final Storage mStorage;
+    // We represent characters [mStart, mEnd) of mStorage.
+    private final int mStart;
+    private final int mEnd;
+
+    private DigitString(Storage storage, int start, int end) {
+        mStorage = storage;
+        mStart = start;
+        mEnd = end;
+    }
+
+    /**
+     * Return a DigitString with the same contents as s.
+     * @throws IllegalArgumentException if s contains a character we cannot represent
+     */
+    public static DigitString valueOf(CharSequence s) {
+        final int len = s.length();
+        final Storage storage = new Storage(len);
+        storage.append(s, 0, len);
+        return new DigitString(storage, 0, len);
+    }
+
+    private static int encode(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c == '.') {
+            return 10;
+        } else if (c == '-') {
+            return 11;
+        }
+        throw new IllegalArgumentException("Not a digit string character: " + c);
+    }
+
+    /**
+     * Return a DigitString consisting of this one followed by s.
+     * Takes time proportional to the length of s, not that of this.
+     */
+    public DigitString append(CharSequence s) {
+        final int len = s.length();
+        if (mStart == 0) {
+            synchronized (mStorage) {
+                if (mStorage.length() == mEnd) {
+                    // Nobody else has appended to our storage.  Extend it in place.
+                    mStorage.append(s, 0, len);
+                    return new DigitString(mStorage, 0, mEnd + len);
+                }
+            }
+        }
+        final Storage storage;
+        if (mStart == 0) {
+            storage = new Storage(mStorage, mEnd);
+        } else {
+            storage = new Storage(mEnd - mStart + len);
+            storage.append(this, 0, mEnd - mStart);
+        }
+        storage.append(s, 0, len);
+        return new DigitString(storage, 0, storage.length());
+    }
+
+    @Override
+    public int length() {
+        return mEnd - mStart;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= mEnd - mStart) {
+            throw new StringIndexOutOfBoundsException(index);
+        }
+        return mStorage.charAt(mStart + index);
+    }
+
+    /**
+     * Return a view of the indicated range.  Takes constant time and space.
+     */
+    @Override
+    public DigitString subSequence(int start, int end) {
+        if (start < 0 || end > mEnd - mStart || start > end) {
+            throw new StringIndexOutOfBoundsException("start " + start + ", end " + end
+                    + ", length " + (mEnd - mStart));
+        }
+        return new DigitString(mStorage, mStart + start, mStart + end);
+    }
+
+    @Override
+    public String toString() {
+        final char[] result = new char[mEnd - mStart];
+        for (int i = mStart; i < mEnd; ++i) {
+            result[i - mStart] = mStorage.charAt(i);
+        }
+        return new String(result);
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * SPDX-FileCopyrightText: 2026 The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.calculator2;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Evaluates expressions identified by index, and stores their results.
+ *
+ * Expressions are presented as Entries, which hold a compiled program, its degree mode, and
+ * its result once known. Entries are supplied by a Source, which may load them lazily. An
+ * expression may refer to others by index, through TOKEN_PRE_EVAL tokens. Before evaluating
+ * an expression, we evaluate the not yet evaluated expressions it transitively refers to with
+ * a DependencyEvaluator, concurrently where possible, so that the expression itself can then
+ * be evaluated without recursion. Concurrent evaluations run on threads created by the
+ * ThreadFactory supplied to the constructor, which may for example lower their priority.
+ *
+ * This is the evaluation engine shared by the app's Evaluator and by HeadlessEvaluator.
+ * All methods are thread-safe.
+ */
+public final class EvaluationEngine {
+
+    /**
+     * An expression, together with its result, if known.
+     */
+    public abstract static class Entry {
+        private final AtomicReference<UnifiedReal> mResult = new AtomicReference<UnifiedReal>();
+
+        /**
+         * Return the compiled expression.
+         */
+        protected abstract ExprProgram getProgram();
+
+        /**
+         * Is the expression evaluated in degree, rather than radian, mode?
+         */
+        protected abstract boolean getDegreeMode();
+
+        /**
+         * Return the result, or null if not yet known.
+         */
+        public final UnifiedReal getResult() {
+            return mResult.get();
+        }
+
+        /**
+         * Atomically test for an existing result, and set it if there was none.
+         * Return the prior result if there was one, or the new one if there was not.
+         */
+        public final UnifiedReal putResultIfAbsent(UnifiedReal result) {
+            if (mResult.compareAndSet(null, result)) {
+                return result;
+            } else {
+                // Cannot change once non-null, except through clearResult().
+                return mResult.get();
+            }
+        }
+
+        /**
+         * Forget the result, e.g. because a mutable expression changed.
+         */
+        public final void clearResult() {
+            mResult.set(null);
+        }
+    }
+
+    /**
+     * Supplies the Entry for an expression index.
+     */
+    public interface Source {
+        /*
+         * Return the Entry for the given index, loading it if necessary.
+         * May be called from any thread.
+         * Throws IllegalArgumentException if there is no such expression.
+         */
+        Entry getEntry(long index);
+    }
+
+    // How long idle dependency evaluation threads are kept around.
+    private static final long KEEP_ALIVE_SECONDS = 10;
+
+    private final Source mSource;
+    private final ThreadFactory mThreadFactory;
+    private ThreadPoolExecutor mPool;  // Lazily created.  Guarded by this.
+
+    private final ExprProgram.ValueResolver mResolver = new ExprProgram.ValueResolver() {
+        @Override
+        public UnifiedReal getValue(long index) throws SyntaxException {
+            final UnifiedReal res = mSource.getEntry(index).getResult();
+            // We try to minimize this recursive evaluation case, but don't completely avoid it,
+            // e.g. if the Source dropped a result after we evaluated it.
+            return res != null ? res : evaluateNested(index);
+        }
+    };
+
+    /**
+     * @param source supplies the expressions
+     * @param threadFactory creates threads for concurrent evaluation of dependencies
+     */
+    public EvaluationEngine(Source source, ThreadFactory threadFactory) {
+        mSource = source;
+        mThreadFactory = threadFactory;
+    }
+
+    /**
+     * Return the result of the expression with the given index, evaluating and storing it
+     * first if necessary.
+     * Errors result in exceptions, most of which are unchecked, e.g.
+     * UnifiedReal.ZeroDivisionException, or ArithmeticException.
+     */
+    public UnifiedReal evaluate(long index) throws SyntaxException {
+        final Entry entry = mSource.getEntry(index);
+        final UnifiedReal res = entry.getResult();
+        return res != null ? res : entry.putResultIfAbsent(compute(entry));
+    }
+
+    /**
+     * Evaluate entry, which need not have been supplied by our Source, and return its value
+     * without storing it. The results of expressions it refers to are stored.
+     * May take a very long time; interrupting the calling thread aborts the computation
+     * with CR.AbortedException.
+     */
+    public UnifiedReal compute(Entry entry) throws SyntaxException {
+        return compute(entry, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Evaluate entry as compute(entry), but throw UnifiedReal.ResultTooBigException rather
+     * than compute a factorial with more than maxResultBits bits in the entry itself. Such a
+     * result is almost always too big for the caller to use anyway.
+     */
+    public UnifiedReal compute(Entry entry, int maxResultBits) throws SyntaxException {
+        final ExprProgram program = entry.getProgram();
+        // First evaluate all indirectly referenced expressions in dependency order.
+        // This ensures that subsequent evaluation never encounters an embedded PreEval
+        // expression that has not been previously evaluated.
+        // We could do the embedded evaluations recursively, but that risks running out of
+        // stack space.
+        new DependencyEvaluator(this, program).run();
+        return program.execute(entry.getDegreeMode(), mResolver, maxResultBits);
+    }
+
+    /**
+     * Return an upper bound on the number of leading zero bits to the right of the binary
+     * point in the value of entry, or Integer.MAX_VALUE if we don't know the value to be
+     * nonzero.  Uses cheap interval arithmetic rather than constructive reals, and should only
+     * be called after compute() has succeeded on the same entry.
+     */
+    public int leadingBinaryZeroesBound(Entry entry) throws SyntaxException {
+        final Interval bounds = entry.getProgram().bounds(entry.getDegreeMode(), mResolver);
+        return bounds == null ? Integer.MAX_VALUE : bounds.leadingBinaryZeroes();
+    }
+
+    Entry getEntry(long index) {
+        return mSource.getEntry(index);
+    }
+
+    /**
+     * Add the indices of the not yet evaluated expressions directly referenced by program to
+     * list, unless they are already there. New indices are added to the end of the list.
+     */
+    void addUnevaluatedReferences(ExprProgram program, ArrayList<Long> list) {
+        for (long index : program.references()) {
+            if (mSource.getEntry(index).getResult() == null && !list.contains(index)) {
+                list.add(index);
+            }
+        }
+    }
+
+    /**
+     * Evaluate the expression at the given index, recursively evaluating any references
+     * without known results. Both saves and returns the result.
+     */
+    UnifiedReal evaluateNested(long index) throws SyntaxException {
+        final Entry entry = mSource.getEntry(index);
+        return entry.putResultIfAbsent(
+                entry.getProgram().execute(entry.getDegreeMode(), mResolver));
+    }
+
+    /**
+     * Return the executor for concurrent dependency evaluations.
+     */
+    synchronized Executor getPool() {
+        if (mPool == null) {
+            final int nThreads = Runtime.getRuntime().availableProcessors();
+            mPool = new ThreadPoolExecutor(nThreads, nThreads, KEEP_ALIVE_SECONDS,
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), mThreadFactory);
+            // Don't hold on to threads while nothing is being evaluated.
+            mPool.allowCoreThreadTimeOut(true);
+        }
+        return mPool;
+    }
+}
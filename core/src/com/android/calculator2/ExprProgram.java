@@ -0,0 +1,807 @@
+/*
+ * SPDX-FileCopyrightText: 2026 The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.calculator2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A compiled calculator expression, as a sequence of instructions for a simple stack machine,
+ * in postfix order.
+ *
+ * This contains everything needed to parse and evaluate an expression, without depending on
+ * Android. Expressions are presented to compile() as a TokenSource. Operator tokens are
+ * identified by the same single characters that KeyMaps.toByte() uses to save expressions,
+ * e.g. '+' for addition and 's' for sine. Numeric constants and references to previously
+ * evaluated expressions are separate token kinds.
+ *
+ * Instructions are executed in exactly the order in which the original recursive descent
+ * evaluator performed the corresponding operations, so that both the result and any exception
+ * thrown are unchanged. Syntax errors are compiled into an instruction that throws the
+ * corresponding SyntaxException when it is reached.
+ * We compute rational (BoundedRational) results when possible, both as a performance
+ * optimization, and to detect errors exactly when we can.
+ * Programs are immutable, and do not depend on degree mode, so that they may be cached
+ * and shared between threads.
+ */
+public final class ExprProgram {
+
+    // Token ids.  Operators use their KeyMaps.toByte() encoding.
+    public static final int TOKEN_CONSTANT = -1;
+    public static final int TOKEN_PRE_EVAL = -2;
+    public static final int TOKEN_PI = 'p';
+    public static final int TOKEN_E = 'e';
+    public static final int TOKEN_SQRT = 'r';
+    public static final int TOKEN_FACT = '!';
+    public static final int TOKEN_PCT = '%';
+    public static final int TOKEN_SIN = 's';
+    public static final int TOKEN_COS = 'c';
+    public static final int TOKEN_TAN = 't';
+    public static final int TOKEN_ASIN = 'S';
+    public static final int TOKEN_ACOS = 'C';
+    public static final int TOKEN_ATAN = 'T';
+    public static final int TOKEN_LN = 'l';
+    public static final int TOKEN_LOG = 'L';
+    public static final int TOKEN_EXP = 'E';
+    public static final int TOKEN_LPAREN = '(';
+    public static final int TOKEN_RPAREN = ')';
+    public static final int TOKEN_POW = '^';
+    public static final int TOKEN_MUL = '*';
+    public static final int TOKEN_DIV = '/';
+    public static final int TOKEN_ADD = '+';
+    public static final int TOKEN_SUB = '-';
+    public static final int TOKEN_SQR = '2';
+
+    /**
+     * Is the token a binary operator?
+     */
+    public static boolean isBinary(int tokenId) {
+        return tokenId == TOKEN_POW || tokenId == TOKEN_MUL || tokenId == TOKEN_DIV
+                || tokenId == TOKEN_ADD || tokenId == TOKEN_SUB;
+    }
+
+    /**
+     * A sequence of tokens to be compiled.
+     */
+    public interface TokenSource {
+        int size();
+        /*
+         * Return the id of the token at position i, i.e. TOKEN_CONSTANT, TOKEN_PRE_EVAL or an
+         * operator.
+         */
+        int tokenId(int i);
+        /*
+         * Return the value of the TOKEN_CONSTANT at position i.
+         * Throws SyntaxException if the constant is malformed.
+         */
+        BoundedRational constantValue(int i) throws SyntaxException;
+        /*
+         * Return the expression index referenced by the TOKEN_PRE_EVAL at position i.
+         */
+        long preEvalIndex(int i);
+    }
+
+    /**
+     * Supplies the values of previously evaluated expressions during execution.
+     */
+    public interface ValueResolver {
+        UnifiedReal getValue(long index) throws SyntaxException;
+    }
+
+    // Each instruction consists of an opcode in the low OP_BITS bits, and an index into
+    // mArgs in the remaining bits.
+    private final int[] mCode;
+    // UnifiedReal constants, PreEval indices, and syntax error messages.
+    private final Object[] mArgs;
+    private final int mMaxDepth;  // Maximum evaluation stack depth.
+
+    private ExprProgram(int[] code, Object[] args, int maxDepth) {
+        mCode = code;
+        mArgs = args;
+        mMaxDepth = maxDepth;
+    }
+
+    private static final int OP_BITS = 8;
+    private static final int OP_MASK = (1 << OP_BITS) - 1;
+
+    // Push mArgs[arg], a UnifiedReal.
+    private static final int OP_PUSH = 0;
+    // Push the value of the expression with index mArgs[arg], a Long.
+    private static final int OP_PRE_EVAL = 1;
+    // Throw a SyntaxException with message mArgs[arg], a possibly null String.
+    private static final int OP_SYNTAX_ERROR = 2;
+    // Unary operations, which replace the top of the stack.
+    private static final int OP_NEGATE = 3;
+    private static final int OP_SQRT = 4;
+    private static final int OP_SIN = 5;
+    private static final int OP_COS = 6;
+    private static final int OP_TAN = 7;
+    private static final int OP_LN = 8;
+    private static final int OP_EXP = 9;
+    private static final int OP_LOG = 10;
+    private static final int OP_ASIN = 11;
+    private static final int OP_ACOS = 12;
+    private static final int OP_ATAN = 13;
+    private static final int OP_FACT = 14;
+    private static final int OP_SQUARE = 15;
+    private static final int OP_PERCENT = 16;
+    private static final int OP_PERCENT_FACTOR = 17;  // 1 + x/100
+    // Binary operations, which replace the top two stack entries.
+    private static final int OP_POW = 18;
+    private static final int OP_MULTIPLY = 19;
+    private static final int OP_DIVIDE = 20;
+    private static final int OP_ADD = 21;
+    private static final int OP_SUBTRACT = 22;
+
+    /**
+     * Return the distinct indices of the expressions referenced by TOKEN_PRE_EVAL tokens that
+     * the program may evaluate, in order of first evaluation.
+     */
+    public long[] references() {
+        final ArrayList<Long> refs = new ArrayList<Long>();
+        for (int insn : mCode) {
+            if ((insn & OP_MASK) == OP_PRE_EVAL) {
+                final Long index = (Long) mArgs[insn >>> OP_BITS];
+                if (!refs.contains(index)) {
+                    refs.add(index);
+                }
+            }
+        }
+        final long[] result = new long[refs.size()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = refs.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Compile the first prefixLength tokens of the given expression.
+     * Never fails; syntax errors are reported when the resulting program is executed.
+     * Tokens beyond prefixLength are occasionally examined, as they always were, e.g. to
+     * recognize percentages.
+     */
+    public static ExprProgram compile(TokenSource tokens, int prefixLength) {
+        return new Compiler(tokens, prefixLength).compile();
+    }
+
+    private static UnifiedReal toRadians(UnifiedReal x, boolean degreeMode) {
+        if (degreeMode) {
+            return x.multiply(UnifiedReal.RADIANS_PER_DEGREE);
+        } else {
+            return x;
+        }
+    }
+
+    private static UnifiedReal fromRadians(UnifiedReal x, boolean degreeMode) {
+        if (degreeMode) {
+            return x.divide(UnifiedReal.RADIANS_PER_DEGREE);
+        } else {
+            return x;
+        }
+    }
+
+    /**
+     * Translates a prefix of a TokenSource into an ExprProgram.
+     * This is essentially a simple recursive descent parser, except that we keep pending work
+     * on an explicit stack rather than the Java call stack, so that arbitrarily deeply nested
+     * expressions can be compiled in constant native stack space.  Each pending action is
+     * either one of the PARSE_ or _LOOP states below, or an opcode to emit once everything
+     * above it on the stack has been processed.
+     * Compilation can throw IndexOutOfBoundsException in the event of a syntax error.  We
+     * expect that to be caught in compile() below.
+     */
+    private static final class Compiler {
+        // Parse states.  Opcodes are nonnegative.
+        private static final int PARSE_EXPR = -1;  // Sum of terms.
+        private static final int EXPR_LOOP = -2;  // After a term in a sum.
+        private static final int PARSE_TERM = -3;  // Product of signed factors.
+        private static final int TERM_LOOP = -4;  // After a factor in a product.
+        private static final int PARSE_SIGNED_FACTOR = -5;  // Factor with optional minus.
+        private static final int PARSE_FACTOR = -6;  // Possibly exponentiated suffix expression.
+        private static final int FACTOR_POW = -7;  // After the base of a factor.
+        private static final int PARSE_SUFFIX = -8;  // Unary expression with postfix operators.
+        private static final int SUFFIX_LOOP = -9;  // After the operand of a suffix expression.
+        private static final int PARSE_UNARY = -10;  // Operand or function application.
+        private static final int CLOSE_PAREN = -11;  // Skip optional right parenthesis.
+
+        private final TokenSource mTokens;
+        private final int[] mTokenIds;  // Ids of all tokens in mTokens.
+        private final int mPrefixLength; // Length of prefix to compile.
+        private int[] mCode = new int[16];
+        private int mCodeLength = 0;
+        private final ArrayList<Object> mArgs = new ArrayList<Object>();
+        private int mDepth = 0;
+        private int mMaxDepth = 0;
+        private int[] mPending = new int[16];
+        private int mPendingLength = 0;
+
+        Compiler(TokenSource tokens, int prefixLength) {
+            mTokens = tokens;
+            mTokenIds = new int[tokens.size()];
+            for (int i = 0; i < mTokenIds.length; ++i) {
+                mTokenIds[i] = tokens.tokenId(i);
+            }
+            mPrefixLength = prefixLength;
+        }
+
+        /**
+         * Append an instruction that changes the stack depth by depthChange.
+         */
+        private void emit(int op, int depthChange) {
+            if (mCodeLength == mCode.length) {
+                mCode = Arrays.copyOf(mCode, 2 * mCodeLength);
+            }
+            mCode[mCodeLength++] = op;
+            mDepth += depthChange;
+            mMaxDepth = Math.max(mMaxDepth, mDepth);
+        }
+
+        private void emitWithArg(int op, Object arg, int depthChange) {
+            emit(op | (mArgs.size() << OP_BITS), depthChange);
+            mArgs.add(arg);
+        }
+
+        /**
+         * Append a unary or binary operation.
+         */
+        private void emitOperation(int op) {
+            emit(op, op >= OP_POW ? -1 : 0);
+        }
+
+        private void push(int action) {
+            if (mPendingLength == mPending.length) {
+                mPending = Arrays.copyOf(mPending, 2 * mPendingLength);
+            }
+            mPending[mPendingLength++] = action;
+        }
+
+        ExprProgram compile() {
+            try {
+                // We currently never include trailing binary operators, but include other
+                // trailing operators.  Thus we usually, but not always, display results for
+                // prefixes of valid expressions, and don't generate an error where we previously
+                // displayed an instant result.  This reflects the Android L design.
+                if (compileExpr() != mPrefixLength) {
+                    emitWithArg(OP_SYNTAX_ERROR, "Failed to parse full expression", 0);
+                }
+            } catch (SyntaxException e) {
+                emitWithArg(OP_SYNTAX_ERROR, e.getMessage(), 0);
+            } catch (IndexOutOfBoundsException e) {
+                emitWithArg(OP_SYNTAX_ERROR, "Unexpected expression end", 0);
+            }
+            return new ExprProgram(Arrays.copyOf(mCode, mCodeLength), mArgs.toArray(),
+                    mMaxDepth);
+        }
+
+        private boolean isOperator(int i, int op) {
+            if (i >= mPrefixLength) {
+                return false;
+            }
+            return mTokenIds[i] == op;
+        }
+
+        private boolean canStartFactor(int i) {
+            if (i >= mTokenIds.length) return false;
+            final int id = mTokenIds[i];
+            if (id < 0) return true;
+            if (isBinary(id)) return false;
+            if (id == TOKEN_FACT || id == TOKEN_RPAREN) {
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Is the subexpression starting at pos a simple percent constant?
+         * This is used to recognize exppressions like 200+10%, which we handle specially.
+         * This is defined as a Constant or PreEval token, followed by a percent sign, and
+         * followed by either nothing or an additive operator.
+         * Note that we are intentionally far more restrictive in recognizing such expressions
+         * than e.g. http://blogs.msdn.com/b/oldnewthing/archive/2008/01/10/7047497.aspx .
+         * When in doubt, we fall back to the the naive interpretation of % as 1/100.
+         * Note that 100+(10)% yields 100.1 while 100+10% yields 110.  This may be
+         * controversial, but is consistent with Google web search.
+         */
+        private boolean isPercent(int pos) {
+            final int size = mTokenIds.length;
+            if (size < pos + 2 || mTokenIds[pos + 1] != TOKEN_PCT) {
+                return false;
+            }
+            if (mTokenIds[pos] >= 0) {
+                return false;
+            }
+            if (size == pos + 2) {
+                return true;
+            }
+            final int op = mTokenIds[pos + 2];
+            return op == TOKEN_ADD || op == TOKEN_SUB || op == TOKEN_RPAREN;
+        }
+
+        /**
+         * Compile the entire expression, returning the position of the first unused token.
+         */
+        private int compileExpr() throws SyntaxException {
+            int cpos = 0;  // Current position in expression.
+            push(PARSE_EXPR);
+            while (mPendingLength > 0) {
+                final int action = mPending[--mPendingLength];
+                if (action >= 0) {
+                    emitOperation(action);
+                    continue;
+                }
+                switch (action) {
+                    case PARSE_EXPR:
+                        push(EXPR_LOOP);
+                        push(PARSE_TERM);
+                        break;
+                    case EXPR_LOOP: {
+                        boolean is_plus;
+                        if ((is_plus = isOperator(cpos, TOKEN_ADD))
+                                || isOperator(cpos, TOKEN_SUB)) {
+                            push(EXPR_LOOP);
+                            if (isPercent(cpos + 1)) {
+                                cpos = compilePercentFactor(cpos + 1, !is_plus);
+                            } else {
+                                push(is_plus ? OP_ADD : OP_SUBTRACT);
+                                push(PARSE_TERM);
+                                ++cpos;
+                            }
+                        }
+                        break;
+                    }
+                    case PARSE_TERM:
+                        push(TERM_LOOP);
+                        push(PARSE_SIGNED_FACTOR);
+                        break;
+                    case TERM_LOOP: {
+                        final boolean is_mul = isOperator(cpos, TOKEN_MUL);
+                        final boolean is_div = !is_mul && isOperator(cpos, TOKEN_DIV);
+                        if (is_mul || is_div || canStartFactor(cpos)) {
+                            if (is_mul || is_div) ++cpos;
+                            push(TERM_LOOP);
+                            push(is_div ? OP_DIVIDE : OP_MULTIPLY);
+                            push(PARSE_SIGNED_FACTOR);
+                        }
+                        break;
+                    }
+                    case PARSE_SIGNED_FACTOR:
+                        if (isOperator(cpos, TOKEN_SUB)) {
+                            ++cpos;
+                            push(OP_NEGATE);
+                        }
+                        push(PARSE_FACTOR);
+                        break;
+                    case PARSE_FACTOR:
+                        push(FACTOR_POW);
+                        push(PARSE_SUFFIX);
+                        break;
+                    case FACTOR_POW:
+                        if (isOperator(cpos, TOKEN_POW)) {
+                            ++cpos;
+                            push(OP_POW);
+                            push(PARSE_SIGNED_FACTOR);
+                        }
+                        break;
+                    case PARSE_SUFFIX:
+                        push(SUFFIX_LOOP);
+                        push(PARSE_UNARY);
+                        break;
+                    case SUFFIX_LOOP:
+                        while (true) {
+                            if (isOperator(cpos, TOKEN_FACT)) {
+                                emitOperation(OP_FACT);
+                            } else if (isOperator(cpos, TOKEN_SQR)) {
+                                emitOperation(OP_SQUARE);
+                            } else if (isOperator(cpos, TOKEN_PCT)) {
+                                emitOperation(OP_PERCENT);
+                            } else {
+                                break;
+                            }
+                            ++cpos;
+                        }
+                        break;
+                    case PARSE_UNARY:
+                        cpos = compileUnary(cpos);
+                        break;
+                    case CLOSE_PAREN:
+                        if (isOperator(cpos, TOKEN_RPAREN)) {
+                            ++cpos;
+                        }
+                        break;
+                    default:
+                        throw new AssertionError("Bad parse state " + action);
+                }
+            }
+            return cpos;
+        }
+
+        /**
+         * Compile a constant or PreEval token.  Return false if the token is neither.
+         */
+        private boolean compileOperand(int i) {
+            final int id = mTokenIds[i];
+            if (id == TOKEN_CONSTANT) {
+                try {
+                    emitWithArg(OP_PUSH, UnifiedReal.valueOf(mTokens.constantValue(i)), 1);
+                } catch (SyntaxException e) {
+                    // Malformed constant.  Fail when we get here, not before.
+                    emitWithArg(OP_SYNTAX_ERROR, e.getMessage(), 1);
+                }
+                return true;
+            }
+            if (id == TOKEN_PRE_EVAL) {
+                emitWithArg(OP_PRE_EVAL, mTokens.preEvalIndex(i), 1);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Return the opcode for the function with the given token id, or -1.
+         */
+        private int functionOpcode(int id) {
+            switch (id) {
+                case TOKEN_SIN:
+                    return OP_SIN;
+                case TOKEN_COS:
+                    return OP_COS;
+                case TOKEN_TAN:
+                    return OP_TAN;
+                case TOKEN_LN:
+                    return OP_LN;
+                case TOKEN_EXP:
+                    return OP_EXP;
+                case TOKEN_LOG:
+                    return OP_LOG;
+                case TOKEN_ASIN:
+                    return OP_ASIN;
+                case TOKEN_ACOS:
+                    return OP_ACOS;
+                case TOKEN_ATAN:
+                    return OP_ATAN;
+                default:
+                    return -1;
+            }
+        }
+
+        /**
+         * Start compiling the unary expression at position i.
+         * Emits code for an operand directly.  Otherwise pushes the work needed to finish it.
+         * @return position of the next token to be parsed
+         */
+        private int compileUnary(int i) throws SyntaxException {
+            if (compileOperand(i)) {
+                return i + 1;
+            }
+            final int id = mTokenIds[i];
+            if (id == TOKEN_PI) {
+                emitWithArg(OP_PUSH, UnifiedReal.PI, 1);
+                return i + 1;
+            } else if (id == TOKEN_E) {
+                emitWithArg(OP_PUSH, UnifiedReal.E, 1);
+                return i + 1;
+            } else if (id == TOKEN_SQRT) {
+                // Seems to have highest precedence.
+                // Does not add implicit paren.
+                // Does seem to accept a leading minus.
+                push(OP_SQRT);
+                if (isOperator(i + 1, TOKEN_SUB)) {
+                    push(OP_NEGATE);
+                    push(PARSE_UNARY);
+                    return i + 2;
+                }
+                push(PARSE_UNARY);
+                return i + 1;
+            } else if (id == TOKEN_LPAREN) {
+                push(CLOSE_PAREN);
+                push(PARSE_EXPR);
+                return i + 1;
+            }
+            final int op = functionOpcode(id);
+            if (op >= 0) {
+                // The closing parenthesis is optional.
+                push(op);
+                push(CLOSE_PAREN);
+                push(PARSE_EXPR);
+                return i + 1;
+            }
+            throw new SyntaxException("Unrecognized token in expression");
+        }
+
+        /**
+         * Compile the multiplicative factor corresponding to an N% addition or subtraction,
+         * and its application to the value so far.
+         * @param pos position of constant or PreEval token corresponding to N.
+         * @param isSubtraction this is a subtraction, as opposed to addition.
+         * @return position after percent sign, i.e. pos + 2
+         */
+        private int compilePercentFactor(int pos, boolean isSubtraction) {
+            compileOperand(pos);  // Guaranteed to succeed by isPercent().
+            if (isSubtraction) {
+                emitOperation(OP_NEGATE);
+            }
+            emitOperation(OP_PERCENT_FACTOR);
+            emitOperation(OP_MULTIPLY);
+            return pos + 2 /* after percent sign */;
+        }
+    }
+
+    private static final UnifiedReal ONE_HUNDREDTH =
+            UnifiedReal.valueOf(BoundedRational.valueOf(1, 100));
+
+    /**
+     * Run the program.
+     * Errors result in exceptions, most of which are unchecked.
+     * @param degreeMode use degrees rather than radians
+     * @param resolver supplies the values of referenced expressions
+     */
+    public UnifiedReal execute(boolean degreeMode, ValueResolver resolver)
+            throws SyntaxException {
+        return execute(degreeMode, resolver, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Run the program, as above, but throw UnifiedReal.ResultTooBigException rather than
+     * computing a factorial with more than maxResultBits bits.
+     */
+    public UnifiedReal execute(boolean degreeMode, ValueResolver resolver, int maxResultBits)
+            throws SyntaxException {
+        // Share identical CR nodes, including across nested evaluations of referenced
+        // expressions.
+        CRNodes.enter();
+        try {
+            return run(degreeMode, resolver, maxResultBits);
+        } finally {
+            CRNodes.exit();
+        }
+    }
+
+    private UnifiedReal run(boolean degreeMode, ValueResolver resolver, int maxResultBits)
+            throws SyntaxException {
+        final int[] code = mCode;
+        final Object[] args = mArgs;
+        final UnifiedReal[] stack = new UnifiedReal[mMaxDepth];
+        int sp = 0;  // Number of occupied stack entries.
+        for (int insn : code) {
+            final int op = insn & OP_MASK;
+            if (op == OP_PUSH) {
+                stack[sp++] = (UnifiedReal) args[insn >>> OP_BITS];
+                continue;
+            } else if (op == OP_PRE_EVAL) {
+                stack[sp++] = resolver.getValue((Long) args[insn >>> OP_BITS]);
+                continue;
+            } else if (op == OP_SYNTAX_ERROR) {
+                throw new SyntaxException((String) args[insn >>> OP_BITS]);
+            } else if (op >= OP_POW) {
+                final UnifiedReal y = stack[--sp];
+                final UnifiedReal x = stack[sp - 1];
+                final UnifiedReal result;
+                switch (op) {
+                    case OP_POW:
+                        result = x.pow(y);
+                        break;
+                    case OP_MULTIPLY:
+                        result = x.multiply(y);
+                        break;
+                    case OP_DIVIDE:
+                        result = x.divide(y);
+                        break;
+                    case OP_ADD:
+                        result = x.add(y);
+                        break;
+                    case OP_SUBTRACT:
+                        result = x.subtract(y);
+                        break;
+                    default:
+                        throw new AssertionError("Bad binary opcode " + op);
+                }
+                stack[sp - 1] = result;
+                continue;
+            }
+            final UnifiedReal x = stack[sp - 1];
+            final UnifiedReal result;
+            switch (op) {
+                case OP_NEGATE:
+                    result = x.negate();
+                    break;
+                case OP_SQRT:
+                    result = x.sqrt();
+                    break;
+                case OP_SIN:
+                    result = toRadians(x, degreeMode).sin();
+                    break;
+                case OP_COS:
+                    result = toRadians(x, degreeMode).cos();
+                    break;
+                case OP_TAN:
+                    result = toRadians(x, degreeMode).tan();
+                    break;
+                case OP_LN:
+                    result = x.ln();
+                    break;
+                case OP_EXP:
+                    result = x.exp();
+                    break;
+                case OP_LOG:
+                    result = x.ln().divide(UnifiedReal.TEN.ln());
+                    break;
+                case OP_ASIN:
+                    result = fromRadians(x.asin(), degreeMode);
+                    break;
+                case OP_ACOS:
+                    result = fromRadians(x.acos(), degreeMode);
+                    break;
+                case OP_ATAN:
+                    result = fromRadians(x.atan(), degreeMode);
+                    break;
+                case OP_FACT:
+                    result = x.fact(maxResultBits);
+                    break;
+                case OP_SQUARE:
+                    result = x.multiply(x);
+                    break;
+                case OP_PERCENT:
+                    result = x.multiply(ONE_HUNDREDTH);
+                    break;
+                case OP_PERCENT_FACTOR:
+                    result = UnifiedReal.ONE.add(x.multiply(ONE_HUNDREDTH));
+                    break;
+                default:
+                    throw new AssertionError("Bad unary opcode " + op);
+            }
+            stack[sp - 1] = result;
+        }
+        if (sp != 1) {
+            throw new AssertionError("Unbalanced expression program");
+        }
+        return stack[0];
+    }
+
+    // Precision of the approximations of irrational operands we use for bounds().
+    private static final int BOUNDS_PREC = -64;
+
+    private static Interval toInterval(UnifiedReal x) {
+        final BoundedRational r = x.boundedRationalValue();
+        if (r != null) {
+            return Interval.valueOf(r);
+        }
+        return Interval.approximatedBy(x.crValue().get_appr(BOUNDS_PREC), BOUNDS_PREC);
+    }
+
+    private static Interval toRadians(Interval x, boolean degreeMode) {
+        return degreeMode ? x.multiply(Interval.RADIANS_PER_DEGREE) : x;
+    }
+
+    private static Interval fromRadians(Interval x, boolean degreeMode) {
+        return degreeMode && x != null ? x.divide(Interval.RADIANS_PER_DEGREE) : x;
+    }
+
+    private static final Interval ONE_HUNDREDTH_BOUNDS =
+            Interval.valueOf(ONE_HUNDREDTH.boundedRationalValue());
+    private static final Interval ONE_BOUNDS = Interval.valueOf(1);
+
+    /**
+     * Cheaply compute bounds on the result of the program, using interval arithmetic in
+     * place of UnifiedReal operations.
+     * Only meaningful once execute() has succeeded with the same arguments, since we assume
+     * that arguments are in the domain of the functions applied to them.  Returns null if
+     * we fail to bound the result.  The bounds are then typically far too loose to be
+     * useful anyway, e.g. because an intermediate result is very close to zero.
+     */
+    Interval bounds(boolean degreeMode, ValueResolver resolver) throws SyntaxException {
+        final int[] code = mCode;
+        final Object[] args = mArgs;
+        final Interval[] stack = new Interval[mMaxDepth];
+        int sp = 0;  // Number of occupied stack entries.
+        for (int insn : code) {
+            final int op = insn & OP_MASK;
+            if (op == OP_PUSH) {
+                stack[sp++] = toInterval((UnifiedReal) args[insn >>> OP_BITS]);
+                continue;
+            } else if (op == OP_PRE_EVAL) {
+                stack[sp++] = toInterval(resolver.getValue((Long) args[insn >>> OP_BITS]));
+                continue;
+            } else if (op == OP_SYNTAX_ERROR) {
+                throw new SyntaxException((String) args[insn >>> OP_BITS]);
+            }
+            final Interval result;
+            if (op >= OP_POW) {
+                final Interval y = stack[--sp];
+                final Interval x = stack[sp - 1];
+                if (x == null || y == null) {
+                    return null;
+                }
+                switch (op) {
+                    case OP_POW:
+                        result = x.pow(y);
+                        break;
+                    case OP_MULTIPLY:
+                        result = x.multiply(y);
+                        break;
+                    case OP_DIVIDE:
+                        result = x.divide(y);
+                        break;
+                    case OP_ADD:
+                        result = x.add(y);
+                        break;
+                    case OP_SUBTRACT:
+                        result = x.subtract(y);
+                        break;
+                    default:
+                        throw new AssertionError("Bad binary opcode " + op);
+                }
+            } else {
+                final Interval x = stack[sp - 1];
+                if (x == null) {
+                    return null;
+                }
+                switch (op) {
+                    case OP_NEGATE:
+                        result = x.negate();
+                        break;
+                    case OP_SQRT:
+                        result = x.sqrt();
+                        break;
+                    case OP_SIN:
+                    case OP_COS:
+                    case OP_TAN: {
+                        final Interval arg = toRadians(x, degreeMode);
+                        if (arg == null) {
+                            result = null;
+                        } else if (op == OP_SIN) {
+                            result = arg.sin();
+                        } else if (op == OP_COS) {
+                            result = arg.cos();
+                        } else {
+                            result = arg.sin().divide(arg.cos());
+                        }
+                        break;
+                    }
+                    case OP_LN:
+                        result = x.ln();
+                        break;
+                    case OP_EXP:
+                        result = x.exp();
+                        break;
+                    case OP_LOG:
+                        result = x.log();
+                        break;
+                    case OP_ASIN:
+                        result = fromRadians(x.asin(), degreeMode);
+                        break;
+                    case OP_ACOS:
+                        result = fromRadians(x.acos(), degreeMode);
+                        break;
+                    case OP_ATAN:
+                        result = fromRadians(x.atan(), degreeMode);
+                        break;
+                    case OP_FACT:
+                        result = x.fact();
+                        break;
+                    case OP_SQUARE:
+                        result = x.multiply(x);
+                        break;
+                    case OP_PERCENT:
+                        result = x.multiply(ONE_HUNDREDTH_BOUNDS);
+                        break;
+                    case OP_PERCENT_FACTOR:
+                        result = ONE_BOUNDS.add(x.multiply(ONE_HUNDREDTH_BOUNDS));
+                        break;
+                    default:
+                        throw new AssertionError("Bad unary opcode " + op);
+                }
+            }
+            if (result == null) {
+                return null;
+            }
+            stack[sp - 1] = result;
+        }
+        if (sp != 1) {
+            throw new AssertionError("Unbalanced expression program");
+        }
+        return stack[0];
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * SPDX-FileCopyrightText: 2026 The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.calculator2;
+
+import com.hp.creals.CR;
+
+import java.math.BigInteger;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Factorials of large integers.
+ *
+ * We use the binary splitting algorithm described by Peter Luschny. The factorial is the
+ * product of a power of two and the odd part of n!, which is the product over j >= 0 of
+ * R(j)^(j+1), where R(j) is the product of the odd numbers in (n/2^(j+1), n/2^j]. The R(j) are
+ * computed as balanced product trees, so that most of the work consists of multiplications of
+ * similarly sized numbers, where BigInteger's sub-quadratic algorithms help. Large subtrees are
+ * computed in parallel on the ArithmeticPool.
+ *
+ * Pool workers don't see interrupts of the thread that requested the computation, so
+ * each task checks the requesting thread explicitly.
+ */
+final class Factorial {
+    private Factorial() {}
+
+    // Products of at most this many odd numbers are computed sequentially with long arithmetic
+    // where possible.
+    private static final int LEAF_FACTORS = 64;
+
+    // Product trees over fewer odd numbers are computed on a single thread.
+    private static final int PARALLEL_MIN_FACTORS = 4096;
+
+    /**
+     * Return n!. n must be nonnegative and less than 2^31.
+     * @throws CR.AbortedException if the current thread is interrupted.
+     */
+    static BigInteger factorial(long n) {
+        if (n < 0 || n > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Bad factorial argument: " + n);
+        }
+        final Thread caller = Thread.currentThread();
+        final int levels = 64 - Long.numberOfLeadingZeros(n);  // Number of nonempty R(j).
+        final OddProduct[] ranges = new OddProduct[levels];
+        for (int j = 0; j < levels; ++j) {
+            final long low = (n >> (j + 1)) + 1;
+            final long high = n >> j;
+            ranges[j] = new OddProduct(caller, low | 1, (high - 1) | 1);
+        }
+        try {
+            if (n < 4 * PARALLEL_MIN_FACTORS) {
+                // No range has PARALLEL_MIN_FACTORS odd numbers. Stay on this thread.
+                for (OddProduct range : ranges) {
+                    range.invoke();
+                }
+            } else {
+                ArithmeticPool.invoke(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        invokeAll(ranges);
+                    }
+                });
+            }
+        } catch (CR.AbortedException e) {
+            // Clear the interrupt, as if we had noticed it ourselves.
+            Thread.interrupted();
+            throw e;
+        }
+        // Accumulate the odd parts of (n/2^j)! from the top down, as in Luschny's algorithm.
+        BigInteger partial = BigInteger.ONE;
+        BigInteger result = BigInteger.ONE;
+        for (int j = levels - 1; j >= 0; --j) {
+            if (Thread.interrupted()) {
+                throw new CR.AbortedException();
+            }
+            partial = partial.multiply(ranges[j].join());
+            result = result.multiply(partial);
+        }
+        return result.shiftLeft((int) (n - Long.bitCount(n)));
+    }
+
+    /**
+     * Computes the product of the odd numbers from first to last, both odd.
+     */
+    private static class OddProduct extends RecursiveTask<BigInteger> {
+        private final Thread mCaller;
+        private final long mFirst;
+        private final long mLast;
+
+        OddProduct(Thread caller, long first, long last) {
+            mCaller = caller;
+            mFirst = first;
+            mLast = last;
+        }
+
+        @Override
+        protected BigInteger compute() {
+            if (mCaller.isInterrupted()) {
+                throw new CR.AbortedException();
+            }
+            final long count = (mLast - mFirst) / 2 + 1;
+            if (count <= 0) {
+                return BigInteger.ONE;
+            }
+            if (count <= LEAF_FACTORS) {
+                return leafProduct();
+            }
+            final long mid = mFirst + 2 * (count / 2);
+            final OddProduct low = new OddProduct(mCaller, mFirst, mid - 2);
+            final OddProduct high = new OddProduct(mCaller, mid, mLast);
+            if (count < PARALLEL_MIN_FACTORS) {
+                return low.compute().multiply(high.compute());
+            }
+            high.fork();
+            final BigInteger lowProduct = low.compute();
+            return lowProduct.multiply(high.join());
+        }
+
+        /**
+         * Multiply the factors in long arithmetic as long as the product fits.
+         */
+        private BigInteger leafProduct() {
+            BigInteger result = null;
+            long acc = 1;
+            for (long i = mFirst; i <= mLast; i += 2) {
+                final long prod = acc * i;
+                if (Math.multiplyHigh(acc, i) != 0 || prod < 0) {
+                    result = result == null ? BigInteger.valueOf(acc)
+                            : result.multiply(BigInteger.valueOf(acc));
+                    acc = i;
+                } else {
+                    acc = prod;
+                }
+            }
+            return result == null ? BigInteger.valueOf(acc)
+                    : result.multiply(BigInteger.valueOf(acc));
+        }
+    }
+}
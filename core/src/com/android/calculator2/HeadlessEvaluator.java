@@ -0,0 +1,278 @@
+/*
+ * SPDX-FileCopyrightText: 2026 The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.calculator2;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * A calculator evaluation engine that runs on a plain JVM, without Android.
+ *
+ * This uses the same parser, EvaluationEngine, and arithmetic as the app, and is intended for
+ * load testing and benchmarking those without a device. Expressions are built as Formulas,
+ * using ExprProgram token ids, and kept in memory under increasing indices. A Formula may refer
+ * to previously added expressions by index, much as PreEval tokens do in the app. Each
+ * expression is evaluated at most once; results are cached.
+ *
+ * All methods are thread-safe.
+ */
+public class HeadlessEvaluator {
+
+    /**
+     * A mutable sequence of tokens.
+     */
+    public static final class Formula implements ExprProgram.TokenSource {
+        private final ArrayList<Integer> mIds = new ArrayList<Integer>();
+        // BoundedRational for constants, Long for references, null for operators.
+        private final ArrayList<Object> mValues = new ArrayList<Object>();
+
+        /**
+         * Append a constant.
+         */
+        public Formula constant(BoundedRational value) {
+            mIds.add(ExprProgram.TOKEN_CONSTANT);
+            mValues.add(value);
+            return this;
+        }
+
+        /**
+         * Append a constant written in decimal, optionally with an exponent, e.g. "1.5E-3".
+         * @throws NumberFormatException if decimal is not a valid number
+         */
+        public Formula constant(String decimal) {
+            final BigDecimal value = new BigDecimal(decimal);
+            final BigInteger unscaled = value.unscaledValue();
+            final int scale = value.scale();
+            return constant(scale >= 0
+                    ? new BoundedRational(unscaled, BigInteger.TEN.pow(scale))
+                    : new BoundedRational(unscaled.multiply(BigInteger.TEN.pow(-scale))));
+        }
+
+        /**
+         * Append an operator, identified by one of the ExprProgram.TOKEN_ operator ids.
+         */
+        public Formula op(int tokenId) {
+            if (tokenId < 0) {
+                throw new IllegalArgumentException("Not an operator: " + tokenId);
+            }
+            mIds.add(tokenId);
+            mValues.add(null);
+            return this;
+        }
+
+        /**
+         * Append a reference to the previously added expression with the given index.
+         */
+        public Formula ref(long index) {
+            mIds.add(ExprProgram.TOKEN_PRE_EVAL);
+            mValues.add(index);
+            return this;
+        }
+
+        /**
+         * Build a Formula from a string.
+         * Runs of digits and decimal points are constants, '#' followed by digits refers to
+         * an earlier expression, and any other character, except a space, is an operator
+         * token id, e.g. "2*s(p/6)+#3". The square operator cannot be written this way, since
+         * its token id is a digit; use op(ExprProgram.TOKEN_SQR) instead.
+         */
+        public static Formula parse(String s) {
+            final Formula result = new Formula();
+            final int len = s.length();
+            int i = 0;
+            while (i < len) {
+                final char c = s.charAt(i);
+                if (Character.isDigit(c) || c == '.') {
+                    int end = i + 1;
+                    while (end < len && (Character.isDigit(s.charAt(end))
+                            || s.charAt(end) == '.')) {
+                        ++end;
+                    }
+                    result.constant(s.substring(i, end));
+                    i = end;
+                } else if (c == '#') {
+                    int end = i + 1;
+                    while (end < len && Character.isDigit(s.charAt(end))) {
+                        ++end;
+                    }
+                    result.ref(Long.parseLong(s.substring(i + 1, end)));
+                    i = end;
+                } else {
+                    if (c != ' ') {
+                        result.op(c);
+                    }
+                    ++i;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public int size() {
+            return mIds.size();
+        }
+
+        @Override
+        public int tokenId(int i) {
+            return mIds.get(i);
+        }
+
+        @Override
+        public BoundedRational constantValue(int i) {
+            return (BoundedRational) mValues.get(i);
+        }
+
+        @Override
+        public long preEvalIndex(int i) {
+            return (Long) mValues.get(i);
+        }
+
+        /**
+         * Return the index of the first of the trailing binary operators, which we ignore,
+         * as the app does.
+         */
+        int trailingBinaryOpsStart() {
+            int result = mIds.size();
+            while (result > 0 && ExprProgram.isBinary(mIds.get(result - 1))) {
+                --result;
+            }
+            return result;
+        }
+    }
+
+    private static class Entry extends EvaluationEngine.Entry {
+        private final ExprProgram mProgram;
+        private final boolean mDegreeMode;
+        Entry(ExprProgram program, boolean degreeMode) {
+            mProgram = program;
+            mDegreeMode = degreeMode;
+        }
+
+        @Override
+        protected ExprProgram getProgram() {
+            return mProgram;
+        }
+
+        @Override
+        protected boolean getDegreeMode() {
+            return mDegreeMode;
+        }
+    }
+
+    private final ConcurrentHashMap<Long, Entry> mExprs = new ConcurrentHashMap<Long, Entry>();
+    private final AtomicLong mNextIndex = new AtomicLong(1);
+    private final Executor mExecutor;
+    private final EvaluationEngine mEngine;
+
+    /**
+     * Create an evaluator whose asynchronous evaluations run on the common fork-join pool.
+     */
+    public HeadlessEvaluator() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create an evaluator whose asynchronous evaluations run on the given executor.
+     * Referenced expressions are evaluated on daemon threads.
+     */
+    public HeadlessEvaluator(Executor executor) {
+        this(executor, new ThreadFactory() {
+            private final ThreadFactory mDefault = Executors.defaultThreadFactory();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread result = mDefault.newThread(r);
+                result.setDaemon(true);
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Create an evaluator whose asynchronous evaluations run on the given executor, and whose
+     * referenced expressions are evaluated on threads created by threadFactory.
+     */
+    public HeadlessEvaluator(Executor executor, ThreadFactory threadFactory) {
+        mExecutor = executor;
+        mEngine = new EvaluationEngine(new EvaluationEngine.Source() {
+            @Override
+            public EvaluationEngine.Entry getEntry(long index) {
+                return HeadlessEvaluator.this.getEntry(index);
+            }
+        }, threadFactory);
+    }
+
+    /**
+     * Add an expression, and return its index.
+     * The formula is compiled immediately, and later changes to it have no effect.
+     * @throws IllegalArgumentException if the formula refers to an unknown expression
+     */
+    public long add(Formula formula, boolean degreeMode) {
+        final ExprProgram program =
+                ExprProgram.compile(formula, formula.trailingBinaryOpsStart());
+        for (long ref : program.references()) {
+            if (!mExprs.containsKey(ref)) {
+                throw new IllegalArgumentException("Unknown expression index " + ref);
+            }
+        }
+        final Entry entry = new Entry(program, degreeMode);
+        final long index = mNextIndex.getAndIncrement();
+        mExprs.put(index, entry);
+        return index;
+    }
+
+    /**
+     * Evaluate the expression with the given index, or return its cached value.
+     * Throws the same exceptions as evaluation in the app, e.g. SyntaxException,
+     * UnifiedReal.ZeroDivisionException, or ArithmeticException.
+     */
+    public UnifiedReal evaluate(long index) throws SyntaxException {
+        return mEngine.evaluate(index);
+    }
+
+    /**
+     * Evaluate the expression with the given index on our executor.
+     * Evaluation failures complete the result exceptionally.
+     */
+    public CompletableFuture<UnifiedReal> evaluateAsync(final long index) {
+        return CompletableFuture.supplyAsync(new Supplier<UnifiedReal>() {
+            @Override
+            public UnifiedReal get() {
+                try {
+                    return evaluate(index);
+                } catch (SyntaxException e) {
+                    throw new CompletionException(e);
+                }
+            }
+        }, mExecutor);
+    }
+
+    /**
+     * Evaluate the expression with the given index, and return its value, truncated to the
+     * given number of digits to the right of the decimal point.
+     */
+    public String evaluateToString(long index, int digits) throws SyntaxException {
+        return evaluate(index).toStringTruncated(digits);
+    }
+
+    private Entry getEntry(long index) {
+        final Entry entry = mExprs.get(index);
+        if (entry == null) {
+            throw new IllegalArgumentException("Unknown expression index " + index);
+        }
+        return entry;
+    }
+}
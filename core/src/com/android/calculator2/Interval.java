@@ -0,0 +1,419 @@
+/*
+ * SPDX-FileCopyrightText: 2026 The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.calculator2;
+
+import java.math.BigInteger;
+
+/**
+ * Certified bounds on a real number, computed cheaply with double arithmetic.
+ *
+ * An Interval represents the set of reals in [mLo * 2^mScale, mHi * 2^mScale]. The separate
+ * long exponent lets us bound values far outside the double range, such as 10^-1000, as is
+ * needed to locate the most significant digit of a tiny result. Endpoints are kept with
+ * magnitude near one.
+ *
+ * Every operation rounds outward, so that the true result is always contained in the
+ * computed interval. Basic arithmetic is exact or rounded by one ulp, which we detect with
+ * error-free transformations. Math library functions are only guaranteed to within one or two
+ * ulps, so we widen their results by two ulps. Operations return null if the result can't be
+ * usefully bounded, e.g. because of division by an interval containing zero, or because the
+ * bounds would leave the exponent range.
+ */
+final class Interval {
+    private final double mLo;
+    private final double mHi;
+    private final long mScale;
+
+    // Intervals with scale exponents beyond this are not worth representing.
+    private static final long MAX_SCALE = 1L << 40;
+
+    // Results this close to the subnormal range are always rounded outward, since the
+    // error-free transformations may not be exact there.
+    private static final double TINY = 0x1p-900;
+
+    private Interval(double lo, double hi, long scale) {
+        mLo = lo;
+        mHi = hi;
+        mScale = scale;
+    }
+
+    static final Interval ZERO = new Interval(0.0, 0.0, 0);
+    private static final Interval MINUS_ONE_TO_ONE = new Interval(-1.0, 1.0, 0);
+    static final Interval PI = around(Math.PI);
+    static final Interval E = around(Math.E);
+    private static final Interval LN2 = around(0.6931471805599453);
+    private static final Interval LN10 = around(2.302585092994046);
+    private static final Interval LOG2_E = around(1.4426950408889634);
+    static final Interval RADIANS_PER_DEGREE = PI.divide(valueOf(180));
+
+    /**
+     * The interval containing the doubles adjacent to x, for x the double nearest to a
+     * constant.
+     */
+    private static Interval around(double x) {
+        return make(Math.nextDown(x), Math.nextUp(x), 0);
+    }
+
+    /**
+     * Return the normalized interval [lo * 2^scale, hi * 2^scale], or null if it is not
+     * representable.
+     */
+    private static Interval make(double lo, double hi, long scale) {
+        if (!(lo <= hi) || Double.isInfinite(lo) || Double.isInfinite(hi)) {
+            // Includes NaN.
+            return null;
+        }
+        final double mag = Math.max(Math.abs(lo), Math.abs(hi));
+        if (mag == 0.0) {
+            return ZERO;
+        }
+        final int exp = Math.getExponent(mag);
+        if (exp != 0) {
+            lo = scaleLo(lo, -exp);
+            hi = scaleHi(hi, -exp);
+            scale += exp;
+        }
+        if (Math.abs(scale) > MAX_SCALE) {
+            return null;
+        }
+        return new Interval(lo, hi, scale);
+    }
+
+    private static Interval plain(double lo, double hi) {
+        return make(lo, hi, 0);
+    }
+
+    /**
+     * Return a lower bound on x * 2^n.
+     */
+    private static double scaleLo(double x, long n) {
+        final int m = (int) Math.max(-2200, Math.min(2200, n));
+        final double result = Math.scalb(x, m);
+        if (result == Double.POSITIVE_INFINITY) {
+            return Double.MAX_VALUE;
+        }
+        return Math.scalb(result, -m) == x ? result : Math.nextDown(result);
+    }
+
+    /**
+     * Return an upper bound on x * 2^n.
+     */
+    private static double scaleHi(double x, long n) {
+        return -scaleLo(-x, n);
+    }
+
+    // Bounds on the exact results of basic operations on doubles.
+
+    private static double addLo(double a, double b) {
+        final double s = a + b;
+        if (Math.abs(s) < TINY) {
+            return Math.nextDown(s);
+        }
+        // Knuth's TwoSum: err is the exact rounding error.
+        final double bb = s - a;
+        final double err = (a - (s - bb)) + (b - bb);
+        return err < 0 ? Math.nextDown(s) : s;
+    }
+
+    private static double addHi(double a, double b) {
+        return -addLo(-a, -b);
+    }
+
+    private static double mulLo(double a, double b) {
+        final double p = a * b;
+        if (p == 0.0 && (a == 0.0 || b == 0.0)) {
+            return 0.0;
+        }
+        if (Math.abs(p) < TINY) {
+            return Math.nextDown(p);
+        }
+        return Math.fma(a, b, -p) < 0 ? Math.nextDown(p) : p;
+    }
+
+    private static double mulHi(double a, double b) {
+        return -mulLo(-a, b);
+    }
+
+    private static double divLo(double a, double b) {
+        final double q = a / b;
+        if (a == 0.0) {
+            return 0.0;
+        }
+        if (Math.abs(q) < TINY) {
+            return Math.nextDown(q);
+        }
+        // The remainder a - q * b is exactly representable.
+        final double rem = Math.fma(-q, b, a);
+        return rem != 0.0 && (rem < 0) != (b < 0) ? Math.nextDown(q) : q;
+    }
+
+    private static double divHi(double a, double b) {
+        return -divLo(-a, b);
+    }
+
+    // Bounds on the results of library functions, accurate to within two ulps.
+
+    private static double fnLo(double x) {
+        return Math.nextDown(Math.nextDown(x));
+    }
+
+    private static double fnHi(double x) {
+        return Math.nextUp(Math.nextUp(x));
+    }
+
+    /**
+     * Return an interval containing n.
+     */
+    static Interval valueOf(BigInteger n) {
+        final int shift = Math.max(0, n.bitLength() - 53);
+        final long top = n.shiftRight(shift).longValue();
+        if (shift == 0) {
+            return make(top, top, 0);
+        }
+        // Both top and top + 1 are exactly representable.
+        return make(top, top + 1, shift);
+    }
+
+    static Interval valueOf(long n) {
+        return valueOf(BigInteger.valueOf(n));
+    }
+
+    static Interval valueOf(BoundedRational r) {
+        return valueOf(r.bigNum()).divide(valueOf(r.bigDen()));
+    }
+
+    /**
+     * Return an interval containing a real whose approximation appr * 2^prec has an error
+     * less than 2^prec, as returned by CR.get_appr(prec).
+     */
+    static Interval approximatedBy(BigInteger appr, int prec) {
+        final Interval i = valueOf(appr).add(MINUS_ONE_TO_ONE);
+        return i == null ? null : make(i.mLo, i.mHi, i.mScale + prec);
+    }
+
+    /**
+     * Lower bound on this interval as a double, possibly -infinity.
+     */
+    private double plainLo() {
+        return scaleLo(mLo, mScale);
+    }
+
+    /**
+     * Upper bound on this interval as a double, possibly infinity.
+     */
+    private double plainHi() {
+        return scaleHi(mHi, mScale);
+    }
+
+    boolean containsZero() {
+        return mLo <= 0.0 && mHi >= 0.0;
+    }
+
+    /**
+     * Return an upper bound on the number of leading binary zeroes to the right of the binary
+     * point in the value, or Integer.MAX_VALUE if we don't know that it's nonzero.
+     * Consistent with UnifiedReal.leadingBinaryZeroes().
+     */
+    int leadingBinaryZeroes() {
+        if (containsZero()) {
+            return Integer.MAX_VALUE;
+        }
+        final double min = Math.min(Math.abs(mLo), Math.abs(mHi));
+        // |value| >= 2^minExp.
+        final long minExp = (min < Double.MIN_NORMAL ? Double.MIN_EXPONENT - 52
+                : Math.getExponent(min)) + mScale;
+        if (minExp >= 0) {
+            return 0;
+        }
+        return -minExp >= Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) -minExp;
+    }
+
+    Interval negate() {
+        return new Interval(-mHi, -mLo, mScale);
+    }
+
+    Interval add(Interval y) {
+        if (y == null) {
+            return null;
+        }
+        final long scale = Math.max(mScale, y.mScale);
+        final double xLo = scaleLo(mLo, mScale - scale);
+        final double xHi = scaleHi(mHi, mScale - scale);
+        final double yLo = scaleLo(y.mLo, y.mScale - scale);
+        final double yHi = scaleHi(y.mHi, y.mScale - scale);
+        return make(addLo(xLo, yLo), addHi(xHi, yHi), scale);
+    }
+
+    Interval subtract(Interval y) {
+        return y == null ? null : add(y.negate());
+    }
+
+    Interval multiply(Interval y) {
+        if (y == null) {
+            return null;
+        }
+        final double lo = Math.min(Math.min(mulLo(mLo, y.mLo), mulLo(mLo, y.mHi)),
+                Math.min(mulLo(mHi, y.mLo), mulLo(mHi, y.mHi)));
+        final double hi = Math.max(Math.max(mulHi(mLo, y.mLo), mulHi(mLo, y.mHi)),
+                Math.max(mulHi(mHi, y.mLo), mulHi(mHi, y.mHi)));
+        return make(lo, hi, mScale + y.mScale);
+    }
+
+    Interval divide(Interval y) {
+        if (y == null || y.containsZero()) {
+            return null;
+        }
+        final double lo = Math.min(Math.min(divLo(mLo, y.mLo), divLo(mLo, y.mHi)),
+                Math.min(divLo(mHi, y.mLo), divLo(mHi, y.mHi)));
+        final double hi = Math.max(Math.max(divHi(mLo, y.mLo), divHi(mLo, y.mHi)),
+                Math.max(divHi(mHi, y.mLo), divHi(mHi, y.mHi)));
+        return make(lo, hi, mScale - y.mScale);
+    }
+
+    Interval sqrt() {
+        if (mHi < 0.0) {
+            return null;
+        }
+        // Negative values can only be due to rounding; sqrt() would have failed otherwise.
+        double lo = Math.max(mLo, 0.0);
+        double hi = mHi;
+        long scale = mScale;
+        if ((scale & 1) != 0) {
+            lo *= 2.0;
+            hi *= 2.0;
+            --scale;
+        }
+        final double rLo = Math.sqrt(lo);
+        final double rHi = Math.sqrt(hi);
+        return make(Math.fma(rLo, rLo, -lo) > 0 ? Math.nextDown(rLo) : rLo,
+                Math.fma(rHi, rHi, -hi) < 0 ? Math.nextUp(rHi) : rHi, scale / 2);
+    }
+
+    Interval exp() {
+        // exp(x) = 2^t with t = x * log2(e). We compute 2^(t - k) * 2^k for an integer k.
+        final Interval t = multiply(LOG2_E);
+        if (t == null) {
+            return null;
+        }
+        final double tLo = t.plainLo();
+        final double tHi = t.plainHi();
+        if (!(tLo > -MAX_SCALE && tHi < MAX_SCALE)) {
+            return null;
+        }
+        final double k = Math.floor(tLo);
+        final double fLo = addLo(tLo, -k);
+        final double fHi = addHi(tHi, -k);
+        if (fHi > 1000.0) {
+            // Too wide to be useful.
+            return null;
+        }
+        return make(fnLo(Math.pow(2.0, fLo)), fnHi(Math.pow(2.0, fHi)), (long) k);
+    }
+
+    Interval ln() {
+        if (mLo <= 0.0) {
+            return null;
+        }
+        // ln(m * 2^scale) = ln(m) + scale * ln(2), where scale is exactly representable.
+        final Interval lnM = plain(fnLo(Math.log(mLo)), fnHi(Math.log(mHi)));
+        return lnM == null ? null : lnM.add(LN2.multiply(plain(mScale, mScale)));
+    }
+
+    Interval log() {
+        final Interval ln = ln();
+        return ln == null ? null : ln.divide(LN10);
+    }
+
+    /**
+     * Bound sin or cos, which have Lipschitz constant one, using their value at the midpoint.
+     */
+    private Interval sinOrCos(boolean isSin) {
+        final double lo = plainLo();
+        final double hi = plainHi();
+        if (!(hi - lo < 6.0)) {
+            // Includes infinite bounds.
+            return MINUS_ONE_TO_ONE;
+        }
+        final double mid = lo + (hi - lo) / 2.0;
+        final double radius = Math.max(addHi(hi, -mid), addHi(mid, -lo));
+        final double f = isSin ? Math.sin(mid) : Math.cos(mid);
+        return plain(Math.max(-1.0, addLo(fnLo(f), -radius)),
+                Math.min(1.0, addHi(fnHi(f), radius)));
+    }
+
+    Interval sin() {
+        return sinOrCos(true);
+    }
+
+    Interval cos() {
+        return sinOrCos(false);
+    }
+
+    Interval asin() {
+        final double lo = Math.max(plainLo(), -1.0);
+        final double hi = Math.min(plainHi(), 1.0);
+        if (lo > hi) {
+            return null;
+        }
+        return plain(fnLo(Math.asin(lo)), fnHi(Math.asin(hi)));
+    }
+
+    Interval acos() {
+        final double lo = Math.max(plainLo(), -1.0);
+        final double hi = Math.min(plainHi(), 1.0);
+        if (lo > hi) {
+            return null;
+        }
+        return plain(fnLo(Math.acos(hi)), fnHi(Math.acos(lo)));
+    }
+
+    Interval atan() {
+        return plain(fnLo(Math.atan(plainLo())), fnHi(Math.atan(plainHi())));
+    }
+
+    /**
+     * Factorial of the unique integer in the interval. Since fact() succeeded, the argument
+     * must have been an integer.
+     */
+    Interval fact() {
+        final double n = Math.ceil(plainLo());
+        if (n < 0.0 || n > 170.0 || n + 1.0 <= plainHi()) {
+            return null;
+        }
+        double lo = 1.0;
+        double hi = 1.0;
+        for (int i = 2; i <= n; ++i) {
+            lo = mulLo(lo, i);
+            hi = mulHi(hi, i);
+        }
+        return plain(lo, hi);
+    }
+
+    Interval pow(Interval y) {
+        if (y == null) {
+            return null;
+        }
+        if (mLo > 0.0) {
+            return y.multiply(ln()).exp();
+        }
+        // Otherwise we only handle exact integer exponents, for which the sign is known.
+        final double n = y.plainLo();
+        if (y.mLo != y.mHi || n != Math.rint(n) || containsZero()) {
+            return null;
+        }
+        final Interval result = negate().pow(y);
+        if (result == null) {
+            return null;
+        }
+        // Doubles with magnitude at least 2^53 are even.
+        return Math.abs(n) < 0x1p53 && ((long) n & 1) != 0 ? result.negate() : result;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + mLo + ", " + mHi + "] * 2^" + mScale;
+    }
+}
@@ -33,6 +33,19 @@ public class StringUtils {
         return result.toString();
     }
 
+    /**
+     * Return the index of the first occurrence of c in s, or -1 if there is none.
+     */
+    public static int indexOf(CharSequence s, char c) {
+        final int len = s.length();
+        for (int i = 0; i < len; ++i) {
+            if (s.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     /**
      * Return a copy of the supplied string with commas added every three digits.
      * The substring indicated by the supplied range is assumed to contain only
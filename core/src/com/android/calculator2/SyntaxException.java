@@ -0,0 +1,18 @@
+/*
+ * SPDX-FileCopyrightText: 2026 The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.calculator2;
+
+/**
+ * Thrown when evaluating a syntactically invalid expression.
+ */
+public class SyntaxException extends Exception {
+    public SyntaxException() {
+        super();
+    }
+    public SyntaxException(String s) {
+        super(s);
+    }
+}
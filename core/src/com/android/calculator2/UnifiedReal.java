@@ -17,8 +17,10 @@
 package com.android.calculator2;
 
 import java.math.BigInteger;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import com.hp.creals.CR;
-import com.hp.creals.UnaryCRFunction;
 
 /**
  * Computable real numbers, represented so that we can get exact decidable comparisons
@@ -92,13 +94,50 @@ public class UnifiedReal {
     }
 
     public static UnifiedReal valueOf(long x) {
-        if (x == 0) {
-            return UnifiedReal.ZERO;
-        } else if (x == 1) {
-            return UnifiedReal.ONE;
-        } else {
-            return new UnifiedReal(BoundedRational.valueOf(x));
+        return valueOf(BoundedRational.valueOf(x));
+    }
+
+    // Shared instances for the values for which BoundedRational keeps canonical instances,
+    // indexed in the same way. Filled in lazily.
+    private static volatile UnifiedReal[] sCanonical = new UnifiedReal[0];
+
+    /**
+     * Return a UnifiedReal equal to r, sharing an existing instance for common small values.
+     */
+    public static UnifiedReal valueOf(BoundedRational r) {
+        final int i = BoundedRational.canonicalIndex(r);
+        if (i < 0) {
+            return new UnifiedReal(r);
+        }
+        UnifiedReal[] table = sCanonical;
+        if (table.length != BoundedRational.canonicalTableSize()) {
+            table = new UnifiedReal[BoundedRational.canonicalTableSize()];
+            sCanonical = table;
+        }
+        if (i >= table.length) {
+            // The canonical range changed under us.
+            return new UnifiedReal(r);
+        }
+        UnifiedReal result = table[i];
+        if (result == null) {
+            final BoundedRational canonical = BoundedRational.canonical(r);
+            result = canonical == ZERO.mRatFactor ? ZERO
+                    : canonical == ONE.mRatFactor ? ONE
+                    : canonical == MINUS_ONE.mRatFactor ? MINUS_ONE
+                    : canonical == TWO.mRatFactor ? TWO
+                    : canonical == HALF.mRatFactor ? HALF
+                    : canonical == TEN.mRatFactor ? TEN
+                    : new UnifiedReal(canonical);
+            table[i] = result;
         }
+        return result;
+    }
+
+    /**
+     * Return rat * cr, sharing an existing instance when the result is a common rational.
+     */
+    private static UnifiedReal valueOf(BoundedRational rat, CR cr) {
+        return cr == CR_ONE ? valueOf(rat) : new UnifiedReal(rat, cr);
     }
 
     // Various helpful constants
@@ -107,21 +146,25 @@ public class UnifiedReal {
 
     // Well-known CR constants we try to use in the mCrFactor position:
     private final static CR CR_ONE = CR.ONE;
-    private final static CR CR_PI = CR.PI;
-    private final static CR CR_E = CR.ONE.exp();
-    private final static CR CR_SQRT2 = CR.valueOf(2).sqrt();
-    private final static CR CR_SQRT3 = CR.valueOf(3).sqrt();
-    private final static CR CR_LN2 = CR.valueOf(2).ln();
-    private final static CR CR_LN3 = CR.valueOf(3).ln();
-    private final static CR CR_LN5 = CR.valueOf(5).ln();
-    private final static CR CR_LN6 = CR.valueOf(6).ln();
-    private final static CR CR_LN7 = CR.valueOf(7).ln();
-    private final static CR CR_LN10 = CR.valueOf(10).ln();
-
-    // Square roots that we try to recognize.
-    // We currently recognize only a small fixed collection, since the sqrt() function needs to
-    // identify numbers of the form <SQRT[i]>*n^2, and we don't otherwise know of a good
-    // algorithm for that.
+    // Named constants are cached persistently; see ConstantCache.
+    private final static CR CR_PI = ConstantCache.wrap("pi", BinarySplitting::pi);
+    private final static CR CR_E = ConstantCache.wrap("e", BinarySplitting::e);
+    private final static CR CR_SQRT2 = ConstantCache.wrap("sqrt2", () -> CR.valueOf(2).sqrt());
+    private final static CR CR_SQRT3 = ConstantCache.wrap("sqrt3", () -> CR.valueOf(3).sqrt());
+    private final static CR CR_LN2 = ConstantCache.wrap("ln2", BinarySplitting::ln2);
+    private final static CR CR_LN3 =
+            ConstantCache.wrap("ln3", () -> BinarySplitting.ln(CR.valueOf(3)));
+    private final static CR CR_LN5 =
+            ConstantCache.wrap("ln5", () -> BinarySplitting.ln(CR.valueOf(5)));
+    private final static CR CR_LN6 =
+            ConstantCache.wrap("ln6", () -> BinarySplitting.ln(CR.valueOf(6)));
+    private final static CR CR_LN7 =
+            ConstantCache.wrap("ln7", () -> BinarySplitting.ln(CR.valueOf(7)));
+    private final static CR CR_LN10 =
+            ConstantCache.wrap("ln10", () -> BinarySplitting.ln(CR.valueOf(10)));
+
+    // Square roots of small square-free integers, indexed by the square.
+    // Square roots of other square-free integers are represented by shared Radical instances.
     private final static CR sSqrts[] = {
             null,
             CR.ONE,
@@ -181,12 +224,136 @@ public class UnifiedReal {
      * entirely possible, or even likely.
      */
     private static BoundedRational getSquare(CR cr) {
+        final long radicand = getRadicand(cr);
+        return radicand == 0 ? null : BoundedRational.valueOf(radicand);
+    }
+
+    /**
+     * If cr is the square root of a square-free integer that we recognize, return that
+     * integer. Otherwise return 0.
+     */
+    private static long getRadicand(CR cr) {
+        if (cr instanceof Radical) {
+            return ((Radical) cr).mRadicand;
+        }
         for (int i = 0; i < sSqrts.length; ++i) {
              if (sSqrts[i] == cr) {
-                return new BoundedRational(i);
+                return i;
              }
         }
-        return null;
+        return 0;
+    }
+
+    /**
+     * The square root of a square-free integer that doesn't appear in sSqrts.
+     * There is normally one instance per radicand, so that equal radicals can be recognized by
+     * identity, just like the other named constructive reals. clearSharedCaches() may leave
+     * older instances behind; we never assume that distinct instances differ.
+     */
+    private static final class Radical extends CR {
+        final long mRadicand;
+        private final CR mValue;
+
+        Radical(long radicand) {
+            mRadicand = radicand;
+            mValue = CR.valueOf(radicand).sqrt();
+        }
+
+        @Override
+        protected BigInteger approximate(int p) {
+            return mValue.get_appr(p);
+        }
+    }
+
+    // We only represent square roots of square-free integers less than 2^MAX_RADICAND_BITS
+    // symbolically. Trial division up to the cube root keeps factoring them cheap.
+    private static final int MAX_RADICAND_BITS = 42;
+
+    // Maximum number of distinct Radicals. They are only discarded by clearSharedCaches().
+    private static final int MAX_RADICALS = 1000;
+
+    private static final ConcurrentHashMap<Long, Radical> sRadicals =
+            new ConcurrentHashMap<Long, Radical>();
+
+    /**
+     * Return the shared square root of the square-free positive integer n, or null if we
+     * don't represent it symbolically.
+     */
+    private static CR radical(long n) {
+        if (n < sSqrts.length) {
+            return sSqrts[(int) n];
+        }
+        if (n >= 1L << MAX_RADICAND_BITS) {
+            return null;
+        }
+        final Radical result = sRadicals.get(n);
+        if (result != null) {
+            return result;
+        }
+        if (sRadicals.size() >= MAX_RADICALS) {
+            return null;
+        }
+        return sRadicals.computeIfAbsent(n, Radical::new);
+    }
+
+    /**
+     * Return {s, m} such that n = s^2 * m, with m square-free. Requires 0 < n <
+     * 2^MAX_RADICAND_BITS.
+     */
+    private static long[] squareFreeDecomposition(long n) {
+        long s = 1;
+        long m = 1;
+        // Once p^3 > n, n has no prime factors less than p, and thus at most two prime factors.
+        for (long p = 2; p * p * p <= n; ++p) {
+            int e = 0;
+            while (n % p == 0) {
+                n /= p;
+                ++e;
+            }
+            for (int i = 0; i < e / 2; ++i) {
+                s *= p;
+            }
+            if ((e & 1) != 0) {
+                m *= p;
+            }
+        }
+        long r = (long) Math.sqrt((double) n);
+        while (r * r > n) {
+            --r;
+        }
+        while ((r + 1) * (r + 1) <= n) {
+            ++r;
+        }
+        if (r * r == n) {
+            s *= r;
+        } else {
+            m *= n;
+        }
+        return new long[] { s, m };
+    }
+
+    /**
+     * Return sqrt(r) as a rational multiple of a shared radical, or null if r is negative or
+     * too large.
+     */
+    private static UnifiedReal symbolicSqrt(BoundedRational r) {
+        if (r.signum() <= 0) {
+            return null;
+        }
+        // sqrt(num/den) = sqrt(num * den) / den.
+        final BigInteger den = r.bigDen().abs();
+        final BigInteger product = r.bigNum().abs().multiply(den);
+        if (product.bitLength() > MAX_RADICAND_BITS) {
+            return null;
+        }
+        final long[] decomposition = squareFreeDecomposition(product.longValue());
+        final CR radical = radical(decomposition[1]);
+        if (radical == null) {
+            return null;
+        }
+        final BoundedRational ratFactor = BoundedRational.divide(
+                BoundedRational.valueOf(decomposition[0]), new BoundedRational(den));
+        return ratFactor == null ? null : valueOf(ratFactor, radical);
     }
 
     /**
@@ -201,9 +368,90 @@ public class UnifiedReal {
                 return new BoundedRational(i);
              }
         }
+        for (int p = 0; p < MAX_LOG_PRIME; ++p) {
+            if (sPrimeLogs.get(p) == cr) {
+                return BoundedRational.valueOf(p);
+            }
+        }
         return null;
     }
 
+    // Logarithms of primes less than MAX_LOG_PRIME, indexed by the prime. Shared across
+    // evaluations, so that approximations computed for one logarithm are reused by the next.
+    // Filled in lazily. Primes with entries in sLogs use those instead.
+    private static final int MAX_LOG_PRIME = 1000;
+    private static final AtomicReferenceArray<CR> sPrimeLogs =
+            new AtomicReferenceArray<CR>(MAX_LOG_PRIME);
+
+    // We express ln() of rationals with at most this many distinct prime factors in terms of
+    // prime logarithms.
+    private static final int MAX_LOG_TERMS = 6;
+
+    /**
+     * Return the shared ln(p) for a prime p less than MAX_LOG_PRIME.
+     */
+    private static CR primeLog(int p) {
+        if (p < sLogs.length && sLogs[p] != null) {
+            return sLogs[p];
+        }
+        CR result = sPrimeLogs.get(p);
+        if (result == null) {
+            sPrimeLogs.compareAndSet(p, null, BinarySplitting.ln(CR.valueOf(p)));
+            result = sPrimeLogs.get(p);
+        }
+        return result;
+    }
+
+    /**
+     * Return ln(r) for a positive rational r, as an integer linear combination of shared prime
+     * logarithms. Return null if r has too many, or too large, prime factors.
+     */
+    private static UnifiedReal smoothLn(BoundedRational r) {
+        final BigInteger bigNum = r.bigNum().abs();
+        final BigInteger bigDen = r.bigDen().abs();
+        if (bigNum.bitLength() > 63 || bigDen.bitLength() > 63) {
+            return null;
+        }
+        long num = bigNum.longValue();
+        long den = bigDen.longValue();
+        final int[] primes = new int[MAX_LOG_TERMS];
+        final long[] exponents = new long[MAX_LOG_TERMS];
+        int nTerms = 0;
+        // Trial division by all integers finds exactly the prime factors.
+        for (int p = 2; p < MAX_LOG_PRIME && (num != 1 || den != 1); ++p) {
+            long exponent = 0;
+            while (num % p == 0) {
+                num /= p;
+                ++exponent;
+            }
+            while (den % p == 0) {
+                den /= p;
+                --exponent;
+            }
+            if (exponent != 0) {
+                if (nTerms == MAX_LOG_TERMS) {
+                    return null;
+                }
+                primes[nTerms] = p;
+                exponents[nTerms] = exponent;
+                ++nTerms;
+            }
+        }
+        if (num != 1 || den != 1 || nTerms == 0) {
+            return null;
+        }
+        if (nTerms == 1) {
+            return new UnifiedReal(BoundedRational.valueOf(exponents[0]), primeLog(primes[0]));
+        }
+        CR sum = null;
+        for (int i = 0; i < nTerms; ++i) {
+            final CR term = exponents[i] == 1 ? primeLog(primes[i])
+                    : primeLog(primes[i]).multiply(CR.valueOf(exponents[i]));
+            sum = sum == null ? term : sum.add(term);
+        }
+        return new UnifiedReal(sum);
+    }
+
     /**
      * If the argument is a well-known constructive real, return its name.
      * The name of "CR_ONE" is the empty string.
@@ -222,10 +470,9 @@ public class UnifiedReal {
         if (cr == CR_E) {
             return "e";
         }
-        for (int i = 0; i < sSqrts.length; ++i) {
-            if (cr == sSqrts[i]) {
-                return "\u221A" /* SQUARE ROOT */ + i;
-            }
+        final long radicand = getRadicand(cr);
+        if (radicand != 0) {
+            return "\u221A" /* SQUARE ROOT */ + radicand;
         }
         for (int i = 0; i < sLogs.length; ++i) {
             if (cr == sLogs[i]) {
@@ -239,7 +486,7 @@ public class UnifiedReal {
      * Would crName() return non-Null?
      */
     private static boolean isNamed(CR cr) {
-        if (cr == CR_ONE || cr == CR_PI || cr == CR_E) {
+        if (cr == CR_ONE || cr == CR_PI || cr == CR_E || cr instanceof Radical) {
             return true;
         }
         for (CR r: sSqrts) {
@@ -264,6 +511,19 @@ public class UnifiedReal {
         return cr == CR_ONE || getSquare(cr) != null;
     }
 
+    // Rough size of a UnifiedReal, its CR factor, and its rational factor, excluding the
+    // BigInteger digits of the latter.
+    private static final int OBJECT_SIZE_ESTIMATE = 200;
+
+    /**
+     * Return a rough estimate of the memory occupied by this number, in bytes.
+     * Approximations cached by the CR factor are not included, since their size depends on the
+     * precision to which we have evaluated.
+     */
+    public int approxSizeInBytes() {
+        return OBJECT_SIZE_ESTIMATE + mRatFactor.sizeInBits() / 8;
+    }
+
     /**
      * Is this number known to be rational?
      */
@@ -325,6 +585,11 @@ public class UnifiedReal {
         if (r1 == r2) {
             return false;
         }
+        final long radicand = getRadicand(r1);
+        if (radicand != 0 && radicand == getRadicand(r2)) {
+            // Distinct Radicals for the same radicand, e.g. after clearSharedCaches().
+            return false;
+        }
         CR other;
         if (r1 == CR_E || r1 == CR_PI) {
             return definitelyAlgebraic(r2);
@@ -388,16 +653,115 @@ public class UnifiedReal {
      * @param n result precision, >= 0
      */
     public String toStringTruncated(int n) {
-        if (mCrFactor == CR_ONE || mRatFactor == BoundedRational.ZERO) {
-            return mRatFactor.toStringTruncated(n);
+        return digitPrefix(n).digits;
+    }
+
+    /**
+     * A truncated decimal representation, as produced by toStringTruncated(), together with
+     * enough state to extend it to a higher precision without recomputing, and in particular
+     * without reconverting, the digits we already have.  See extendDigits().  Immutable.
+     */
+    public static final class DigitPrefix {
+        // Number of digits to the right of the decimal point.
+        public final int precOffset;
+        // If extendsPrevious, the digits to be appended to the previous prefix.  Otherwise the
+        // complete toStringTruncated(precOffset) result, which replaces the previous prefix.
+        public final String digits;
+        public final boolean extendsPrevious;
+        // The value we are approximating.
+        private final UnifiedReal mValue;
+        private final boolean mNegative;
+        // Absolute value times 10^precOffset, truncated.  Only used for irrational values.
+        private final BigInteger mScaledAbs;
+        // Division remainder left after generating the digits.  Only used for rational values.
+        private final BigInteger mRemainder;
+
+        private DigitPrefix(UnifiedReal value, int precOffset, String digits,
+                boolean extendsPrevious, boolean negative, BigInteger scaledAbs,
+                BigInteger remainder) {
+            this.precOffset = precOffset;
+            this.digits = digits;
+            this.extendsPrevious = extendsPrevious;
+            mValue = value;
+            mNegative = negative;
+            mScaledAbs = scaledAbs;
+            mRemainder = remainder;
+        }
+    }
+
+    /**
+     * Return the truncated representation with n digits to the right of the decimal point,
+     * as a DigitPrefix that can later be passed to extendDigits().
+     * The result's digits are identical to toStringTruncated(n).
+     * @param n result precision, >= 0
+     */
+    public DigitPrefix digitPrefix(int n) {
+        // A zero rational factor is now usually the shared ZERO instance, so we don't treat
+        // it as making mCrFactor irrelevant. 0 * sqrt(-1) should still report an error.
+        if (mCrFactor == CR_ONE) {
+            final BigInteger[] quotAndRem = mRatFactor.scaledAbsAndRemainder(n);
+            final boolean negative = mRatFactor.signum() < 0;
+            return new DigitPrefix(this, n, formatTruncated(quotAndRem[0], negative, n), false,
+                    negative, null, quotAndRem[1]);
         }
+        final boolean[] negative = new boolean[1];
+        final BigInteger intScaled = scaledAbs(n, negative);
+        return new DigitPrefix(this, n, formatTruncated(intScaled, negative[0], n), false,
+                negative[0], intScaled, null);
+    }
+
+    /**
+     * Return a representation with n digits to the right of the decimal point, computing only
+     * the digits not already present in prev, if possible.
+     * If the result's extendsPrevious field is set, its digits should be appended to those of
+     * prev.  Otherwise the previous digits could not be reused, and the result contains the
+     * full toStringTruncated(n) string.  That happens if prev was computed for a different
+     * value or a higher precision, or if prev was not correctly truncated, e.g. because a
+     * trailing string of nines turned out to be a carry into the previous digits.
+     * Extending a rational value costs time proportional to the number of new digits.  For
+     * other values, we still need to evaluate to the full precision, but only the new digits
+     * are converted to decimal.
+     * @param prev a DigitPrefix previously computed for this value
+     * @param n result precision, >= 0
+     */
+    public DigitPrefix extendDigits(DigitPrefix prev, int n) {
+        final int nNewDigits = n - prev.precOffset;
+        if (prev.mValue != this || nNewDigits < 0) {
+            return digitPrefix(n);
+        }
+        if (prev.mRemainder != null) {
+            final BigInteger[] quotAndRem =
+                    mRatFactor.nextScaledDigits(prev.mRemainder, nNewDigits);
+            return new DigitPrefix(this, n, padDigits(quotAndRem[0], nNewDigits), true,
+                    prev.mNegative, null, quotAndRem[1]);
+        }
+        final boolean[] negative = new boolean[1];
+        final BigInteger intScaled = scaledAbs(n, negative);
+        final BigInteger scale = BigInteger.TEN.pow(nNewDigits);
+        final BigInteger newDigits = intScaled.subtract(prev.mScaledAbs.multiply(scale));
+        if (negative[0] != prev.mNegative || newDigits.signum() < 0
+                || newDigits.compareTo(scale) >= 0) {
+            // Previous digits were not a prefix of the new ones.
+            return new DigitPrefix(this, n, formatTruncated(intScaled, negative[0], n), false,
+                    negative[0], intScaled, null);
+        }
+        return new DigitPrefix(this, n, padDigits(newDigits, nNewDigits), true,
+                negative[0], intScaled, null);
+    }
+
+    /**
+     * Return the absolute value of this times 10^n, truncated as described for
+     * toStringTruncated().  Not applicable to values with an exact rational representation.
+     * @param negative set to true in negative[0] if the value is negative
+     */
+    private BigInteger scaledAbs(int n, boolean[] negative) {
         final CR scaled = CR.valueOf(BigInteger.TEN.pow(n)).multiply(crValue());
-        boolean negative = false;
+        negative[0] = false;
         BigInteger intScaled;
         if (exactlyTruncatable()) {
             intScaled = scaled.get_appr(0);
             if (intScaled.signum() < 0) {
-                negative = true;
+                negative[0] = true;
                 intScaled = intScaled.negate();
             }
             if (CR.valueOf(intScaled).compareTo(scaled.abs()) > 0) {
@@ -408,21 +772,35 @@ public class UnifiedReal {
             // Approximate case.  Exact comparisons are impossible.
             intScaled = scaled.get_appr(-EXTRA_PREC);
             if (intScaled.signum() < 0) {
-                negative = true;
+                negative[0] = true;
                 intScaled = intScaled.negate();
             }
             intScaled = intScaled.shiftRight(EXTRA_PREC);
         }
-        String digits = intScaled.toString();
-        int len = digits.length();
-        if (len < n + 1) {
-            digits = StringUtils.repeat('0', n + 1 - len) + digits;
-            len = n + 1;
-        }
+        return intScaled;
+    }
+
+    /**
+     * Format a truncated absolute value times 10^n with a decimal point and n fraction digits.
+     */
+    private static String formatTruncated(BigInteger intScaled, boolean negative, int n) {
+        final String digits = padDigits(intScaled, n + 1);
+        final int len = digits.length();
         return (negative ? "-" : "") + digits.substring(0, len - n) + "."
                 + digits.substring(len - n);
     }
 
+    /**
+     * Return the decimal representation of the nonnegative integer i, padded with leading
+     * zeroes to at least len digits.
+     */
+    private static String padDigits(BigInteger i, int len) {
+        if (len == 0 && i.signum() == 0) {
+            return "";
+        }
+        return DecimalConverter.toString(i, len);
+    }
+
     /*
      * Can we compute correctly truncated approximations of this number?
      */
@@ -431,7 +809,7 @@ public class UnifiedReal {
         // If the value is known irrational, then we can safely compare to rational approximations;
         // equality is impossible; hence the comparison must converge.
         // The only problem cases are the ones in which we don't know.
-        return mCrFactor == CR_ONE || mRatFactor == BoundedRational.ZERO || definitelyIrrational();
+        return mCrFactor == CR_ONE || definitelyIrrational();
     }
 
     /**
@@ -448,7 +826,7 @@ public class UnifiedReal {
     }
 
     public CR crValue() {
-        return mRatFactor.crValue().multiply(mCrFactor);
+        return CRNodes.multiply(CRNodes.valueOf(mRatFactor), mCrFactor);
     }
 
     /**
@@ -609,7 +987,7 @@ public class UnifiedReal {
         if (mCrFactor == u.mCrFactor) {
             BoundedRational nRatFactor = BoundedRational.add(mRatFactor, u.mRatFactor);
             if (nRatFactor != null) {
-                return new UnifiedReal(nRatFactor, mCrFactor);
+                return valueOf(nRatFactor, mCrFactor);
             }
         }
         if (definitelyZero()) {
@@ -619,11 +997,11 @@ public class UnifiedReal {
         if (u.definitelyZero()) {
             return this;
         }
-        return new UnifiedReal(crValue().add(u.crValue()));
+        return new UnifiedReal(CRNodes.add(crValue(), u.crValue()));
     }
 
     public UnifiedReal negate() {
-        return new UnifiedReal(BoundedRational.negate(mRatFactor), mCrFactor);
+        return valueOf(BoundedRational.negate(mRatFactor), mCrFactor);
     }
 
     public UnifiedReal subtract(UnifiedReal u) {
@@ -635,13 +1013,13 @@ public class UnifiedReal {
         if (mCrFactor == CR_ONE) {
             BoundedRational nRatFactor = BoundedRational.multiply(mRatFactor, u.mRatFactor);
             if (nRatFactor != null) {
-                return new UnifiedReal(nRatFactor, u.mCrFactor);
+                return valueOf(nRatFactor, u.mCrFactor);
             }
         }
         if (u.mCrFactor == CR_ONE) {
             BoundedRational nRatFactor = BoundedRational.multiply(mRatFactor, u.mRatFactor);
             if (nRatFactor != null) {
-                return new UnifiedReal(nRatFactor, mCrFactor);
+                return valueOf(nRatFactor, mCrFactor);
             }
         }
         if (definitelyZero() || u.definitelyZero()) {
@@ -653,16 +1031,36 @@ public class UnifiedReal {
                 BoundedRational nRatFactor = BoundedRational.multiply(
                         BoundedRational.multiply(square, mRatFactor), u.mRatFactor);
                 if (nRatFactor != null) {
-                    return new UnifiedReal(nRatFactor);
+                    return valueOf(nRatFactor);
+                }
+            }
+        } else {
+            // sqrt(m1) * sqrt(m2) = g * sqrt(m1/g * m2/g), where g = gcd(m1, m2). The
+            // remaining radicand is again square-free.
+            final long m1 = getRadicand(mCrFactor);
+            final long m2 = getRadicand(u.mCrFactor);
+            if (m1 != 0 && m2 != 0) {
+                final long g = BigInteger.valueOf(m1).gcd(BigInteger.valueOf(m2)).longValue();
+                final long q1 = m1 / g;
+                final long q2 = m2 / g;
+                final CR radical = Math.multiplyHigh(q1, q2) == 0 && q1 * q2 > 0
+                        ? radical(q1 * q2) : null;
+                if (radical != null) {
+                    BoundedRational nRatFactor = BoundedRational.multiply(
+                            BoundedRational.multiply(BoundedRational.valueOf(g), mRatFactor),
+                            u.mRatFactor);
+                    if (nRatFactor != null) {
+                        return valueOf(nRatFactor, radical);
+                    }
                 }
             }
         }
         // Probably a bit cheaper to multiply component-wise.
         BoundedRational nRatFactor = BoundedRational.multiply(mRatFactor, u.mRatFactor);
         if (nRatFactor != null) {
-            return new UnifiedReal(nRatFactor, mCrFactor.multiply(u.mCrFactor));
+            return new UnifiedReal(nRatFactor, CRNodes.multiply(mCrFactor, u.mCrFactor));
         }
-        return new UnifiedReal(crValue().multiply(u.crValue()));
+        return new UnifiedReal(CRNodes.multiply(crValue(), u.crValue()));
     }
 
     public static class ZeroDivisionException extends ArithmeticException {
@@ -671,6 +1069,15 @@ public class UnifiedReal {
         }
     }
 
+    /**
+     * Thrown instead of computing a result larger than the caller asked for.
+     */
+    public static class ResultTooBigException extends ArithmeticException {
+        public ResultTooBigException() {
+            super("Result too big");
+        }
+    }
+
     /**
      * Return the reciprocal.
      */
@@ -684,10 +1091,10 @@ public class UnifiedReal {
             BoundedRational nRatFactor = BoundedRational.inverse(
                     BoundedRational.multiply(mRatFactor, square));
             if (nRatFactor != null) {
-                return new UnifiedReal(nRatFactor, mCrFactor);
+                return valueOf(nRatFactor, mCrFactor);
             }
         }
-        return new UnifiedReal(BoundedRational.inverse(mRatFactor), mCrFactor.inverse());
+        return new UnifiedReal(BoundedRational.inverse(mRatFactor), CRNodes.inverse(mCrFactor));
     }
 
     public UnifiedReal divide(UnifiedReal u) {
@@ -697,7 +1104,7 @@ public class UnifiedReal {
             }
             BoundedRational nRatFactor = BoundedRational.divide(mRatFactor, u.mRatFactor);
             if (nRatFactor != null) {
-                return new UnifiedReal(nRatFactor, CR_ONE);
+                return valueOf(nRatFactor);
             }
         }
         return multiply(u.inverse());
@@ -712,9 +1119,14 @@ public class UnifiedReal {
             return ZERO;
         }
         if (mCrFactor == CR_ONE) {
+            final UnifiedReal result = symbolicSqrt(mRatFactor);
+            if (result != null) {
+                return result;
+            }
             BoundedRational ratSqrt;
-            // Check for all arguments of the form <perfect rational square> * small_int,
-            // where small_int has a known sqrt.  This includes the small_int = 1 case.
+            // For large arguments, check for all arguments of the form
+            // <perfect rational square> * small_int, where small_int has a known sqrt.  This
+            // includes the small_int = 1 case.
             for (int divisor = 1; divisor < sSqrts.length; ++divisor) {
                 if (sSqrts[divisor] != null) {
                     ratSqrt = BoundedRational.sqrt(
@@ -725,7 +1137,7 @@ public class UnifiedReal {
                 }
             }
         }
-        return new UnifiedReal(crValue().sqrt());
+        return new UnifiedReal(CRNodes.sqrt(crValue()));
     }
 
     /**
@@ -783,7 +1195,114 @@ public class UnifiedReal {
                 return result;
             }
         }
-        return new UnifiedReal(crValue().sin());
+        if (mCrFactor == CR_PI) {
+            return sinPiMultiple(mRatFactor, false);
+        }
+        return new UnifiedReal(CRNodes.sin(crValue()));
+    }
+
+    /**
+     * sin(t*pi) for a rational t with 0 <= t <= 1/4, and the corresponding cosine, which we
+     * compute from the sine, so that both share a single series evaluation.
+     */
+    private static final class PiMultipleTrig {
+        final CR mSin;
+        private CR mCos;
+
+        PiMultipleTrig(BoundedRational t) {
+            mSin = CR_PI.multiply(t.crValue()).sin();
+        }
+
+        synchronized CR cos() {
+            if (mCos == null) {
+                // Well conditioned, since the cosine is at least sqrt(1/2).
+                mCos = CR_ONE.subtract(mSin.multiply(mSin)).sqrt();
+            }
+            return mCos;
+        }
+    }
+
+    // Maximum number of angles for which we remember sines and cosines.
+    private static final int MAX_PI_MULTIPLE_TRIG = 1000;
+
+    // Sines and cosines of rational multiples of pi, keyed by the reduced multiple t, with
+    // 0 <= t <= 1/4. Shared across evaluations, e.g. of a sequence of trig functions in degree
+    // mode. Arguments with large numerators or denominators are not cached.
+    private static final ConcurrentHashMap<BoundedRational, PiMultipleTrig> sPiMultipleTrig =
+            new ConcurrentHashMap<BoundedRational, PiMultipleTrig>();
+
+    /**
+     * Forget the process-wide tables of radicals, prime logarithms, sines of rational multiples
+     * of pi, and powers of ten, together with the approximations they have cached. Intended for
+     * use when memory is low. Numbers built before the call remain correct, but are less likely
+     * to be recognized as exact multiples of ones built afterwards. May be called from any
+     * thread.
+     */
+    public static void clearSharedCaches() {
+        sRadicals.clear();
+        for (int i = 0; i < MAX_LOG_PRIME; ++i) {
+            sPrimeLogs.set(i, null);
+        }
+        sPiMultipleTrig.clear();
+        DecimalConverter.clearPowers();
+    }
+
+    /**
+     * Return sin(r*pi), or cos(r*pi) if isCos, for rational r.
+     * We reduce the argument to t*pi with 0 <= t <= 1/4 using the usual symmetries, so that
+     * e.g. sin(37 degrees) and cos(143 degrees) are computed from the same sine.
+     */
+    private static UnifiedReal sinPiMultiple(BoundedRational r, boolean isCos) {
+        BigInteger num = r.bigNum();
+        BigInteger den = r.bigDen();
+        if (den.signum() < 0) {
+            num = num.negate();
+            den = den.negate();
+        }
+        if (isCos) {
+            // cos(x) = sin(x + pi/2).
+            num = num.shiftLeft(1).add(den);
+            den = den.shiftLeft(1);
+        }
+        // sin is periodic with period 2pi.
+        num = num.mod(den.shiftLeft(1));
+        boolean negative = false;
+        if (num.compareTo(den) >= 0) {
+            // sin(x + pi) = -sin(x)
+            negative = true;
+            num = num.subtract(den);
+        }
+        if (num.shiftLeft(1).compareTo(den) > 0) {
+            // sin(pi - x) = sin(x)
+            num = den.subtract(num);
+        }
+        // Now 0 <= num/den <= 1/2.
+        boolean useCos = false;
+        if (num.shiftLeft(2).compareTo(den) > 0) {
+            // sin(x) = cos(pi/2 - x)
+            useCos = true;
+            num = den.subtract(num.shiftLeft(1));
+            den = den.shiftLeft(1);
+        }
+        final BigInteger gcd = num.gcd(den);
+        final BoundedRational t = new BoundedRational(num.divide(gcd), den.divide(gcd));
+        PiMultipleTrig trig;
+        if (num.bitLength() > 63 || den.bitLength() > 63) {
+            trig = new PiMultipleTrig(t);
+        } else {
+            trig = sPiMultipleTrig.get(t);
+            if (trig == null) {
+                trig = new PiMultipleTrig(t);
+                if (sPiMultipleTrig.size() < MAX_PI_MULTIPLE_TRIG) {
+                    final PiMultipleTrig previous = sPiMultipleTrig.putIfAbsent(t, trig);
+                    if (previous != null) {
+                        trig = previous;
+                    }
+                }
+            }
+        }
+        return valueOf(negative ? BoundedRational.MINUS_ONE : BoundedRational.ONE,
+                useCos ? trig.cos() : trig.mSin);
     }
 
     private static UnifiedReal cosPiTwelfths(int n) {
@@ -802,7 +1321,10 @@ public class UnifiedReal {
                 return result;
             }
         }
-        return new UnifiedReal(crValue().cos());
+        if (mCrFactor == CR_PI) {
+            return sinPiMultiple(mRatFactor, true);
+        }
+        return new UnifiedReal(CRNodes.cos(crValue()));
     }
 
     public UnifiedReal tan() {
@@ -810,7 +1332,8 @@ public class UnifiedReal {
         if (piTwelfths != null) {
             int i = piTwelfths.intValue();
             if (i == 6 || i == 18) {
-                throw new ArithmeticException("Tangent undefined");
+                // Same as dividing by cos().
+                throw new ZeroDivisionException();
             }
             UnifiedReal top = sinPiTwelfths(i);
             UnifiedReal bottom = cosPiTwelfths(i);
@@ -818,7 +1341,40 @@ public class UnifiedReal {
                 return top.divide(bottom);
             }
         }
-        return sin().divide(cos());
+        if (mCrFactor == CR_PI) {
+            return sin().divide(cos());
+        }
+        return new UnifiedReal(new TanCR(crValue()));
+    }
+
+    /**
+     * tan(x), for x not known to be a rational multiple of pi.
+     * We reduce the argument by the nearest multiple of pi once, rather than separately in
+     * CR.sin() and CR.cos(), and let both share the reduced argument. Since finding that
+     * multiple requires evaluating x, we defer it, and the construction of sin and cos, which
+     * also evaluate their arguments, until the first approximation is requested.
+     */
+    private static final class TanCR extends CR {
+        private final CR mArg;
+        // Built by the first call to approximate(). CR.get_appr() holds our lock.
+        private CR mValue;
+
+        TanCR(CR arg) {
+            mArg = arg;
+        }
+
+        @Override
+        protected BigInteger approximate(int p) {
+            if (mValue == null) {
+                CR arg = mArg;
+                final BigInteger piMultiple = arg.divide(CR_PI).get_appr(0);
+                if (piMultiple.signum() != 0) {
+                    arg = arg.subtract(CR.valueOf(piMultiple).multiply(CR_PI));
+                }
+                mValue = arg.sin().divide(arg.cos());
+            }
+            return mValue.get_appr(p);
+        }
     }
 
     // Throw an exception if the argument is definitely out of bounds for asin or acos.
@@ -839,9 +1395,9 @@ public class UnifiedReal {
         case 0:
             return ZERO;
         case 1:
-            return new UnifiedReal(BoundedRational.SIXTH, CR.PI);
+            return new UnifiedReal(BoundedRational.SIXTH, CR_PI);
         case 2:
-            return new UnifiedReal(BoundedRational.HALF, CR.PI);
+            return new UnifiedReal(BoundedRational.HALF, CR_PI);
         }
         throw new AssertionError("asinHalves: Bad argument");
     }
@@ -860,7 +1416,7 @@ public class UnifiedReal {
         if (definitelyEquals(HALF_SQRT3)) {
             return new UnifiedReal(BoundedRational.THIRD, CR_PI);
         }
-        return new UnifiedReal(crValue().asin());
+        return new UnifiedReal(CRNodes.asin(crValue()));
     }
 
     public UnifiedReal asin() {
@@ -872,7 +1428,7 @@ public class UnifiedReal {
         if (mCrFactor == CR.ONE || mCrFactor != CR_SQRT2 ||mCrFactor != CR_SQRT3) {
             return asinNonHalves();
         }
-        return new UnifiedReal(crValue().asin());
+        return new UnifiedReal(CRNodes.asin(crValue()));
     }
 
     public UnifiedReal acos() {
@@ -902,7 +1458,7 @@ public class UnifiedReal {
         if (definitelyEquals(SQRT3)) {
             return PI_OVER_3;
         }
-        return new UnifiedReal(UnaryCRFunction.atanFunction.execute(crValue()));
+        return new UnifiedReal(CRNodes.atan(crValue()));
     }
 
     private static final BigInteger BIG_TWO = BigInteger.valueOf(2);
@@ -912,25 +1468,50 @@ public class UnifiedReal {
     // base, and can produce rational results. But it can become slow for very large exponents.
     private static final BigInteger RECURSIVE_POW_LIMIT = BigInteger.valueOf(1000);
     // The corresponding limit when we're using rational arithmetic. This should fail fast
-    // anyway, but we avoid ridiculously deep recursion.
+    // anyway, but we avoid ridiculously long exponent loops.
     private static final BigInteger HARD_RECURSIVE_POW_LIMIT = BigInteger.ONE.shiftLeft(1000);
 
     /**
-     * Compute an integral power of a constructive real, using the standard recursive algorithm.
+     * The ways in which we compute integral powers, for instrumentation.
+     * EXACT: rational arithmetic, for integers and rationals of manageable size.
+     * SYMBOLIC: an exact rational multiple of a known square root.
+     * BINARY: constructive real binary powering, for bases of unknown sign.
+     * EXP_LN: exp(exp * ln(base)).
+     */
+    public enum PowPath { EXACT, SYMBOLIC, BINARY, EXP_LN }
+
+    private static final AtomicLongArray sPowPathCounts =
+            new AtomicLongArray(PowPath.values().length);
+
+    /**
+     * Return the number of integral powers computed by the given path so far.
+     */
+    public static long getPowPathCount(PowPath path) {
+        return sPowPathCounts.get(path.ordinal());
+    }
+
+    private static void notePowPath(PowPath path) {
+        sPowPathCounts.incrementAndGet(path.ordinal());
+    }
+
+    /**
+     * Compute an integral power of a constructive real, using the standard binary algorithm.
+     * We process exponent bits from the most significant end, which produces the same CR
+     * expression as the natural recursive formulation, without recursing.
      * exp is known to be positive.
      */
     private static CR recursivePow(CR base, BigInteger exp) {
-        if (exp.equals(BigInteger.ONE)) {
-            return base;
-        }
-        if (exp.testBit(0)) {
-            return base.multiply(recursivePow(base, exp.subtract(BigInteger.ONE)));
-        }
-        CR tmp = recursivePow(base, exp.shiftRight(1));
-        if (Thread.interrupted()) {
-            throw new CR.AbortedException();
+        CR result = base;
+        for (int i = exp.bitLength() - 2; i >= 0; --i) {
+            if (Thread.interrupted()) {
+                throw new CR.AbortedException();
+            }
+            result = result.multiply(result);
+            if (exp.testBit(i)) {
+                result = base.multiply(result);
+            }
         }
-        return tmp.multiply(tmp);
+        return result;
     }
 
     /**
@@ -942,11 +1523,15 @@ public class UnifiedReal {
         if (sign > 0) {
             // Safe to take the log. This avoids deep recursion for huge exponents, which
             // may actually make sense here.
-            return new UnifiedReal(crValue().ln().multiply(CR.valueOf(exp)).exp());
+            notePowPath(PowPath.EXP_LN);
+            return new UnifiedReal(CRNodes.exp(CRNodes.multiply(
+                    CRNodes.ln(crValue()), CRNodes.valueOf(new BoundedRational(exp)))));
         } else if (sign < 0) {
-            CR result = crValue().negate().ln().multiply(CR.valueOf(exp)).exp();
+            notePowPath(PowPath.EXP_LN);
+            CR result = CRNodes.exp(CRNodes.multiply(CRNodes.ln(CRNodes.negate(crValue())),
+                    CRNodes.valueOf(new BoundedRational(exp))));
             if (exp.testBit(0) /* odd exponent */) {
-                result = result.negate();
+                result = CRNodes.negate(result);
             }
             return new UnifiedReal(result);
         } else {
@@ -954,6 +1539,7 @@ public class UnifiedReal {
             // (Another possible option would be to use the absolute value of the base, and then
             // adjust the sign at the end.  But that would have to be done in the CR
             // implementation.)
+            notePowPath(PowPath.BINARY);
             if (exp.signum() < 0) {
                 // This may be very expensive if exp.negate() is large.
                 return new UnifiedReal(recursivePow(crValue(), exp.negate()).inverse());
@@ -966,8 +1552,6 @@ public class UnifiedReal {
 
     /**
      * Compute an integral power of this.
-     * This recurses roughly as deeply as the number of bits in the exponent, and can, in
-     * ridiculous cases, result in a stack overflow.
      */
     private UnifiedReal pow(BigInteger exp) {
         if (exp.equals(BigInteger.ONE)) {
@@ -981,10 +1565,12 @@ public class UnifiedReal {
         BigInteger absExp = exp.abs();
         if (mCrFactor == CR_ONE && absExp.compareTo(HARD_RECURSIVE_POW_LIMIT) <= 0) {
             final BoundedRational ratPow = mRatFactor.pow(exp);
-            // We count on this to fail, e.g. for very large exponents, when it would
-            // otherwise be too expensive.
+            // Integer results are computed exactly, so that e.g. 2^3000000 / 2^2999990 is
+            // still recognized as rational.  Other results fail without computing anything
+            // when the size BoundedRational.pow() predicts is too large.
             if (ratPow != null) {
-                return new UnifiedReal(ratPow);
+                notePowPath(PowPath.EXACT);
+                return valueOf(ratPow);
             }
         }
         if (absExp.compareTo(RECURSIVE_POW_LIMIT) > 0) {
@@ -995,6 +1581,7 @@ public class UnifiedReal {
             final BoundedRational nRatFactor =
                     BoundedRational.multiply(mRatFactor.pow(exp), square.pow(exp.shiftRight(1)));
             if (nRatFactor != null) {
+                notePowPath(PowPath.SYMBOLIC);
                 if (exp.and(BigInteger.ONE).intValue() == 1) {
                     // Odd power: Multiply by remaining square root.
                     return new UnifiedReal(nRatFactor, mCrFactor);
@@ -1043,7 +1630,8 @@ public class UnifiedReal {
         if (sign < 0) {
             throw new ArithmeticException("Negative base for pow() with non-integer exponent");
         }
-        return new UnifiedReal(crValue().ln().multiply(expon.crValue()).exp());
+        return new UnifiedReal(CRNodes.exp(
+                CRNodes.multiply(CRNodes.ln(crValue()), expon.crValue())));
     }
 
     /**
@@ -1128,9 +1716,9 @@ public class UnifiedReal {
                     }
                 } else {
                     // Check for n^k * sqrt(n), for which we can also return a more useful answer.
-                    BoundedRational square = getSquare(mCrFactor);
-                    if (square != null) {
-                        int intSquare = square.intValue();
+                    final long square = getRadicand(mCrFactor);
+                    if (square != 0 && square < sLogs.length) {
+                        int intSquare = (int) square;
                         if (sLogs[intSquare] != null) {
                             long intLog = getIntLog(bi, intSquare);
                             if (intLog != 0) {
@@ -1145,8 +1733,14 @@ public class UnifiedReal {
                     }
                 }
             }
+            if (mCrFactor == CR_ONE) {
+                final UnifiedReal result = smoothLn(mRatFactor);
+                if (result != null) {
+                    return result;
+                }
+            }
         }
-        return new UnifiedReal(crValue().ln());
+        return new UnifiedReal(CRNodes.ln(crValue()));
     }
 
     public UnifiedReal exp() {
@@ -1176,38 +1770,14 @@ public class UnifiedReal {
                 return result;
             }
         }
-        return new UnifiedReal(crValue().exp());
+        return new UnifiedReal(CRNodes.exp(crValue()));
     }
 
 
-    /**
-     * Generalized factorial.
-     * Compute n * (n - step) * (n - 2 * step) * etc.  This can be used to compute factorial a bit
-     * faster, especially if BigInteger uses sub-quadratic multiplication.
-     */
-    private static BigInteger genFactorial(long n, long step) {
-        if (n > 4 * step) {
-            BigInteger prod1 = genFactorial(n, 2 * step);
-            if (Thread.interrupted()) {
-                throw new CR.AbortedException();
-            }
-            BigInteger prod2 = genFactorial(n - step, 2 * step);
-            if (Thread.interrupted()) {
-                throw new CR.AbortedException();
-            }
-            return prod1.multiply(prod2);
-        } else {
-            if (n == 0) {
-                return BigInteger.ONE;
-            }
-            BigInteger res = BigInteger.valueOf(n);
-            for (long i = n - step; i > 1; i -= step) {
-                res = res.multiply(BigInteger.valueOf(i));
-            }
-            return res;
-        }
-    }
-
+    // Factorial arguments must have at most this many bits. The result for the largest one
+    // has about 40 million bits; computing it takes a few seconds on a multi-core device.
+    // Callers that can't use such results pass a much lower bound to fact(int).
+    private static final int MAX_FACTORIAL_ARG_BITS = 21;
 
     /**
      * Factorial function.
@@ -1215,6 +1785,23 @@ public class UnifiedReal {
      * May round to nearest integer if value is close.
      */
     public UnifiedReal fact() {
+        return fact(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Return a lower bound on the number of bits in n!, for n >= 2, using Stirling's formula:
+     * log2(n!) > n log2(n/e) + log2(2 pi n) / 2.
+     */
+    private static double factorialBitsLowerBound(long n) {
+        return n * (Math.log(n) - 1.0) / Math.log(2.0)
+                + Math.log(2.0 * Math.PI * n) / (2.0 * Math.log(2.0));
+    }
+
+    /**
+     * Factorial function, as fact(), but throws ResultTooBigException instead of computing a
+     * result with more than maxResultBits bits.
+     */
+    public UnifiedReal fact(int maxResultBits) {
         BigInteger asBI = bigIntegerValue();
         if (asBI == null) {
             asBI = crValue().get_appr(0);  // Correct if it was an integer.
@@ -1225,11 +1812,16 @@ public class UnifiedReal {
         if (asBI.signum() < 0) {
             throw new ArithmeticException("Negative factorial argument");
         }
-        if (asBI.bitLength() > 20) {
-            // Will fail.  LongValue() may not work. Punt now.
+        if (asBI.bitLength() > MAX_FACTORIAL_ARG_BITS) {
+            // Would take too long, and the result would be far too big to display. Punt now.
             throw new ArithmeticException("Factorial argument too big");
         }
-        BigInteger biResult = genFactorial(asBI.longValue(), 1);
+        final long n = asBI.longValue();
+        if (n >= 2 && factorialBitsLowerBound(n) > maxResultBits) {
+            // The caller would discard the result anyway.
+            throw new ResultTooBigException();
+        }
+        BigInteger biResult = Factorial.factorial(n);
         BoundedRational nRatFactor = new BoundedRational(biResult);
         return new UnifiedReal(nRatFactor);
     }
@@ -0,0 +1,175 @@
+/*
+ * SPDX-FileCopyrightText: 2026 The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.calculator2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Checks BoundedRational's long fast paths, exact square roots, and exact powers against
+ * straightforward BigInteger computations, as BoundedRational used to perform them.
+ */
+public class BoundedRationalTest {
+    private static final Random RANDOM = new Random(4242);
+
+    // Numerators and denominators near the boundaries of the long fast paths.
+    private static long[] interestingLongs() {
+        final ArrayList<Long> values = new ArrayList<Long>();
+        final long[] fixed = { 0, 1, -1, 2, -2, 3, 10, -10, 1000, 1L << 31, -(1L << 31),
+                (1L << 32) + 1, 3037000499L, 3037000500L, (1L << 62) - 1, -(1L << 62),
+                Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE + 1, Long.MAX_VALUE - 1 };
+        for (long x : fixed) {
+            values.add(x);
+        }
+        for (int bits = 2; bits <= 63; bits += 3) {
+            values.add(RANDOM.nextLong() >> (64 - bits));
+        }
+        final long[] result = new long[values.size()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = values.get(i);
+        }
+        return result;
+    }
+
+    private static void assertValue(BigInteger num, BigInteger den, BoundedRational actual) {
+        assertNotNull(num + "/" + den, actual);
+        assertEquals(num + "/" + den + " vs " + actual, 0,
+                new BoundedRational(num, den).compareTo(actual));
+    }
+
+    @Test
+    public void arithmeticMatchesBigInteger() {
+        final long[] values = interestingLongs();
+        for (long n1 : values) {
+            for (long d1 : values) {
+                if (d1 == 0) {
+                    continue;
+                }
+                final BoundedRational r1 = new BoundedRational(n1, d1);
+                final BigInteger bn1 = BigInteger.valueOf(n1);
+                final BigInteger bd1 = BigInteger.valueOf(d1);
+                for (int i = 0; i < 8; ++i) {
+                    final long n2 = values[RANDOM.nextInt(values.length)];
+                    final long d2 = values[RANDOM.nextInt(values.length)];
+                    if (d2 == 0) {
+                        continue;
+                    }
+                    final BoundedRational r2 = new BoundedRational(n2, d2);
+                    final BigInteger bn2 = BigInteger.valueOf(n2);
+                    final BigInteger bd2 = BigInteger.valueOf(d2);
+                    assertValue(bn1.multiply(bd2).add(bn2.multiply(bd1)), bd1.multiply(bd2),
+                            BoundedRational.add(r1, r2));
+                    assertValue(bn1.multiply(bd2).subtract(bn2.multiply(bd1)),
+                            bd1.multiply(bd2), BoundedRational.subtract(r1, r2));
+                    assertValue(bn1.multiply(bn2), bd1.multiply(bd2),
+                            BoundedRational.multiply(r1, r2));
+                    if (n2 != 0) {
+                        assertValue(bn1.multiply(bd2), bd1.multiply(bn2),
+                                BoundedRational.divide(r1, r2));
+                    }
+                    final BigInteger sign = BigInteger.valueOf(bd1.multiply(bd2).signum());
+                    final int expected = bn1.multiply(bd2).multiply(sign)
+                            .compareTo(bn2.multiply(bd1).multiply(sign));
+                    assertEquals(r1 + " vs " + r2, expected, r1.compareTo(r2));
+                }
+                assertValue(bn1.negate(), bd1, BoundedRational.negate(r1));
+                assertEquals(bn1.signum() * bd1.signum(), r1.signum());
+            }
+        }
+    }
+
+    @Test
+    public void chainedSumsMatchBigInteger() {
+        // Harmonic sums leave the long fast path partway through.
+        BoundedRational sum = BoundedRational.ZERO;
+        BigInteger num = BigInteger.ZERO;
+        BigInteger den = BigInteger.ONE;
+        for (int k = 1; k <= 200; ++k) {
+            sum = BoundedRational.add(sum, new BoundedRational(1, k));
+            num = num.multiply(BigInteger.valueOf(k)).add(den);
+            den = den.multiply(BigInteger.valueOf(k));
+            assertValue(num, den, sum);
+        }
+    }
+
+    @Test
+    public void isqrtMatchesBigIntegerSqrt() {
+        final ArrayList<BigInteger> values = new ArrayList<BigInteger>();
+        for (long x : new long[] { 0, 1, 2, 3, 4, 15, 16, 17, 3037000499L * 3037000499L,
+                Long.MAX_VALUE }) {
+            values.add(BigInteger.valueOf(x));
+        }
+        for (int bits = 50; bits <= 5000; bits = bits * 3 / 2) {
+            final BigInteger x = new BigInteger(bits, RANDOM);
+            final BigInteger square = x.multiply(x);
+            values.add(x);
+            values.add(square);
+            values.add(square.subtract(BigInteger.ONE));
+            values.add(square.add(BigInteger.ONE));
+            values.add(BigInteger.ONE.shiftLeft(bits));
+        }
+        for (BigInteger x : values) {
+            assertEquals(x.toString(), x.sqrt(), BoundedRational.isqrt(x));
+        }
+    }
+
+    @Test
+    public void sqrtIsExactForSquares() {
+        final BigInteger num = new BigInteger(3000, RANDOM);
+        final BigInteger den = new BigInteger(2000, RANDOM).setBit(0);
+        final BoundedRational square =
+                new BoundedRational(num.multiply(num), den.multiply(den));
+        assertValue(num, den, BoundedRational.sqrt(square));
+        assertNull(BoundedRational.sqrt(BoundedRational.add(square, BoundedRational.ONE)));
+        assertValue(BigInteger.valueOf(3037000499L), BigInteger.valueOf(7),
+                BoundedRational.sqrt(new BoundedRational(3037000499L * 3037000499L, 49)));
+        assertNull(BoundedRational.sqrt(new BoundedRational(2)));
+    }
+
+    @Test
+    public void powMatchesBigInteger() {
+        final long[][] bases = { { 2, 1 }, { -3, 1 }, { 2, 3 }, { -7, 10 }, { 1, -1000 },
+                { 123456789, 987654321 }, { Long.MAX_VALUE, 3 } };
+        final int[] exps = { 1, 2, 3, 7, 64, 100, 1000, -1, -5, -100 };
+        for (long[] base : bases) {
+            final BoundedRational r = new BoundedRational(base[0], base[1]);
+            for (int e : exps) {
+                final BigInteger num = BigInteger.valueOf(base[0]).pow(Math.abs(e));
+                final BigInteger den = BigInteger.valueOf(base[1]).pow(Math.abs(e));
+                final BoundedRational actual = r.pow(BigInteger.valueOf(e));
+                if (actual == null) {
+                    // Too big to represent; BoundedRational.MAX_SIZE is 10000 bits.
+                    assertTrue(r + "^" + e, num.bitLength() + den.bitLength() > 9000);
+                } else if (e > 0) {
+                    assertValue(num, den, actual);
+                } else {
+                    assertValue(den, num, actual);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void hugeIntegerPowersAreExact() {
+        // Integer results are computed exactly, however large the exponent that keeps them
+        // representable.
+        final BoundedRational big = new BoundedRational(2).pow(BigInteger.valueOf(3000000));
+        assertValue(BigInteger.ONE.shiftLeft(3000000), BigInteger.ONE, big);
+        assertValue(BigInteger.ONE, BigInteger.ONE,
+                new BoundedRational(-1).pow(BigInteger.TEN.pow(400)));
+        assertValue(BigInteger.ZERO, BigInteger.ONE,
+                BoundedRational.ZERO.pow(BigInteger.TEN.pow(400)));
+        assertNull(new BoundedRational(2).pow(BigInteger.TEN.pow(400)));
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * SPDX-FileCopyrightText: 2026 The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.calculator2;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * Checks DecimalConverter against BigInteger.toString(), on both sides of the sizes at which
+ * it switches from BigInteger.toString() to recursion, and from sequential to parallel
+ * conversion.
+ */
+public class DecimalConverterTest {
+    private static final Random RANDOM = new Random(1414);
+
+    private static void check(BigInteger i) {
+        assertEquals(i.toString(), DecimalConverter.toString(i));
+    }
+
+    @Test
+    public void matchesBigIntegerToString() {
+        check(BigInteger.ZERO);
+        check(BigInteger.ONE);
+        for (int bits = 1000; bits < 300000; bits = bits * 3 / 2) {
+            check(new BigInteger(bits, RANDOM).setBit(bits - 1));
+        }
+    }
+
+    @Test
+    public void keepsInternalZeroes() {
+        // Pieces of the conversion that are padded with leading zeroes.
+        for (int digits : new int[] { 255, 256, 257, 512, 1000, 4096, 40000, 100000 }) {
+            final BigInteger power = BigInteger.TEN.pow(digits);
+            check(power);
+            check(power.subtract(BigInteger.ONE));
+            check(power.add(BigInteger.ONE));
+            check(power.multiply(power).add(BigInteger.valueOf(7)));
+        }
+    }
+
+    @Test
+    public void padsToLength() {
+        assertEquals("000", DecimalConverter.toString(BigInteger.ZERO, 3));
+        assertEquals("0042", DecimalConverter.toString(BigInteger.valueOf(42), 4));
+        assertEquals("12345", DecimalConverter.toString(BigInteger.valueOf(12345), 2));
+        final BigInteger big = BigInteger.TEN.pow(5000).add(BigInteger.ONE);
+        assertEquals("00" + big, DecimalConverter.toString(big, 5003));
+    }
+
+    @Test
+    public void survivesClearedPowers() {
+        final BigInteger i = new BigInteger(50000, RANDOM);
+        check(i);
+        DecimalConverter.clearPowers();
+        check(i);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * SPDX-FileCopyrightText: 2026 The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.calculator2;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.hp.creals.CR;
+import com.hp.creals.UnaryCRFunction;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+
+/**
+ * Checks that Interval results contain the values computed by the CR library, to which
+ * evaluation used to defer. An interval contains a value if its difference from a tight
+ * approximation of that value contains zero.
+ */
+public class IntervalTest {
+    // Precision of the CR approximations, enough to resolve the smallest test value.
+    private static final int PREC = -4000;
+
+    private static final BoundedRational[] VALUES = {
+            new BoundedRational(3), new BoundedRational(1, 7), new BoundedRational(-5, 2),
+            new BoundedRational(BigInteger.ONE, BigInteger.TEN.pow(1000)),
+            new BoundedRational(BigInteger.valueOf(-7).multiply(BigInteger.TEN.pow(400))),
+            new BoundedRational(355, 113), new BoundedRational(-1, 3) };
+
+    private static void assertContains(String what, Interval i, CR x) {
+        if (i == null) {
+            // Always a valid answer, though not a useful one.
+            return;
+        }
+        final Interval diff = i.subtract(Interval.approximatedBy(x.get_appr(PREC), PREC));
+        assertTrue(what + ": " + i, diff == null || diff.containsZero());
+    }
+
+    private static boolean small(BoundedRational r) {
+        return r.wholeNumberBits() < 10;
+    }
+
+    @Test
+    public void arithmeticContainsResults() {
+        for (BoundedRational r1 : VALUES) {
+            final Interval i1 = Interval.valueOf(r1);
+            final CR x1 = r1.crValue();
+            assertNotNull(r1.toString(), i1);
+            assertContains(r1.toString(), i1, x1);
+            assertContains("-" + r1, i1.negate(), x1.negate());
+            for (BoundedRational r2 : VALUES) {
+                final Interval i2 = Interval.valueOf(r2);
+                final CR x2 = r2.crValue();
+                final String both = r1 + ", " + r2;
+                assertContains("add " + both, i1.add(i2), x1.add(x2));
+                assertContains("subtract " + both, i1.subtract(i2), x1.subtract(x2));
+                assertContains("multiply " + both, i1.multiply(i2), x1.multiply(x2));
+                assertContains("divide " + both, i1.divide(i2), x1.divide(x2));
+                if (r1.signum() > 0 && small(r1) && small(r2)) {
+                    assertContains("pow " + both, i1.pow(i2), x1.ln().multiply(x2).exp());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void functionsContainResults() {
+        for (BoundedRational r : VALUES) {
+            final Interval i = Interval.valueOf(r);
+            final CR x = r.crValue();
+            if (r.signum() > 0) {
+                assertContains("sqrt " + r, i.sqrt(), x.sqrt());
+                assertContains("ln " + r, i.ln(), x.ln());
+                assertContains("log " + r, i.log(), x.ln().divide(CR.valueOf(10).ln()));
+            }
+            if (small(r)) {
+                assertContains("exp " + r, i.exp(), x.exp());
+                assertContains("sin " + r, i.sin(), x.sin());
+                assertContains("cos " + r, i.cos(), x.cos());
+                assertContains("atan " + r, i.atan(),
+                        UnaryCRFunction.atanFunction.execute(x));
+            }
+            if (r.compareTo(BoundedRational.ONE) <= 0
+                    && r.compareTo(BoundedRational.MINUS_ONE) >= 0) {
+                assertContains("asin " + r, i.asin(), x.asin());
+                assertContains("acos " + r, i.acos(), x.acos());
+            }
+        }
+        assertContains("pi", Interval.PI, CR.PI);
+        assertContains("e", Interval.E, CR.ONE.exp());
+        assertContains("fact 20", Interval.valueOf(20).fact(), CR.valueOf(2432902008176640000L));
+    }
+
+    @Test
+    public void tinyValuesKeepTheirMagnitude() {
+        // 10^-1000 is about 2^-3321.9, so it has 3321 leading zero bits after the binary
+        // point. The bound may be a little larger, but must not be smaller.
+        final Interval tiny = Interval.valueOf(VALUES[3]);
+        final int zeroes = tiny.leadingBinaryZeroes();
+        assertTrue("leading zeroes " + zeroes, zeroes >= 3321 && zeroes <= 3330);
+        final int squaredZeroes = tiny.multiply(tiny).leadingBinaryZeroes();
+        assertTrue("squared leading zeroes " + squaredZeroes,
+                squaredZeroes >= 6643 && squaredZeroes <= 6660);
+    }
+}
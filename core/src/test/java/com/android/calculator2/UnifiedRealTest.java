@@ -0,0 +1,132 @@
+/*
+ * SPDX-FileCopyrightText: 2026 The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.calculator2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.hp.creals.CR;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+
+/**
+ * Checks UnifiedReal's symbolic radicals, shared sines of rational multiples of pi, exact
+ * powers, and tangents against the exact values they stand for, and against the CR library
+ * computations evaluation used to perform instead.
+ */
+public class UnifiedRealTest {
+    private static final int PREC = -1000;
+
+    private static void assertClose(String what, CR expected, UnifiedReal actual) {
+        final BigInteger diff = expected.get_appr(PREC).subtract(actual.crValue().get_appr(PREC));
+        assertTrue(what + " differs by " + diff, diff.abs().compareTo(BigInteger.ONE) <= 0);
+    }
+
+    private static void assertInteger(String what, long expected, UnifiedReal actual) {
+        assertEquals(what, BigInteger.valueOf(expected), actual.bigIntegerValue());
+    }
+
+    @Test
+    public void radicalIdentitiesAreRational() {
+        // Square-free radicands beyond the small table of square roots.
+        for (long n : new long[] { 77, 510510, 9699690, 1000003 }) {
+            final UnifiedReal root = new UnifiedReal(n).sqrt();
+            assertClose("sqrt " + n, CR.valueOf(n).sqrt(), root);
+            assertInteger("sqrt " + n + " squared", n, root.multiply(root));
+            assertInteger("sqrt " + (4 * n) + " / sqrt " + n, 2,
+                    new UnifiedReal(4 * n).sqrt().divide(root));
+            assertTrue(new UnifiedReal(n * 9).sqrt()
+                    .definitelyEquals(root.multiply(new UnifiedReal(3))));
+        }
+        assertInteger("sqrt 12 * sqrt 3", 6,
+                new UnifiedReal(12).sqrt().multiply(new UnifiedReal(3).sqrt()));
+        assertInteger("sqrt 18 / sqrt 2", 3,
+                new UnifiedReal(18).sqrt().divide(new UnifiedReal(2).sqrt()));
+        final UnifiedReal ratio = new UnifiedReal(new BoundedRational(2, 9)).sqrt();
+        assertTrue(ratio.multiply(ratio).definitelyEquals(
+                new UnifiedReal(new BoundedRational(2, 9))));
+    }
+
+    @Test
+    public void radicalsSurviveClearedCaches() {
+        final UnifiedReal before = new UnifiedReal(510510).sqrt();
+        UnifiedReal.clearSharedCaches();
+        final UnifiedReal after = new UnifiedReal(510510).sqrt();
+        assertInteger("sqrt 510510 squared", 510510, after.multiply(after));
+        assertClose("sqrt 510510", before.crValue(), after);
+    }
+
+    private static UnifiedReal degrees(long n) {
+        return new UnifiedReal(n).multiply(UnifiedReal.RADIANS_PER_DEGREE);
+    }
+
+    private static CR crDegrees(long n) {
+        return CR.PI.multiply(CR.valueOf(n)).divide(CR.valueOf(180));
+    }
+
+    @Test
+    public void sinesOfPiMultiplesMatchCR() {
+        for (int pass = 0; pass < 2; ++pass) {
+            for (long n : new long[] { 1, 7, 37, 53, 143, 200, 359, -17, 1000001 }) {
+                assertClose("sin " + n + " degrees", crDegrees(n).sin(), degrees(n).sin());
+                assertClose("cos " + n + " degrees", crDegrees(n).cos(), degrees(n).cos());
+            }
+            // The second pass starts with empty tables.
+            UnifiedReal.clearSharedCaches();
+        }
+        final UnifiedReal third = UnifiedReal.PI.multiply(
+                new UnifiedReal(new BoundedRational(1, 7)));
+        assertClose("sin pi/7", CR.PI.divide(CR.valueOf(7)).sin(), third.sin());
+    }
+
+    @Test
+    public void sinesOfPiMultiplesAreShared() {
+        // These reduce to the same sine of a multiple of pi in [0, pi/4].
+        final UnifiedReal sin37 = degrees(37).sin();
+        assertTrue(sin37.definitelyEquals(degrees(53).cos()));
+        assertTrue(sin37.definitelyEquals(degrees(143).sin()));
+        assertTrue(sin37.negate().definitelyEquals(degrees(-37).sin()));
+        assertTrue(degrees(143).cos().definitelyEquals(degrees(37).cos().negate()));
+    }
+
+    @Test
+    public void integerPowersAreExact() {
+        final UnifiedReal two = new UnifiedReal(2);
+        assertInteger("2^3000000 / 2^2999990", 1024,
+                two.pow(new UnifiedReal(3000000)).divide(two.pow(new UnifiedReal(2999990))));
+        assertInteger("sqrt 2 ^ 20", 1024, two.sqrt().pow(new UnifiedReal(20)));
+        assertEquals(BigInteger.valueOf(-2).pow(1001),
+                new UnifiedReal(-2).pow(new UnifiedReal(1001)).bigIntegerValue());
+        assertEquals(new BoundedRational(BigInteger.valueOf(2).pow(50),
+                        BigInteger.valueOf(3).pow(50)),
+                new UnifiedReal(new BoundedRational(2, 3)).pow(new UnifiedReal(50))
+                        .boundedRationalValue());
+    }
+
+    @Test
+    public void inexactPowersMatchCR() {
+        // Exponents too large for repeated multiplication use exp(n ln(x)), also for x < 0.
+        for (long n : new long[] { 1001, 2000, 2001 }) {
+            final CR magnitude = CR.PI.ln().multiply(CR.valueOf(n)).exp();
+            final CR expected = (n & 1) == 0 ? magnitude : magnitude.negate();
+            assertClose("(-pi)^" + n, expected,
+                    UnifiedReal.PI.negate().pow(new UnifiedReal(n)));
+        }
+    }
+
+    @Test
+    public void tangentsMatchCR() {
+        final BoundedRational[] args = { new BoundedRational(1), new BoundedRational(1000),
+                new BoundedRational(-7), new BoundedRational(355, 113),
+                new BoundedRational(BigInteger.TEN.pow(30)) };
+        for (BoundedRational r : args) {
+            final CR x = r.crValue();
+            assertClose("tan " + r, x.sin().divide(x.cos()), UnifiedReal.valueOf(r).tan());
+        }
+    }
+}
@@ -19,3 +19,5 @@ dependencyResolutionManagement {
     }
 }
 rootProject.name = "ExactCalculator"
+include(":core")
+include(":benchmark")
@@ -413,6 +413,14 @@ public class Calculator extends AppCompatActivity
                         : View.IMPORTANT_FOR_ACCESSIBILITY_AUTO);
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (mEvaluator != null) {
+            mEvaluator.onTrimMemory(level);
+        }
+    }
+
     @Override
     protected void onSaveInstanceState(@NonNull Bundle outState) {
         mEvaluator.cancelAll(true);
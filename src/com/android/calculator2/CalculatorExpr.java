@@ -29,16 +29,16 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.util.ArrayList;
-import java.util.Collections;
 
 /**
  * A mathematical expression represented as a sequence of "tokens".
  * Many tokens are represented by button ids for the corresponding operator.
  * A token may also represent the result of a previously evaluated expression.
  * The add() method adds a token to the end of the expression.  The delete method() removes one.
- * Clear() deletes the entire expression contents. Eval() evaluates the expression,
- * producing a UnifiedReal result.
- * Expressions are parsed only during evaluation; no explicit parse tree is maintained.
+ * Clear() deletes the entire expression contents.
+ * Expressions are evaluated by compiling them into an ExprProgram, which Evaluator executes
+ * through an EvaluationEngine.  The compiled form is cached, and discarded when the expression
+ * is modified.
  *
  * The write() method is used to save the current expression.  Note that neither UnifiedReal
  * nor the underlying CR provide a serialization facility.  Thus we save all previously
@@ -46,33 +46,6 @@ import java.util.Collections;
  * when reading it back in.
  */
 class CalculatorExpr {
-    /**
-     * An interface for resolving expression indices in embedded subexpressions to
-     * the associated CalculatorExpr, and associating a UnifiedReal result with it.
-     * All methods are thread-safe in the strong sense; they may be called asynchronously
-     * at any time from any thread.
-     */
-    public interface ExprResolver {
-        /*
-         * Retrieve the expression corresponding to index.
-         */
-        CalculatorExpr getExpr(long index);
-        /*
-         * Retrieve the degree mode associated with the expression at index i.
-         */
-        boolean getDegreeMode(long index);
-        /*
-         * Retrieve the stored result for the expression at index, or return null.
-         */
-        UnifiedReal getResult(long index);
-        /*
-         * Atomically test for an existing result, and set it if there was none.
-         * Return the prior result if there was one, or the new one if there was not.
-         * May only be called after getExpr.
-         */
-        UnifiedReal putResultIfAbsent(long index, UnifiedReal result);
-    }
-
     private ArrayList<Token> mExpr;  // The actual representation
                                      // as a list of tokens.  Constant
                                      // tokens are always nonempty.
@@ -263,6 +236,23 @@ class CalculatorExpr {
             return KeyMaps.translateResult(result);
         }
 
+        // Decimal digit strings of at most this length fit in a long.
+        private static final int MAX_LONG_DIGITS = 18;
+
+        /**
+         * Return 10^n, throwing ArithmeticException if it doesn't fit in a long.
+         */
+        private static long longPow10(int n) {
+            if (n < 0 || n > MAX_LONG_DIGITS) {
+                throw new ArithmeticException("Overflow");
+            }
+            long result = 1;
+            for (int i = 0; i < n; ++i) {
+                result *= 10;
+            }
+            return result;
+        }
+
         /**
          * Return BoundedRational representation of constant, if well-formed.
          * Result is never null.
@@ -277,7 +267,24 @@ class CalculatorExpr {
                     whole = "0";
                 }
             }
-            BigInteger num = new BigInteger(whole + mFraction);
+            final String digits = whole + mFraction;
+            if (digits.length() <= MAX_LONG_DIGITS) {
+                // Usual case. Avoid BigInteger arithmetic, and share common values.
+                try {
+                    long num = Long.parseLong(digits);
+                    long den = longPow10(mFraction.length());
+                    if (mExponent > 0) {
+                        num = Math.multiplyExact(num, longPow10(mExponent));
+                    }
+                    if (mExponent < 0) {
+                        den = Math.multiplyExact(den, longPow10(-mExponent));
+                    }
+                    return BoundedRational.valueOf(num, den);
+                } catch (ArithmeticException e) {
+                    // Overflow. Fall through.
+                }
+            }
+            BigInteger num = new BigInteger(digits);
             BigInteger den = BigInteger.TEN.pow(mFraction.length());
             if (mExponent > 0) {
                 num = num.multiply(BigInteger.TEN.pow(mExponent));
@@ -316,9 +323,9 @@ class CalculatorExpr {
      * continue an expression after evaluating some of it, or copy an expression and paste it back
      * in.
      * This only contains enough information to allow us to display the expression in a
-     * formula, or reevaluate the expression with the aid of an ExprResolver; we no longer
+     * formula, or reevaluate the expression with the aid of an EvaluationEngine; we no longer
      * cache the result. The expression corresponding to the index can be obtained through
-     * the ExprResolver, which looks it up in a subexpression database.
+     * the engine's Source, which looks it up in a subexpression database.
      * The representation includes a UnifiedReal value.  In order to
      * support saving and restoring, we also include the underlying expression itself, and the
      * context (currently just degree mode) used to evaluate it.  The short string representation
@@ -467,6 +474,7 @@ class CalculatorExpr {
      * operator.
      */
     boolean add(int id) {
+        invalidateProgram();
         int s = mExpr.size();
         final int d = KeyMaps.digVal(id);
         final boolean binary = KeyMaps.isBinary(id);
@@ -514,6 +522,7 @@ class CalculatorExpr {
      * Assumes there is a constant at the end of the expression.
      */
     void addExponent(int exp) {
+        invalidateProgram();
         Token lastTok = mExpr.get(mExpr.size() - 1);
         ((Constant) lastTok).addExponent(exp);
     }
@@ -545,6 +554,7 @@ class CalculatorExpr {
      * reused directly.
      */
     public void append(CalculatorExpr expr2) {
+        invalidateProgram();
         int s = mExpr.size();
         int s2 = expr2.mExpr.size();
         // Check that we're not concatenating Constant or PreEval tokens, since the result would
@@ -572,6 +582,7 @@ class CalculatorExpr {
         if (s == 0) {
             return;
         }
+        invalidateProgram();
         Token last = mExpr.get(s-1);
         if (last instanceof Constant) {
             Constant c = (Constant)last;
@@ -587,6 +598,7 @@ class CalculatorExpr {
      * Remove all tokens from the expression.
      */
     public void clear() {
+        invalidateProgram();
         mExpr.clear();
     }
 
@@ -632,334 +644,68 @@ class CalculatorExpr {
         return result;
     }
 
-    /**
-     * Internal evaluation functions return an EvalRet pair.
-     * We compute rational (BoundedRational) results when possible, both as a performance
-     * optimization, and to detect errors exactly when we can.
-     */
-    private static class EvalRet {
-        public int pos; // Next position (expression index) to be parsed.
-        public final UnifiedReal val; // Constructive Real result of evaluating subexpression.
-        EvalRet(int p, UnifiedReal v) {
-            pos = p;
-            val = v;
-        }
+    // Compiled form of mExpr, or null if not yet compiled.  Reset whenever mExpr changes.
+    private volatile ExprProgram mProgram;
+
+    private void invalidateProgram() {
+        mProgram = null;
     }
 
     /**
-     * Internal evaluation functions take an EvalContext argument.
+     * Presents mExpr to the compiler, which identifies operators by their single byte encoding.
      */
-    private static class EvalContext {
-        public final int mPrefixLength; // Length of prefix to evaluate. Not explicitly saved.
-        public final boolean mDegreeMode;
-        public final ExprResolver mExprResolver;  // Reconstructed, not saved.
-        // If we add any other kinds of evaluation modes, they go here.
-        EvalContext(boolean degreeMode, int len, ExprResolver er) {
-            mDegreeMode = degreeMode;
-            mPrefixLength = len;
-            mExprResolver = er;
-        }
-        EvalContext(DataInput in, int len, ExprResolver er) throws IOException {
-            mDegreeMode = in.readBoolean();
-            mPrefixLength = len;
-            mExprResolver = er;
-        }
-        void write(DataOutput out) throws IOException {
-            out.writeBoolean(mDegreeMode);
-        }
-    }
-
-    private UnifiedReal toRadians(UnifiedReal x, EvalContext ec) {
-        if (ec.mDegreeMode) {
-            return x.multiply(UnifiedReal.RADIANS_PER_DEGREE);
-        } else {
-            return x;
-        }
-    }
-
-    private UnifiedReal fromRadians(UnifiedReal x, EvalContext ec) {
-        if (ec.mDegreeMode) {
-            return x.divide(UnifiedReal.RADIANS_PER_DEGREE);
-        } else {
-            return x;
-        }
-    }
-
-    // The following methods can all throw IndexOutOfBoundsException in the event of a syntax
-    // error.  We expect that to be caught in eval below.
-
-    private boolean isOperatorUnchecked(int i, int op) {
-        Token t = mExpr.get(i);
-        if (!(t instanceof Operator)) {
-            return false;
-        }
-        return ((Operator)(t)).id == op;
-    }
-
-    private boolean isOperator(int i, int op, EvalContext ec) {
-        if (i >= ec.mPrefixLength) {
-            return false;
-        }
-        return isOperatorUnchecked(i, op);
-    }
-
-    public static class SyntaxException extends Exception {
-        public SyntaxException() {
-            super();
-        }
-        public SyntaxException(String s) {
-            super(s);
+    private final class Tokens implements ExprProgram.TokenSource {
+        @Override
+        public int size() {
+            return mExpr.size();
         }
-    }
 
-    // The following functions all evaluate some kind of expression starting at position i in
-    // mExpr in a specified evaluation context.  They return both the expression value (as
-    // constructive real and, if applicable, as BoundedRational) and the position of the next token
-    // that was not used as part of the evaluation.
-    // This is essentially a simple recursive descent parser combined with expression evaluation.
-
-    private EvalRet evalUnary(int i, EvalContext ec) throws SyntaxException {
-        final Token t = mExpr.get(i);
-        if (t instanceof Constant) {
-            Constant c = (Constant)t;
-            return new EvalRet(i+1,new UnifiedReal(c.toRational()));
-        }
-        if (t instanceof PreEval) {
-            final long index = ((PreEval)t).mIndex;
-            UnifiedReal res = ec.mExprResolver.getResult(index);
-            if (res == null) {
-                // We try to minimize this recursive evaluation case, but currently don't
-                // completely avoid it.
-                res = nestedEval(index, ec.mExprResolver);
-            }
-            return new EvalRet(i+1, res);
-        }
-        EvalRet argVal;
-        if (((Operator) (t)).id == R.id.const_pi) {
-            return new EvalRet(i + 1, UnifiedReal.PI);
-        } else if (((Operator) (t)).id == R.id.const_e) {
-            return new EvalRet(i + 1, UnifiedReal.E);
-        } else if (((Operator) (t)).id == R.id.op_sqrt) {// Seems to have highest precedence.
-            // Does not add implicit paren.
-            // Does seem to accept a leading minus.
-            if (isOperator(i + 1, R.id.op_sub, ec)) {
-                argVal = evalUnary(i + 2, ec);
-                return new EvalRet(argVal.pos, argVal.val.negate().sqrt());
-            } else {
-                argVal = evalUnary(i + 1, ec);
-                return new EvalRet(argVal.pos, argVal.val.sqrt());
-            }
-        } else if (((Operator) (t)).id == R.id.lparen) {
-            argVal = evalExpr(i + 1, ec);
-            if (isOperator(argVal.pos, R.id.rparen, ec)) {
-                argVal.pos++;
-            }
-            return new EvalRet(argVal.pos, argVal.val);
-        } else if (((Operator) (t)).id == R.id.fun_sin) {
-            argVal = evalExpr(i + 1, ec);
-            if (isOperator(argVal.pos, R.id.rparen, ec)) {
-                argVal.pos++;
-            }
-            return new EvalRet(argVal.pos, toRadians(argVal.val, ec).sin());
-        } else if (((Operator) (t)).id == R.id.fun_cos) {
-            argVal = evalExpr(i + 1, ec);
-            if (isOperator(argVal.pos, R.id.rparen, ec)) {
-                argVal.pos++;
-            }
-            return new EvalRet(argVal.pos, toRadians(argVal.val, ec).cos());
-        } else if (((Operator) (t)).id == R.id.fun_tan) {
-            argVal = evalExpr(i + 1, ec);
-            if (isOperator(argVal.pos, R.id.rparen, ec)) {
-                argVal.pos++;
-            }
-            UnifiedReal arg = toRadians(argVal.val, ec);
-            return new EvalRet(argVal.pos, arg.sin().divide(arg.cos()));
-        } else if (((Operator) (t)).id == R.id.fun_ln) {
-            argVal = evalExpr(i + 1, ec);
-            if (isOperator(argVal.pos, R.id.rparen, ec)) {
-                argVal.pos++;
-            }
-            return new EvalRet(argVal.pos, argVal.val.ln());
-        } else if (((Operator) (t)).id == R.id.fun_exp) {
-            argVal = evalExpr(i + 1, ec);
-            if (isOperator(argVal.pos, R.id.rparen, ec)) {
-                argVal.pos++;
-            }
-            return new EvalRet(argVal.pos, argVal.val.exp());
-        } else if (((Operator) (t)).id == R.id.fun_log) {
-            argVal = evalExpr(i + 1, ec);
-            if (isOperator(argVal.pos, R.id.rparen, ec)) {
-                argVal.pos++;
-            }
-            return new EvalRet(argVal.pos, argVal.val.ln().divide(UnifiedReal.TEN.ln()));
-        } else if (((Operator) (t)).id == R.id.fun_arcsin) {
-            argVal = evalExpr(i + 1, ec);
-            if (isOperator(argVal.pos, R.id.rparen, ec)) {
-                argVal.pos++;
-            }
-            return new EvalRet(argVal.pos, fromRadians(argVal.val.asin(), ec));
-        } else if (((Operator) (t)).id == R.id.fun_arccos) {
-            argVal = evalExpr(i + 1, ec);
-            if (isOperator(argVal.pos, R.id.rparen, ec)) {
-                argVal.pos++;
-            }
-            return new EvalRet(argVal.pos, fromRadians(argVal.val.acos(), ec));
-        } else if (((Operator) (t)).id == R.id.fun_arctan) {
-            argVal = evalExpr(i + 1, ec);
-            if (isOperator(argVal.pos, R.id.rparen, ec)) {
-                argVal.pos++;
+        @Override
+        public int tokenId(int i) {
+            final Token t = mExpr.get(i);
+            if (t instanceof Constant) {
+                return ExprProgram.TOKEN_CONSTANT;
             }
-            return new EvalRet(argVal.pos, fromRadians(argVal.val.atan(), ec));
-        }
-        throw new SyntaxException("Unrecognized token in expression");
-    }
-
-    private static final UnifiedReal ONE_HUNDREDTH = new UnifiedReal(100).inverse();
-
-    private EvalRet evalSuffix(int i, EvalContext ec) throws SyntaxException {
-        final EvalRet tmp = evalUnary(i, ec);
-        int cpos = tmp.pos;
-        UnifiedReal val = tmp.val;
-
-        boolean isFact;
-        boolean isSquared = false;
-        while ((isFact = isOperator(cpos, R.id.op_fact, ec)) ||
-                (isSquared = isOperator(cpos, R.id.op_sqr, ec)) ||
-                isOperator(cpos, R.id.op_pct, ec)) {
-            if (isFact) {
-                val = val.fact();
-            } else if (isSquared) {
-                val = val.multiply(val);
-            } else /* percent */ {
-                val = val.multiply(ONE_HUNDREDTH);
+            if (t instanceof PreEval) {
+                return ExprProgram.TOKEN_PRE_EVAL;
             }
-            ++cpos;
+            return KeyMaps.toByte(((Operator) t).id);
         }
-        return new EvalRet(cpos, val);
-    }
 
-    private EvalRet evalFactor(int i, EvalContext ec) throws SyntaxException {
-        final EvalRet result1 = evalSuffix(i, ec);
-        int cpos = result1.pos;  // current position
-        UnifiedReal val = result1.val;   // value so far
-        if (isOperator(cpos, R.id.op_pow, ec)) {
-            final EvalRet exp = evalSignedFactor(cpos + 1, ec);
-            cpos = exp.pos;
-            val = val.pow(exp.val);
+        @Override
+        public BoundedRational constantValue(int i) throws SyntaxException {
+            return ((Constant) mExpr.get(i)).toRational();
         }
-        return new EvalRet(cpos, val);
-    }
-
-    private EvalRet evalSignedFactor(int i, EvalContext ec) throws SyntaxException {
-        final boolean negative = isOperator(i, R.id.op_sub, ec);
-        int cpos = negative ? i + 1 : i;
-        EvalRet tmp = evalFactor(cpos, ec);
-        cpos = tmp.pos;
-        final UnifiedReal result = negative ? tmp.val.negate() : tmp.val;
-        return new EvalRet(cpos, result);
-    }
 
-    private boolean canStartFactor(int i) {
-        if (i >= mExpr.size()) return false;
-        Token t = mExpr.get(i);
-        if (!(t instanceof Operator)) return true;
-        int id = ((Operator)(t)).id;
-        if (KeyMaps.isBinary(id)) return false;
-        if (id == R.id.op_fact || id == R.id.rparen) {
-            return false;
-        }
-        return true;
-    }
-
-    private EvalRet evalTerm(int i, EvalContext ec) throws SyntaxException {
-        EvalRet tmp = evalSignedFactor(i, ec);
-        boolean is_mul = false;
-        boolean is_div = false;
-        int cpos = tmp.pos;   // Current position in expression.
-        UnifiedReal val = tmp.val;    // Current value.
-        while ((is_mul = isOperator(cpos, R.id.op_mul, ec))
-               || (is_div = isOperator(cpos, R.id.op_div, ec))
-               || canStartFactor(cpos)) {
-            if (is_mul || is_div) ++cpos;
-            tmp = evalSignedFactor(cpos, ec);
-            if (is_div) {
-                val = val.divide(tmp.val);
-            } else {
-                val = val.multiply(tmp.val);
-            }
-            cpos = tmp.pos;
-            is_mul = is_div = false;
+        @Override
+        public long preEvalIndex(int i) {
+            return ((PreEval) mExpr.get(i)).mIndex;
         }
-        return new EvalRet(cpos, val);
     }
 
     /**
-     * Is the subexpression starting at pos a simple percent constant?
-     * This is used to recognize exppressions like 200+10%, which we handle specially.
-     * This is defined as a Constant or PreEval token, followed by a percent sign, and followed
-     * by either nothing or an additive operator.
-     * Note that we are intentionally far more restrictive in recognizing such expressions than
-     * e.g. http://blogs.msdn.com/b/oldnewthing/archive/2008/01/10/7047497.aspx .
-     * When in doubt, we fall back to the the naive interpretation of % as 1/100.
-     * Note that 100+(10)% yields 100.1 while 100+10% yields 110.  This may be controversial,
-     * but is consistent with Google web search.
+     * Return the compiled form of this expression, excluding trailing binary operators.
+     * Should not be called concurrently with modification of the expression.
      */
-    private boolean isPercent(int pos) {
-        if (mExpr.size() < pos + 2 || !isOperatorUnchecked(pos + 1, R.id.op_pct)) {
-            return false;
-        }
-        Token number = mExpr.get(pos);
-        if (number instanceof Operator) {
-            return false;
-        }
-        if (mExpr.size() == pos + 2) {
-            return true;
+    ExprProgram getProgram() {
+        ExprProgram result = mProgram;
+        if (result == null) {
+            // Concurrent calls may compile redundantly, but will produce equivalent programs.
+            result = ExprProgram.compile(new Tokens(), trailingBinaryOpsStart());
+            mProgram = result;
         }
-        if (!(mExpr.get(pos + 2) instanceof Operator)) {
-            return false;
-        }
-        Operator op = (Operator) mExpr.get(pos + 2);
-        return op.id == R.id.op_add || op.id == R.id.op_sub || op.id == R.id.rparen;
-    }
-
-    /**
-     * Compute the multiplicative factor corresponding to an N% addition or subtraction.
-     * @param pos position of Constant or PreEval expression token corresponding to N.
-     * @param isSubtraction this is a subtraction, as opposed to addition.
-     * @param ec usable evaluation contex; only length matters.
-     * @return UnifiedReal value and position, which is pos + 2, i.e. after percent sign
-     */
-    private EvalRet getPercentFactor(int pos, boolean isSubtraction, EvalContext ec)
-            throws SyntaxException {
-        EvalRet tmp = evalUnary(pos, ec);
-        UnifiedReal val = isSubtraction ? tmp.val.negate() : tmp.val;
-        val = UnifiedReal.ONE.add(val.multiply(ONE_HUNDREDTH));
-        return new EvalRet(pos + 2 /* after percent sign */, val);
+        return result;
     }
 
-    private EvalRet evalExpr(int i, EvalContext ec) throws SyntaxException {
-        EvalRet tmp = evalTerm(i, ec);
-        boolean is_plus;
-        int cpos = tmp.pos;
-        UnifiedReal val = tmp.val;
-        while ((is_plus = isOperator(cpos, R.id.op_add, ec))
-               || isOperator(cpos, R.id.op_sub, ec)) {
-            if (isPercent(cpos + 1)) {
-                tmp = getPercentFactor(cpos + 1, !is_plus, ec);
-                val = val.multiply(tmp.val);
-            } else {
-                tmp = evalTerm(cpos + 1, ec);
-                if (is_plus) {
-                    val = val.add(tmp.val);
-                } else {
-                    val = val.subtract(tmp.val);
-                }
-            }
-            cpos = tmp.pos;
+    private boolean isOperatorUnchecked(int i, int op) {
+        Token t = mExpr.get(i);
+        if (!(t instanceof Operator)) {
+            return false;
         }
-        return new EvalRet(cpos, val);
+        return ((Operator)(t)).id == op;
     }
 
+
     /**
      * Return the starting position of the sequence of trailing binary operators.
      */
@@ -1010,96 +756,6 @@ class CalculatorExpr {
         return false;
     }
 
-    /**
-     * Add the indices of unevaluated PreEval expressions embedded in the current expression to
-     * argument.  This includes only directly referenced expressions e, not those indirectly
-     * referenced by e. If the index was already present, it is not added. If the argument
-     * contained no duplicates, the result will not either. New indices are added to the end of
-     * the list.
-     */
-    private void addReferencedExprs(ArrayList<Long> list, ExprResolver er) {
-        for (Token t : mExpr) {
-            if (t instanceof PreEval) {
-                Long index = ((PreEval) t).mIndex;
-                if (er.getResult(index) == null && !list.contains(index)) {
-                    list.add(index);
-                }
-            }
-        }
-    }
-
-    /**
-     * Return a list of unevaluated expressions transitively referenced by the current one.
-     * All expressions in the resulting list will have had er.getExpr() called on them.
-     * The resulting list is ordered such that evaluating expressions in list order
-     * should trigger few recursive evaluations.
-     */
-    public ArrayList<Long> getTransitivelyReferencedExprs(ExprResolver er) {
-        // We could avoid triggering any recursive evaluations by actually building the
-        // dependency graph and topologically sorting it. Note that sorting by index works
-        // for positive and negative indices separately, but not their union. Currently we
-        // just settle for reverse breadth-first-search order, which handles the common case
-        // of simple dependency chains well.
-        ArrayList<Long> list = new ArrayList<Long>();
-        int scanned = 0;  // We've added expressions referenced by [0, scanned) to the list
-        addReferencedExprs(list, er);
-        while (scanned != list.size()) {
-            er.getExpr(list.get(scanned++)).addReferencedExprs(list, er);
-        }
-        Collections.reverse(list);
-        return list;
-    }
-
-    /**
-     * Evaluate the expression at the given index to a UnifiedReal.
-     * Both saves and returns the result.
-     */
-    UnifiedReal nestedEval(long index, ExprResolver er) throws SyntaxException {
-        CalculatorExpr nestedExpr = er.getExpr(index);
-        EvalContext newEc = new EvalContext(er.getDegreeMode(index),
-                nestedExpr.trailingBinaryOpsStart(), er);
-        EvalRet new_res = nestedExpr.evalExpr(0, newEc);
-        return er.putResultIfAbsent(index, new_res.val);
-    }
-
-    /**
-     * Evaluate the expression excluding trailing binary operators.
-     * Errors result in exceptions, most of which are unchecked.  Should not be called
-     * concurrently with modification of the expression.  May take a very long time; avoid calling
-     * from UI thread.
-     *
-     * @param degreeMode use degrees rather than radians
-     */
-    UnifiedReal eval(boolean degreeMode, ExprResolver er) throws SyntaxException
-                        // And unchecked exceptions thrown by UnifiedReal, CR,
-                        // and BoundedRational.
-    {
-        // First evaluate all indirectly referenced expressions in increasing index order.
-        // This ensures that subsequent evaluation never encounters an embedded PreEval
-        // expression that has not been previously evaluated.
-        // We could do the embedded evaluations recursively, but that risks running out of
-        // stack space.
-        ArrayList<Long> referenced = getTransitivelyReferencedExprs(er);
-        for (long index : referenced) {
-            nestedEval(index, er);
-        }
-        try {
-            // We currently never include trailing binary operators, but include other trailing
-            // operators.  Thus we usually, but not always, display results for prefixes of valid
-            // expressions, and don't generate an error where we previously displayed an instant
-            // result.  This reflects the Android L design.
-            int prefixLen = trailingBinaryOpsStart();
-            EvalContext ec = new EvalContext(degreeMode, prefixLen, er);
-            EvalRet res = evalExpr(0, ec);
-            if (res.pos != prefixLen) {
-                throw new SyntaxException("Failed to parse full expression");
-            }
-            return res.val;
-        } catch (IndexOutOfBoundsException e) {
-            throw new SyntaxException("Unexpected expression end");
-        }
-    }
-
     // Produce a string representation of the expression itself
     SpannableStringBuilder toSpannableStringBuilder(Context context) {
         SpannableStringBuilder ssb = new SpannableStringBuilder();
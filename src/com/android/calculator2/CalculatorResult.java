@@ -373,7 +373,7 @@ public class CalculatorResult extends AlignedTextView implements MenuItem.OnMenu
 
     // From Evaluator.CharMetricsInfo.
     @Override
-    public float separatorChars(String s, int len) {
+    public float separatorChars(CharSequence s, int len) {
         int start = 0;
         while (start < len && !Character.isDigit(s.charAt(start))) {
             ++start;
@@ -859,7 +859,16 @@ public class CalculatorResult extends AlignedTextView implements MenuItem.OnMenu
         }
         // It's reasonable to compute and copy the exact result instead.
         int fractionLsdOffset = Math.max(0, mLsdOffset);
-        String rawResult = mEvaluator.getResult(mIndex).toStringTruncated(fractionLsdOffset);
+        final CharSequence cachedResult =
+                mEvaluator.getCachedTruncatedResult(mIndex, fractionLsdOffset);
+        final UnifiedReal value = mEvaluator.getResult(mIndex);
+        if (cachedResult == null && value == null) {
+            // Only the digits read back from the database are available. Don't block on
+            // reevaluating the expression.
+            return getFullText(false /* withSeparators */);
+        }
+        String rawResult = cachedResult != null ? cachedResult.toString()
+                : value.toStringTruncated(fractionLsdOffset);
         if (mLsdOffset <= -1) {
             // Result has trailing decimal point. Remove it.
             rawResult = rawResult.substring(0, rawResult.length() - 1);
@@ -0,0 +1,264 @@
+/*
+ * SPDX-FileCopyrightText: 2026 The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.calculator2;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs expression evaluations on a small pool of background threads, in priority order.
+ *
+ * This replaces the use of one AsyncTask per evaluation on the shared serial executor, which
+ * could leave the main display waiting behind arbitrarily many history reevaluations.
+ * Pending tasks are ordered by {@link Priority}, and then by submission order. One worker is
+ * reserved for main expression evaluations, so that instant results never wait for history
+ * evaluations to complete, even if all other workers are busy.
+ *
+ * Tasks follow the AsyncTask protocol closely: doInBackground() runs on a worker thread, and
+ * onPostExecute() or onCancelled() is later invoked on the UI thread. Cancellation is recorded
+ * in a per-task token that is checked before results are delivered. Since the CR library only
+ * notices aborts through the interrupt status of the computing thread, a cancelled task's
+ * worker is also interrupted, but only while it is still running that task. The interrupt
+ * status is always cleared before a worker picks up its next task, so that a cancellation never
+ * leaks into an unrelated evaluation.
+ */
+class EvaluationScheduler {
+
+    /**
+     * Evaluation priority classes, from most to least urgent.
+     */
+    enum Priority {
+        MAIN_REQUIRED,      // Main expression, result explicitly requested or being scrolled.
+        MAIN_SPECULATIVE,   // Main expression, instant result.
+        HISTORY_MAIN,       // Copy of the main expression displayed in the history.
+        VISIBLE_HISTORY,    // History entry currently attached to the window.
+        OFFSCREEN_HISTORY;  // Anything else, e.g. memory or prefetched history entries.
+
+        boolean isMain() {
+            return this == MAIN_REQUIRED || this == MAIN_SPECULATIVE;
+        }
+    }
+
+    enum Status { PENDING, RUNNING, FINISHED }
+
+    /**
+     * A unit of background work, with AsyncTask-like callbacks.
+     * All methods other than doInBackground() and isCancelled() should only be invoked from the
+     * UI thread.
+     */
+    abstract static class Task<Result> implements Comparable<Task<?>> {
+        // The cancellation token. Once set, results are no longer delivered to onPostExecute().
+        private final AtomicBoolean mCancelled = new AtomicBoolean();
+        // Worker thread currently running doInBackground(), if any.  Guarded by this.
+        private Thread mRunner;
+        private volatile Status mStatus = Status.PENDING;
+        // Ordering information. Only modified while the task is not queued.
+        private Priority mPriority;
+        private long mSequence;
+        // The scheduler we were submitted to, if any.
+        private EvaluationScheduler mScheduler;
+
+        protected void onPreExecute() {}
+        protected abstract Result doInBackground();
+        protected void onPostExecute(Result result) {}
+        protected void onCancelled(Result result) {}
+
+        public final Status getStatus() {
+            return mStatus;
+        }
+
+        public final Priority getPriority() {
+            return mPriority;
+        }
+
+        /**
+         * Has cancel() been called?  Callable from any thread.
+         */
+        public final boolean isCancelled() {
+            return mCancelled.get();
+        }
+
+        /**
+         * Request cancellation. onCancelled() will be called instead of onPostExecute().
+         * @return false if the task had already completed or was already cancelled
+         */
+        public final boolean cancel() {
+            if (mStatus == Status.FINISHED || !mCancelled.compareAndSet(false, true)) {
+                return false;
+            }
+            if (mScheduler != null && mScheduler.dequeue(this)) {
+                // Never started. Report cancellation without running anything.
+                mScheduler.deliver(this, null);
+                return true;
+            }
+            synchronized (this) {
+                if (mRunner != null) {
+                    mRunner.interrupt();
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Run doInBackground() on the current worker thread and post the result.
+         */
+        private void run() {
+            synchronized (this) {
+                if (isCancelled()) {
+                    // Cancelled after we were dequeued, but before we started.
+                    mScheduler.deliver(this, null);
+                    return;
+                }
+                mRunner = Thread.currentThread();
+                mStatus = Status.RUNNING;
+            }
+            Result result = null;
+            try {
+                result = doInBackground();
+            } finally {
+                synchronized (this) {
+                    mRunner = null;
+                    // Clear any interrupt we may have delivered, so that it does not affect
+                    // the next task on this thread.
+                    Thread.interrupted();
+                }
+                mScheduler.deliver(this, result);
+            }
+        }
+
+        private void finish(Result result) {
+            if (isCancelled()) {
+                onCancelled(result);
+            } else {
+                onPostExecute(result);
+            }
+            mStatus = Status.FINISHED;
+        }
+
+        @Override
+        public int compareTo(Task<?> other) {
+            final int result = mPriority.compareTo(other.mPriority);
+            if (result != 0) {
+                return result;
+            }
+            return Long.compare(mSequence, other.mSequence);
+        }
+    }
+
+    // Worker 0 only runs main expression evaluations.
+    private static final int MIN_WORKERS = 2;
+    private static final int MAX_WORKERS = 4;
+
+    private final Handler mUiHandler = new Handler(Looper.getMainLooper());
+    private final PriorityQueue<Task<?>> mQueue = new PriorityQueue<Task<?>>();  // Guarded by this.
+    private final Thread[] mWorkers;
+    private long mNextSequence;  // Guarded by this.
+    private boolean mShutDown;  // Guarded by this.
+
+    EvaluationScheduler() {
+        final int cores = Runtime.getRuntime().availableProcessors();
+        final int nWorkers = Math.max(MIN_WORKERS, Math.min(cores - 1, MAX_WORKERS));
+        mWorkers = new Thread[nWorkers];
+        for (int i = 0; i < nWorkers; ++i) {
+            final boolean reserved = (i == 0);
+            mWorkers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    workerLoop(reserved);
+                }
+            }, "Evaluator #" + i);
+            mWorkers[i].setDaemon(true);
+            mWorkers[i].start();
+        }
+    }
+
+    /**
+     * Start the given task with the given priority.  UI thread only.
+     * Each task may only be executed once.
+     */
+    void execute(Task<?> task, Priority priority) {
+        if (task.mScheduler != null) {
+            throw new IllegalStateException("Task already executed");
+        }
+        task.mScheduler = this;
+        task.mPriority = priority;
+        task.onPreExecute();
+        synchronized (this) {
+            task.mSequence = mNextSequence++;
+            mQueue.add(task);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Change the priority of a task that has not started yet.
+     * Has no effect on running or completed tasks.
+     */
+    synchronized void setPriority(Task<?> task, Priority priority) {
+        if (task.mPriority != priority && mQueue.remove(task)) {
+            task.mPriority = priority;
+            mQueue.add(task);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Stop all workers once they finish their current task. Pending tasks are dropped.
+     */
+    synchronized void shutdown() {
+        mShutDown = true;
+        mQueue.clear();
+        notifyAll();
+    }
+
+    private synchronized boolean dequeue(Task<?> task) {
+        return mQueue.remove(task);
+    }
+
+    private <Result> void deliver(final Task<Result> task, final Result result) {
+        mUiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                task.finish(result);
+            }
+        });
+    }
+
+    private synchronized Task<?> take(boolean reserved) throws InterruptedException {
+        while (true) {
+            if (mShutDown) {
+                return null;
+            }
+            final Task<?> head = mQueue.peek();
+            if (head != null && (!reserved || head.mPriority.isMain())) {
+                return mQueue.poll();
+            }
+            wait();
+        }
+    }
+
+    private void workerLoop(boolean reserved) {
+        Process.setThreadPriority(reserved ? Process.THREAD_PRIORITY_DEFAULT
+                : Process.THREAD_PRIORITY_BACKGROUND);
+        while (true) {
+            final Task<?> task;
+            try {
+                task = take(reserved);
+            } catch (InterruptedException e) {
+                // Stray interrupt from a task we already finished. Keep going.
+                continue;
+            }
+            if (task == null) {
+                return;
+            }
+            task.run();
+        }
+    }
+}
@@ -16,11 +16,13 @@
 
 package com.android.calculator2;
 
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Handler;
+import android.os.Process;
 import android.preference.PreferenceManager;
 import androidx.annotation.NonNull;
 import androidx.annotation.StringRes;
@@ -34,14 +36,20 @@ import java.io.ByteArrayInputStream;
 import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.DataOutput;
+import java.io.File;
 import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Random;
 import java.util.TimeZone;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This implements the calculator evaluation logic.
@@ -63,21 +71,21 @@ import java.util.concurrent.atomic.AtomicReference;
  * CalculatorExprs are exposed to the client, and may be directly accessed after cancelling any
  * in-progress computations by invoking the cancelAll() method.
  *
- * When evaluation is requested, we invoke the eval() method on the CalculatorExpr from a
- * background AsyncTask.  A subsequent getString() call for the same expression index returns
- * immediately, though it may return a result containing placeholder ' ' characters.  If we had to
- * return palceholder characters, we start a background task, which invokes the onReevaluate()
- * callback when it completes.  In either case, the background task computes the appropriate
- * result digits by evaluating the UnifiedReal returned by CalculatorExpr.eval() to the required
- * precision.
+ * When evaluation is requested, we evaluate the compiled CalculatorExpr with an EvaluationEngine,
+ * which also holds the results, from a background task run by an EvaluationScheduler.  A subsequent
+ * getString() call for the same expression index returns immediately, though it may return a result
+ * containing placeholder ' ' characters.  If we had to return palceholder characters, we start a
+ * background task, which invokes the onReevaluate() callback when it completes.  In either case,
+ * the background task computes the appropriate result digits by evaluating the UnifiedReal returned
+ * by the EvaluationEngine to the required precision.
  *
- * We cache the best decimal approximation we have already computed.  We compute generously to
- * allow for some scrolling without recomputation and to minimize the chance of digits flipping
- * from "0000" to "9999".  The best known result approximation is maintained as a string by
- * mResultString (and often in a different format by the CR representation of the result).  When
- * we are in danger of not having digits to display in response to further scrolling, we also
- * initiate a background computation to higher precision, as if we had generated placeholder
- * characters.
+ * We cache the best decimal approximation we have already computed.  We compute generously to allow
+ * for some scrolling without recomputation and to minimize the chance of digits flipping from
+ * "0000" to "9999".  The best known result approximation is maintained as a compact DigitString by
+ * mResultString (and often in a different format by the CR representation of the result).
+ * Reevaluation to higher precision appends to it where possible.  When we are in danger of not
+ * having digits to display in response to further scrolling, we also initiate a background
+ * computation to higher precision, as if we had generated placeholder characters.
  *
  * The code is designed to ensure that the error in the displayed result (excluding any
  * placeholder characters) is always strictly less than 1 in the last displayed digit.  Typically
@@ -93,9 +101,11 @@ import java.util.concurrent.atomic.AtomicReference;
  * either kind of computation.
  *
  * We ensure that only one evaluation of either kind (AsyncEvaluator or AsyncReevaluator) is
- * running at a time.
+ * running at a time for each expression.  Evaluations of different expressions may run
+ * concurrently.  They are prioritized so that main expression evaluations run first, followed by
+ * history entries that are currently visible.
  */
-public class Evaluator implements CalculatorExpr.ExprResolver {
+public class Evaluator {
 
     private static Evaluator evaluator;
 
@@ -156,7 +166,7 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
          * represent a whole number. Callable from non-UI thread.
          * Returns zero if metrics information is not yet available.
          */
-        public float separatorChars(String s, int len);
+        public float separatorChars(CharSequence s, int len);
         /**
          * Return extra width credit for presence of a decimal point, as fraction of a digit width.
          * May be called by non-UI thread.
@@ -179,7 +189,7 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
             return SHORT_TARGET_LENGTH + 10;
         }
         @Override
-        public float separatorChars(String s, int len) {
+        public float separatorChars(CharSequence s, int len) {
             return 0;
         }
         @Override
@@ -222,6 +232,9 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
     private static final String KEY_PREF_MEMORY_INDEX = "memory_index";
     private static final String KEY_PREF_SAVED_NAME = "saved_name";
 
+    // Name of the file in the cache directory holding precomputed constants.
+    private static final String CONSTANT_CACHE_FILE = "constants.bin";
+
     // The minimum number of extra digits we always try to compute to improve the chance of
     // producing a correctly-rounded-towards-zero result.  The extra digits can be displayed to
     // avoid generating placeholder digits, but should only be displayed briefly while computing.
@@ -239,6 +252,15 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
     private static final int PRECOMPUTE_DIGITS = 30;
     private static final int PRECOMPUTE_DIVISOR = 5;
 
+    // Once we know how long a reevaluation of an expression took, we instead aim further ahead:
+    // up to twice the current precision, provided the predicted reevaluation time stays within
+    // about a frame, REEVAL_BUDGET_NANOS.  We predict that the time grows quadratically with
+    // precision, which overestimates the cost of larger evaluations.  Thus cheap results are
+    // extended geometrically, so that a steady scroll rarely waits for digits, while expensive
+    // ones fall back to the increments above.
+    private static final long REEVAL_BUDGET_NANOS = 16000000;
+    private static final int REEVAL_GROWTH_FACTOR = 2;
+
     // Initial evaluation precision.  Enough to guarantee that we can compute the short
     // representation, and that we rarely have to evaluate nonzero results to MAX_MSD_PREC_OFFSET.
     // It also helps if this is at least EXTRA_DIGITS + display width, so that we don't
@@ -275,7 +297,8 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
     public static final int INVALID_MSD = Integer.MAX_VALUE;
 
     // Used to represent an erroneous result or a required evaluation. Not displayed.
-    private static final String ERRONEOUS_RESULT = "ERR";
+    // Compared by identity; its contents are never examined.
+    private static final DigitString ERRONEOUS_RESULT = DigitString.valueOf("");
 
     /**
      * An individual CalculatorExpr, together with its evaluation state.
@@ -283,19 +306,29 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
      * periodically reset to be a fresh immutable copy of the main expression.
      * All other expressions are only added and never removed. The expressions themselves are
      * never modified.
-     * All fields other than mExpr and mVal are touched only by the UI thread.
-     * For MAIN_INDEX, mExpr and mVal may change, but are also only ever touched by the UI thread.
-     * For all other expressions, mExpr does not change once the ExprInfo has been (atomically)
-     * added to mExprs. mVal may be asynchronously set by any thread, but we take care that it
-     * does not change after that. mDegreeMode is handled exactly like mExpr.
-     */
-    private class ExprInfo {
+     * All fields other than mExpr and the result are touched only by the UI thread.
+     * For MAIN_INDEX, mExpr and the result may change, but are also only ever touched by the UI
+     * thread.  For all other expressions, mExpr does not change once the ExprInfo has been
+     * (atomically) added to mExprs. The result, which is held by the EvaluationEngine.Entry
+     * superclass, may be asynchronously set by any thread, but we take care that it does not
+     * change after that. mDegreeMode is handled exactly like mExpr.
+     */
+    private class ExprInfo extends EvaluationEngine.Entry {
         public CalculatorExpr mExpr;  // The expression itself.
         public boolean mDegreeMode;  // Evaluating in degree, not radian, mode.
         public ExprInfo(CalculatorExpr expr, boolean dm) {
             mExpr = expr;
             mDegreeMode = dm;
-            mVal = new AtomicReference<UnifiedReal>();
+        }
+
+        @Override
+        protected ExprProgram getProgram() {
+            return mExpr.getProgram();
+        }
+
+        @Override
+        protected boolean getDegreeMode() {
+            return mDegreeMode;
         }
 
         // Currently running expression evaluator, if any.  This is either an AsyncEvaluator
@@ -303,51 +336,134 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
         // We arrange that only one evaluator is active at a time, in part by maintaining
         // two separate ExprInfo structure for the main and history view, so that they can
         // arrange for independent evaluators.
-        public AsyncTask mEvaluator;
+        public EvaluationScheduler.Task<?> mEvaluator;
+
+        // Value of mAccessClock when this was last used.  Determines eviction order.
+        // May be updated by any thread.
+        public volatile long mLastAccess;
 
-        // The remaining fields are valid only if an evaluation completed successfully.
-        // mVal always points to an AtomicReference, but that may be null.
-        public AtomicReference<UnifiedReal> mVal;
+        // Size estimate currently included in mCacheSize.  Set when this is added to mExprs,
+        // and afterwards only updated by the UI thread.
+        public long mSizeEstimate;
+
+        // Was this read back from the database, so that it may be evicted?  Set when this is
+        // added to mExprs.
+        public boolean mRereadable;
+
+        // The remaining fields, and the result, are valid only if an evaluation completed
+        // successfully.
         // We cache the best known decimal result in mResultString.  Whenever that is
         // non-null, it is computed to exactly mResultStringOffset, which is always > 0.
         // Valid only if mResultString is non-null and (for the main expression) !mChangedValue.
         // ERRONEOUS_RESULT indicates evaluation resulted in an error.
-        public String mResultString;
+        // The digits are stored compactly, and shared with copies of this ExprInfo.
+        public DigitString mResultString;
         public int mResultStringOffset = 0;
+        // The digits of mResultString in a form that allows AsyncReevaluator to compute only
+        // the additional digits, or null if that is not possible.  Only accessed by UI thread.
+        public UnifiedReal.DigitPrefix mResultPrefix;
         // Number of digits to which (possibly incomplete) evaluation has been requested.
         // Only accessed by UI thread.
         public int mResultStringOffsetReq = 0;
         // Position of most significant digit in current cached result, if determined.  This is just
         // the index in mResultString holding the msd.
         public int mMsdIndex = INVALID_MSD;
+        // If mResultString was read back from the database, the result may still be null.  In
+        // that case we use the least significant digit offset and truncatability recorded with
+        // it, and compute the result only when more digits are needed.
+        public int mLsdOffset;
+        public boolean mExactlyTruncatable;
         // Long timeout needed for evaluation?
         public boolean mLongTimeout = false;
         public long mTimeStamp;
+        // Precision offset and wall time in nanoseconds of the last completed AsyncReevaluator
+        // run, or zero.  Only accessed by UI thread.
+        public int mReevalPrecOffset = 0;
+        public long mReevalNanos = 0;
     }
 
     private ConcurrentHashMap<Long, ExprInfo> mExprs = new ConcurrentHashMap<Long, ExprInfo>();
 
+    // mExprs is bounded by a memory budget.  Once the estimated size of all cached expressions
+    // and results exceeds mCacheBudget bytes, we evict the least recently used expressions that
+    // can be reread from the database, and are not otherwise in use.  See trimCache().
+    // Evicted expressions are transparently reloaded by ensureExprIsCached(), and reevaluated
+    // when needed.  Only accessed by UI thread.
+    private long mCacheBudget;
+
+    // Sum of mSizeEstimate over mExprs.  Maintained as entries are added, evicted, or change
+    // size, so that trimCache() need not examine the whole cache when it is within budget.
+    // Updated by the UI thread, and by threads that add expressions read from the database.
+    private final AtomicLong mCacheSize = new AtomicLong();
+
+    // Default budget, as a fraction of the per-application memory limit.
+    private static final int CACHE_BUDGET_DIVISOR = 8;
+
+    // Rough size of an ExprInfo and its CalculatorExpr, in bytes.
+    private static final int EXPR_INFO_SIZE_ESTIMATE = 1000;
+
+    // Source of ExprInfo.mLastAccess values.
+    private final AtomicLong mAccessClock = new AtomicLong();
+
     // The database holding persistent expressions.
     private ExpressionDB mExprDB;
 
     private ExprInfo mMainExpr;  //  == mExprs.get(MAIN_INDEX)
 
+    // Indices of expressions displayed in a history entry that is currently attached to the
+    // window.  Only accessed by UI thread.
+    private final HashSet<Long> mVisibleIndices = new HashSet<Long>();
+
+    // Indices of expressions bound to a history view, which may access them at any time.
+    // Such expressions are never evicted from mExprs.  Kept separately from the ExprInfos,
+    // since a view may be bound to an expression that is reloaded only afterwards.
+    // Only accessed by UI thread.
+    private final HashSet<Long> mBoundIndices = new HashSet<Long>();
+
     private SharedPreferences mSharedPrefs;
 
     private final Handler mTimeoutHandler;  // Used to schedule evaluation timeouts.
 
+    private final EvaluationScheduler mScheduler;  // Runs all background evaluations.
+
+    // Evaluates expressions, and holds their results in the ExprInfos.
+    private final EvaluationEngine mEngine = new EvaluationEngine(
+            new EvaluationEngine.Source() {
+                @Override
+                public EvaluationEngine.Entry getEntry(long index) {
+                    return ensureExprIsCached(index);
+                }
+            },
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            r.run();
+                        }
+                    }, "DependencyEvaluator");
+                }
+            });
+
     private void setMainExpr(ExprInfo expr) {
         mMainExpr = expr;
-        mExprs.put(MAIN_INDEX, expr);
+        putExpr(MAIN_INDEX, expr);
     }
 
     Evaluator(Context context) {
         mContext = context;
+        final ActivityManager am =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        mCacheBudget = am.getMemoryClass() * 1024L * 1024L / CACHE_BUDGET_DIVISOR;
         setMainExpr(new ExprInfo(new CalculatorExpr(), false));
         mSavedName = "none";
         mTimeoutHandler = new Handler();
+        mScheduler = new EvaluationScheduler();
 
         mExprDB = new ExpressionDB(context);
+        ConstantCache.init(new File(context.getCacheDir(), CONSTANT_CACHE_FILE));
         mSharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
         mMainExpr.mDegreeMode = mSharedPrefs.getBoolean(KEY_PREF_DEGREE_MODE, false);
         long savedIndex = mSharedPrefs.getLong(KEY_PREF_SAVED_INDEX, 0L);
@@ -407,12 +523,14 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
         public final UnifiedReal val;        // Constructive real value.
         public final String newResultString;       // Null iff it can't be computed.
         public final int newResultStringOffset;
+        public final UnifiedReal.DigitPrefix newResultPrefix;
         public final int initDisplayOffset;
-        InitialResult(UnifiedReal v, String s, int p, int idp) {
+        InitialResult(UnifiedReal v, String s, int p, UnifiedReal.DigitPrefix dp, int idp) {
             errorResourceId = Calculator.INVALID_RES_ID;
             val = v;
             newResultString = s;
             newResultStringOffset = p;
+            newResultPrefix = dp;
             initDisplayOffset = idp;
         }
         InitialResult(int errorId) {
@@ -420,6 +538,7 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
             val = UnifiedReal.ZERO;
             newResultString = "BAD";
             newResultStringOffset = 0;
+            newResultPrefix = null;
             initDisplayOffset = 0;
         }
         boolean isError() {
@@ -451,10 +570,13 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
 
     /**
      * Return the maximum number of bits in the result.  Longer results are assumed to time out.
+     * These were once 240000 and 700000, since decimal conversion of large results took time
+     * quadratic in their length. DecimalConverter converts results at the current limits faster
+     * than the quadratic conversion handled the old ones.
      * @param longTimeout a long timeout is in effect
      */
     private int getMaxResultBits(boolean longTimeout) {
-        return longTimeout ? 700000 : 240000;
+        return longTimeout ? 3000000 : 1000000;
     }
 
     /**
@@ -495,8 +617,7 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
      * completes.  Can result in an error display if something goes wrong.  By default we set a
      * timeout to catch runaway computations.
      */
-    class AsyncEvaluator extends AsyncTask<Void, Void, InitialResult> {
-        private boolean mDm;  // degrees
+    class AsyncEvaluator extends EvaluationScheduler.Task<InitialResult> {
         public boolean mRequired; // Result was requested by user.
         private boolean mQuiet;  // Suppress cancellation message.
         private Runnable mTimeoutRunnable = null;
@@ -505,12 +626,11 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
         private long mIndex;  //  Expression index.
         private ExprInfo mExprInfo;  // Current expression.
 
-        AsyncEvaluator(long index, EvaluationListener listener, CharMetricsInfo cmi, boolean dm,
+        AsyncEvaluator(long index, EvaluationListener listener, CharMetricsInfo cmi,
                 boolean required) {
             mIndex = index;
             mListener = listener;
             mCharMetricsInfo = cmi;
-            mDm = dm;
             mRequired = required;
             mQuiet = !required || mIndex != MAIN_INDEX;
             mExprInfo = mExprs.get(mIndex);
@@ -521,9 +641,9 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
 
         private void handleTimeout() {
             // Runs in UI thread.
-            boolean running = (getStatus() != AsyncTask.Status.FINISHED);
-            if (running && cancel(true)) {
-                mExprs.get(mIndex).mEvaluator = null;
+            boolean running = (getStatus() != EvaluationScheduler.Status.FINISHED);
+            if (running && cancel()) {
+                mExprInfo.mEvaluator = null;
                 if (mRequired && mIndex == MAIN_INDEX) {
                     // Replace mExpr with clone to avoid races if task still runs for a while.
                     mMainExpr.mExpr = (CalculatorExpr)mMainExpr.mExpr.clone();
@@ -557,31 +677,38 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
             mTimeoutHandler.postDelayed(mTimeoutRunnable, timeout);
         }
 
+        /**
+         * Return the maximum number of bits in a result we're willing to convert to decimal.
+         */
+        private int maxResultBits() {
+            return mRequired ? getMaxResultBits(mExprInfo.mLongTimeout) : QUICK_MAX_RESULT_BITS;
+        }
+
         /**
          * Is a computed result too big for decimal conversion?
          */
         private boolean isTooBig(UnifiedReal res) {
-            final int maxBits = mRequired ? getMaxResultBits(mExprInfo.mLongTimeout)
-                    : QUICK_MAX_RESULT_BITS;
-            return res.approxWholeNumberBitsGreaterThan(maxBits);
+            return res.approxWholeNumberBitsGreaterThan(maxResultBits());
         }
 
         @Override
-        protected InitialResult doInBackground(Void... nothing) {
+        protected InitialResult doInBackground() {
             try {
                 // mExpr does not change while we are evaluating; thus it's OK to read here.
-                UnifiedReal res = mExprInfo.mVal.get();
+                UnifiedReal res = mExprInfo.getResult();
                 if (res == null) {
                     try {
-                        res = mExprInfo.mExpr.eval(mDm, Evaluator.this);
+                        // Factorials that would fail isTooBig() are not computed at all.
+                        res = mEngine.compute(mExprInfo, maxResultBits());
                         if (isCancelled()) {
                             // TODO: This remains very slightly racey. Fix this.
                             throw new CR.AbortedException();
                         }
-                        res = putResultIfAbsent(mIndex, res);
+                        res = mExprInfo.putResultIfAbsent(res);
                     } catch (StackOverflowError e) {
-                        // Absurdly large integer exponents can cause this. There might be other
-                        // examples as well. Treat it as a timeout.
+                        // Parsing and exponentiation no longer recurse, but CR evaluation of
+                        // very deeply nested function applications still may. Treat it as a
+                        // timeout.
                         return new InitialResult(R.string.timeout);
                     }
                 }
@@ -590,15 +717,22 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
                     return new InitialResult(R.string.timeout);
                 }
                 int precOffset = INIT_PREC;
-                String initResult = res.toStringTruncated(precOffset);
+                UnifiedReal.DigitPrefix prefix = res.digitPrefix(precOffset);
+                String initResult = prefix.digits;
                 int msd = getMsdIndexOf(initResult);
                 if (msd == INVALID_MSD) {
                     int leadingZeroBits = res.leadingBinaryZeroes();
+                    if (leadingZeroBits == Integer.MAX_VALUE) {
+                        // Try to bound the magnitude cheaply with interval arithmetic, so that
+                        // we can usually avoid the blind retry below.
+                        leadingZeroBits = mEngine.leadingBinaryZeroesBound(mExprInfo);
+                    }
                     if (leadingZeroBits < QUICK_MAX_RESULT_BITS) {
                         // Enough initial nonzero digits for most displays.
                         precOffset = 30 +
                                 (int)Math.ceil(Math.log(2.0d) / Math.log(10.0d) * leadingZeroBits);
-                        initResult = res.toStringTruncated(precOffset);
+                        prefix = res.digitPrefix(precOffset);
+                        initResult = prefix.digits;
                         msd = getMsdIndexOf(initResult);
                         if (msd == INVALID_MSD) {
                             throw new AssertionError("Impossible zero result");
@@ -606,7 +740,8 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
                     } else {
                         // Just try once more at higher fixed precision.
                         precOffset = MAX_MSD_PREC_OFFSET;
-                        initResult = res.toStringTruncated(precOffset);
+                        prefix = res.digitPrefix(precOffset);
+                        initResult = prefix.digits;
                         msd = getMsdIndexOf(initResult);
                     }
                 }
@@ -616,13 +751,18 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
                 final int newPrecOffset = initDisplayOffset + EXTRA_DIGITS;
                 if (newPrecOffset > precOffset) {
                     precOffset = newPrecOffset;
-                    initResult = res.toStringTruncated(precOffset);
+                    prefix = res.extendDigits(prefix, precOffset);
+                    initResult = prefix.extendsPrevious ? initResult + prefix.digits
+                            : prefix.digits;
                 }
-                return new InitialResult(res, initResult, precOffset, initDisplayOffset);
-            } catch (CalculatorExpr.SyntaxException e) {
+                return new InitialResult(res, initResult, precOffset, prefix, initDisplayOffset);
+            } catch (SyntaxException e) {
                 return new InitialResult(R.string.error_syntax);
             } catch (UnifiedReal.ZeroDivisionException e) {
                 return new InitialResult(R.string.error_zero_divide);
+            } catch (UnifiedReal.ResultTooBigException e) {
+                // As if isTooBig() had rejected the result.
+                return new InitialResult(R.string.timeout);
             } catch(ArithmeticException e) {
                 return new InitialResult(R.string.error_nan);
             } catch(CR.PrecisionOverflowException e) {
@@ -641,22 +781,24 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
                 if (result.errorResourceId == R.string.timeout) {
                     // Emulating timeout due to large result.
                     if (mRequired && mIndex == MAIN_INDEX) {
-                        displayTimeoutMessage(mExprs.get(mIndex).mLongTimeout);
+                        displayTimeoutMessage(mExprInfo.mLongTimeout);
                     }
                     mListener.onCancelled(mIndex);
                 } else {
                     if (mRequired) {
                         mExprInfo.mResultString = ERRONEOUS_RESULT;
+                        mExprInfo.mResultPrefix = null;
                     }
                     mListener.onError(mIndex, result.errorResourceId);
                 }
                 return;
             }
-            // mExprInfo.mVal was already set asynchronously by child thread.
-            mExprInfo.mResultString = result.newResultString;
+            // The result of mExprInfo was already set asynchronously by child thread.
+            mExprInfo.mResultString = DigitString.valueOf(result.newResultString);
             mExprInfo.mResultStringOffset = result.newResultStringOffset;
-            final int dotIndex = mExprInfo.mResultString.indexOf('.');
-            String truncatedWholePart = mExprInfo.mResultString.substring(0, dotIndex);
+            mExprInfo.mResultPrefix = result.newResultPrefix;
+            final int dotIndex = result.newResultString.indexOf('.');
+            String truncatedWholePart = result.newResultString.substring(0, dotIndex);
             // Recheck display precision; it may change, since display dimensions may have been
             // unknow the first time.  In that case the initial evaluation precision should have
             // been conservative.
@@ -675,6 +817,11 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
             }
             mListener.onEvaluate(mIndex, initPrecOffset, mExprInfo.mMsdIndex, leastDigOffset,
                     truncatedWholePart);
+            if (!isMutableIndex(mIndex)) {
+                persistResult(mIndex, mExprInfo);
+            }
+            updateSize(mIndex, mExprInfo);
+            trimCache(mCacheBudget);
         }
 
         @Override
@@ -702,8 +849,8 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
      * but we have failed to prove there aren't such cases.
      */
     @VisibleForTesting
-    public static String unflipZeroes(String oldDigs, int oldPrecOffset, String newDigs,
-            int newPrecOffset) {
+    public static DigitString unflipZeroes(DigitString oldDigs, int oldPrecOffset,
+            DigitString newDigs, int newPrecOffset) {
         final int oldLen = oldDigs.length();
         if (oldDigs.charAt(oldLen - 1) != '9') {
             return newDigs;
@@ -716,48 +863,114 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
         }
         // Earlier digits could not have changed without a 0 to 9 or 9 to 0 flip at end.
         // The former is OK.
-        if (!newDigs.substring(newLen - precDiff).equals(StringUtils.repeat('0', precDiff))) {
-            throw new AssertionError("New approximation invalidates old one!");
+        for (int i = newLen - precDiff; i < newLen; ++i) {
+            if (newDigs.charAt(i) != '0') {
+                throw new AssertionError("New approximation invalidates old one!");
+            }
         }
-        return oldDigs + StringUtils.repeat('9', precDiff);
+        return oldDigs.append(StringUtils.repeat('9', precDiff));
     }
 
     /**
      * Result of asynchronous reevaluation.
      */
     private static class ReevalResult {
-        public final String newResultString;
-        public final int newResultStringOffset;
-        ReevalResult(String s, int p) {
-            newResultString = s;
-            newResultStringOffset = p;
+        // Either the digits to be appended to the old result string, or a complete
+        // replacement for it.  See UnifiedReal.extendDigits().
+        public final UnifiedReal.DigitPrefix newResultPrefix;
+        // Wall time taken to compute newResultPrefix, in nanoseconds.
+        public final long nanos;
+        ReevalResult(UnifiedReal.DigitPrefix dp, long ns) {
+            newResultPrefix = dp;
+            nanos = ns;
         }
     }
 
+    /**
+     * Returned by AsyncReevaluator if it could not recompute a value read from the database.
+     */
+    private static final ReevalResult REEVAL_TIMED_OUT = new ReevalResult(null, 0);
+
     /**
      * Compute new mResultString contents to prec digits to the right of the decimal point.
      * Ensure that onReevaluate() is called after doing so.  If the evaluation fails for reasons
      * other than a timeout, ensure that onError() is called.
      * This assumes that initial evaluation of the expression has been successfully
-     * completed.
-     */
-    private class AsyncReevaluator extends AsyncTask<Integer, Void, ReevalResult> {
+     * completed.  If the digits were read from the database, we first have to recompute the
+     * value, with the same timeout as AsyncEvaluator.  If that times out, we keep the digits we
+     * have, and stop extending them.
+     * Where possible, we only compute the digits beyond those already in mResultString, so that
+     * repeatedly extending the result while scrolling does not keep reconverting the digits we
+     * already have.
+     */
+    private class AsyncReevaluator extends EvaluationScheduler.Task<ReevalResult> {
         private long mIndex;  // Index of expression to evaluate.
         private EvaluationListener mListener;
         private ExprInfo mExprInfo;
+        private final int mPrecOffset;  // Requested precision.
+        private final UnifiedReal.DigitPrefix mOldPrefix;  // Digits we're extending, or null.
+        private Runnable mTimeoutRunnable = null;  // Only set while recomputing the value.
+        private boolean mTimedOut = false;
 
-        AsyncReevaluator(long index, EvaluationListener listener) {
+        AsyncReevaluator(long index, EvaluationListener listener, int precOffset) {
             mIndex = index;
             mListener = listener;
             mExprInfo = mExprs.get(mIndex);
+            mPrecOffset = precOffset;
+            mOldPrefix = mExprInfo.mResultPrefix;
+        }
+
+        private void handleTimeout() {
+            if (cancel()) {
+                mTimedOut = true;
+            }
         }
 
         @Override
-        protected ReevalResult doInBackground(Integer... prec) {
+        protected void onPreExecute() {
+            if (mExprInfo.getResult() != null) {
+                return;
+            }
+            // We will have to recompute the value.  Time out as AsyncEvaluator would.
+            final long timeout = mIndex == MAIN_INDEX ? getTimeout(mExprInfo.mLongTimeout)
+                    : NON_MAIN_TIMEOUT;
+            mTimeoutRunnable = new Runnable() {
+                @Override
+                public void run() {
+                    handleTimeout();
+                }
+            };
+            mTimeoutHandler.postDelayed(mTimeoutRunnable, timeout);
+        }
+
+        @Override
+        protected ReevalResult doInBackground() {
             try {
-                final int precOffset = prec[0].intValue();
-                return new ReevalResult(mExprInfo.mVal.get().toStringTruncated(precOffset),
-                        precOffset);
+                UnifiedReal val = mExprInfo.getResult();
+                if (val == null) {
+                    // The digits we have were read from the database.  The expression evaluated
+                    // successfully before, so this should succeed again, unless it runs out of
+                    // time or stack space.  Neither makes the displayed digits wrong.
+                    try {
+                        val = mExprInfo.putResultIfAbsent(mEngine.compute(mExprInfo));
+                    } catch (StackOverflowError e) {
+                        return REEVAL_TIMED_OUT;
+                    } catch (SyntaxException e) {
+                        // Only possible if the saved expression no longer evaluates the way it
+                        // did when it was saved.  Keep the saved digits.
+                        return REEVAL_TIMED_OUT;
+                    }
+                    if (mTimeoutRunnable != null) {
+                        // Extending the digits is not subject to the timeout.
+                        mTimeoutHandler.removeCallbacks(mTimeoutRunnable);
+                    }
+                }
+                final long startTime = System.nanoTime();
+                final UnifiedReal.DigitPrefix newPrefix = mOldPrefix == null
+                        ? val.digitPrefix(mPrecOffset) : val.extendDigits(mOldPrefix, mPrecOffset);
+                return new ReevalResult(newPrefix, System.nanoTime() - startTime);
+            } catch(StackOverflowError e) {
+                return null;
             } catch(ArithmeticException e) {
                 return null;
             } catch(CR.PrecisionOverflowException e) {
@@ -771,25 +984,65 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
 
         @Override
         protected void onPostExecute(ReevalResult result) {
-            if (result == null) {
+            if (mTimeoutRunnable != null) {
+                mTimeoutHandler.removeCallbacks(mTimeoutRunnable);
+            }
+            if (result == REEVAL_TIMED_OUT) {
+                keepTimedOutDigits();
+            } else if (result == null) {
                 // This should only be possible in the extremely rare case of encountering a
                 // domain error while reevaluating or in case of a precision overflow.  We don't
                 // know of a way to get the latter with a plausible amount of user input.
                 mExprInfo.mResultString = ERRONEOUS_RESULT;
+                mExprInfo.mResultPrefix = null;
                 mListener.onError(mIndex, R.string.error_nan);
             } else {
-                if (result.newResultStringOffset < mExprInfo.mResultStringOffset) {
+                final UnifiedReal.DigitPrefix newPrefix = result.newResultPrefix;
+                if (newPrefix.precOffset < mExprInfo.mResultStringOffset
+                        || mExprInfo.mResultPrefix != mOldPrefix) {
                     throw new AssertionError("Unexpected onPostExecute timing");
                 }
-                mExprInfo.mResultString = unflipZeroes(mExprInfo.mResultString,
-                        mExprInfo.mResultStringOffset, result.newResultString,
-                        result.newResultStringOffset);
-                mExprInfo.mResultStringOffset = result.newResultStringOffset;
+                if (newPrefix.extendsPrevious) {
+                    mExprInfo.mResultString = mExprInfo.mResultString.append(newPrefix.digits);
+                    mExprInfo.mResultPrefix = newPrefix;
+                } else {
+                    final DigitString newDigits = DigitString.valueOf(newPrefix.digits);
+                    mExprInfo.mResultString = unflipZeroes(mExprInfo.mResultString,
+                            mExprInfo.mResultStringOffset, newDigits, newPrefix.precOffset);
+                    // If we kept the old digits, the new prefix no longer describes them.
+                    mExprInfo.mResultPrefix =
+                            mExprInfo.mResultString == newDigits ? newPrefix : null;
+                }
+                mExprInfo.mResultStringOffset = newPrefix.precOffset;
+                mExprInfo.mReevalPrecOffset = mPrecOffset;
+                mExprInfo.mReevalNanos = result.nanos;
                 mListener.onReevaluate(mIndex);
             }
             mExprInfo.mEvaluator = null;
+            updateSize(mIndex, mExprInfo);
+            trimCache(mCacheBudget);
+        }
+
+        @Override
+        protected void onCancelled(ReevalResult result) {
+            if (mTimeoutRunnable != null) {
+                mTimeoutHandler.removeCallbacks(mTimeoutRunnable);
+            }
+            if (mTimedOut) {
+                keepTimedOutDigits();
+            }
+            // On other cancellations we do nothing; invoker should have left no trace of us.
+        }
+
+        /**
+         * Leave the displayed digits alone after failing to recompute the value.  We leave
+         * mResultStringOffsetReq at the requested precision, so that we don't keep retrying
+         * as the user scrolls.
+         */
+        private void keepTimedOutDigits() {
+            Log.w("Calculator", "Timed out recomputing restored expression " + mIndex);
+            mExprInfo.mEvaluator = null;
         }
-        // On cancellation we do nothing; invoker should have left no trace of us.
     }
 
     /**
@@ -798,21 +1051,226 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
      * Only called if prior evaluation succeeded.
      */
     private void ensureCachePrec(long index, int precOffset, EvaluationListener listener) {
-        ExprInfo ei = mExprs.get(index);
+        ExprInfo ei = ensureExprIsCached(index);
         if (ei.mResultString != null && ei.mResultStringOffset >= precOffset
                 || ei.mResultStringOffsetReq >= precOffset) return;
         if (ei.mEvaluator != null) {
             // Ensure we only have one evaluation running at a time.
-            ei.mEvaluator.cancel(true);
+            ei.mEvaluator.cancel();
             ei.mEvaluator = null;
         }
-        AsyncReevaluator reEval = new AsyncReevaluator(index, listener);
-        ei.mEvaluator = reEval;
         ei.mResultStringOffsetReq = precOffset + PRECOMPUTE_DIGITS;
         if (ei.mResultString != null) {
             ei.mResultStringOffsetReq += ei.mResultStringOffsetReq / PRECOMPUTE_DIVISOR;
+            ei.mResultStringOffsetReq = Math.max(ei.mResultStringOffsetReq,
+                    affordablePrecOffset(ei, precOffset));
+        }
+        AsyncReevaluator reEval = new AsyncReevaluator(index, listener, ei.mResultStringOffsetReq);
+        ei.mEvaluator = reEval;
+        mScheduler.execute(reEval, getPriority(index, true));
+    }
+
+    /**
+     * Return the largest precision offset, up to REEVAL_GROWTH_FACTOR times the larger of
+     * precOffset and the current one, that we predict we can reevaluate ei to within
+     * REEVAL_BUDGET_NANOS, based on the timing of its last reevaluation. Returns 0 if we have
+     * no timing information.
+     */
+    private static int affordablePrecOffset(ExprInfo ei, int precOffset) {
+        if (ei.mReevalPrecOffset <= 0 || ei.mReevalNanos <= 0) {
+            return 0;
+        }
+        final long limit = (long) REEVAL_GROWTH_FACTOR
+                * Math.max(precOffset, ei.mResultStringOffset);
+        // Assume time is proportional to the square of the precision, and treat small
+        // precisions as INIT_PREC, since fixed overhead dominates there.
+        final double lastPrec = Math.max(ei.mReevalPrecOffset, INIT_PREC);
+        final double affordable =
+                lastPrec * Math.sqrt((double) REEVAL_BUDGET_NANOS / ei.mReevalNanos);
+        return (int) Math.min(limit, Math.min(affordable, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Return the scheduling priority for an evaluation of the expression at the given index.
+     * @param required the result was explicitly requested, or is being scrolled by the user
+     */
+    private EvaluationScheduler.Priority getPriority(long index, boolean required) {
+        if (index == MAIN_INDEX) {
+            return required ? EvaluationScheduler.Priority.MAIN_REQUIRED
+                    : EvaluationScheduler.Priority.MAIN_SPECULATIVE;
+        }
+        if (index == HISTORY_MAIN_INDEX) {
+            return EvaluationScheduler.Priority.HISTORY_MAIN;
+        }
+        return mVisibleIndices.contains(index) ? EvaluationScheduler.Priority.VISIBLE_HISTORY
+                : EvaluationScheduler.Priority.OFFSCREEN_HISTORY;
+    }
+
+    /**
+     * Note whether the expression at the given index is displayed in a history entry that is
+     * currently attached to the window.  Pending evaluations are reprioritized accordingly.
+     * UI thread only.
+     */
+    public void setVisible(long index, boolean visible) {
+        if (!(visible ? mVisibleIndices.add(index) : mVisibleIndices.remove(index))) {
+            return;
+        }
+        final ExprInfo ei = mExprs.get(index);
+        if (ei != null && ei.mEvaluator != null) {
+            // History entries never refer to MAIN_INDEX; required flag is irrelevant.
+            mScheduler.setPriority(ei.mEvaluator, getPriority(index, false));
+        }
+    }
+
+    /**
+     * Note whether the expression at the given index is bound to a history view, and must
+     * thus remain cached.  UI thread only.
+     */
+    public void setBound(long index, boolean bound) {
+        if (bound) {
+            mBoundIndices.add(index);
+        } else {
+            mBoundIndices.remove(index);
+        }
+    }
+
+    /**
+     * Forget about all history views, e.g. because the history was closed without recycling
+     * them.  UI thread only.
+     */
+    public void clearHistoryViewState() {
+        mBoundIndices.clear();
+        mVisibleIndices.clear();
+    }
+
+    /**
+     * Set the approximate number of bytes that cached expressions and their results may occupy.
+     * UI thread only.
+     */
+    public void setCacheBudget(long bytes) {
+        mCacheBudget = bytes;
+        trimCache(bytes);
+    }
+
+    /**
+     * Release cached expressions in response to memory pressure, as reported by
+     * ComponentCallbacks2.onTrimMemory().  The cache is temporarily trimmed well below its
+     * budget, and grows again as history entries are revisited.  Under severe pressure we also
+     * drop UnifiedReal's shared tables, which the budget doesn't account for.  UI thread only.
+     */
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            trimCache(0);
+            UnifiedReal.clearSharedCaches();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimCache(mCacheBudget / 4);
+        } else {
+            trimCache(mCacheBudget / 2);
         }
-        reEval.execute(ei.mResultStringOffsetReq);
+    }
+
+    /**
+     * Return a rough estimate of the memory occupied by ei, in bytes.
+     * UI thread only, unless ei has not yet been added to mExprs.
+     */
+    private static long estimateSize(ExprInfo ei) {
+        long result = EXPR_INFO_SIZE_ESTIMATE;
+        final UnifiedReal val = ei.getResult();
+        if (val != null) {
+            result += val.approxSizeInBytes();
+        }
+        if (ei.mResultString != null) {
+            final long len = ei.mResultString.length();
+            // DigitString stores two characters per byte.
+            result += len / 2;
+            if (val != null && !val.definitelyRational()) {
+                // The CR approximation and ei.mResultPrefix each hold about log2(10) bits per
+                // digit.
+                result += len * 5 / 6;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Can the expression at the given index be dropped from mExprs?
+     * UI thread only.
+     */
+    private boolean isEvictable(long index, ExprInfo ei) {
+        return index != MAIN_INDEX && index != HISTORY_MAIN_INDEX
+                && index != mMemoryIndex && index != mSavedIndex
+                && ei.mEvaluator == null && !mVisibleIndices.contains(index)
+                && !mBoundIndices.contains(index) && ei.mRereadable;
+    }
+
+    /**
+     * Evict least recently used expressions from mExprs until their estimated total size is at
+     * most budget bytes, or there is nothing left to evict.
+     * UI thread only.
+     */
+    private void trimCache(long budget) {
+        if (mCacheSize.get() <= budget) {
+            return;
+        }
+        int nCandidates = 0;
+        final long[][] candidates = new long[mExprs.size()][];  // {last access, index}
+        for (Map.Entry<Long, ExprInfo> entry : mExprs.entrySet()) {
+            final long index = entry.getKey();
+            final ExprInfo ei = entry.getValue();
+            if (nCandidates < candidates.length && isEvictable(index, ei)) {
+                candidates[nCandidates++] = new long[] { ei.mLastAccess, index };
+            }
+        }
+        // Sort on a snapshot of the access times, which may change concurrently.
+        Arrays.sort(candidates, 0, nCandidates, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                return Long.compare(a[0], b[0]);
+            }
+        });
+        for (int i = 0; i < nCandidates && mCacheSize.get() > budget; ++i) {
+            final long index = candidates[i][1];
+            final ExprInfo ei = mExprs.get(index);
+            if (ei != null && ei.mLastAccess == candidates[i][0]
+                    && mExprs.remove(index, ei)) {
+                mCacheSize.addAndGet(-ei.mSizeEstimate);
+            }
+        }
+    }
+
+    /**
+     * Add ei to mExprs at the given index, replacing any previous expression there, and account
+     * for its size.  UI thread only.
+     */
+    private void putExpr(long index, ExprInfo ei) {
+        ei.mSizeEstimate = estimateSize(ei);
+        mCacheSize.addAndGet(ei.mSizeEstimate);
+        final ExprInfo old = mExprs.put(index, ei);
+        if (old != null) {
+            mCacheSize.addAndGet(-old.mSizeEstimate);
+        }
+    }
+
+    /**
+     * Recompute the size estimate of ei, which was stored at the given index, after its cached
+     * result changed.  Does nothing if ei is no longer cached.  UI thread only.
+     */
+    private void updateSize(long index, ExprInfo ei) {
+        if (mExprs.get(index) != ei) {
+            return;
+        }
+        final long size = estimateSize(ei);
+        mCacheSize.addAndGet(size - ei.mSizeEstimate);
+        ei.mSizeEstimate = size;
+    }
+
+    /**
+     * Record that ei was just used, so that it is not evicted soon.
+     */
+    private ExprInfo noteAccess(ExprInfo ei) {
+        ei.mLastAccess = mAccessClock.incrementAndGet();
+        return ei;
     }
 
     /**
@@ -824,7 +1282,7 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
      *         Integer.MIN_VALUE if we cannot determine.  Integer.MAX_VALUE if there is no lsd,
      *         or we cannot determine it.
      */
-    static int getLsdOffset(UnifiedReal val, String cache, int decIndex) {
+    static int getLsdOffset(UnifiedReal val, CharSequence cache, int decIndex) {
         if (val.definitelyZero()) return Integer.MIN_VALUE;
         int result = val.digitsRequired();
         if (result == 0) {
@@ -835,6 +1293,16 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
         return result;
     }
 
+    /**
+     * Return the rightmost nonzero digit position for the cached result of ei, as above.
+     * Uses the recorded offset if the result was read from the database and not yet
+     * recomputed.
+     */
+    private static int getLsdOffset(ExprInfo ei, CharSequence cache, int decIndex) {
+        final UnifiedReal val = ei.getResult();
+        return val == null ? ei.mLsdOffset : getLsdOffset(val, cache, decIndex);
+    }
+
     // TODO: We may want to consistently specify the position of the current result
     // window using the left-most visible digit index instead of the offset for the rightmost one.
     // It seems likely that would simplify the logic.
@@ -848,10 +1316,10 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
      * @param lastDigitOffset Position of least significant digit (1 = tenths digit)
      *                  or Integer.MAX_VALUE.
      */
-    private static int getPreferredPrec(String cache, int msd, int lastDigitOffset,
+    private static int getPreferredPrec(CharSequence cache, int msd, int lastDigitOffset,
             CharMetricsInfo cm) {
         final int lineLength = cm.getMaxChars();
-        final int wholeSize = cache.indexOf('.');
+        final int wholeSize = StringUtils.indexOf(cache, '.');
         final float rawSepChars = cm.separatorChars(cache, wholeSize);
         final float rawSepCharsNoDecimal = rawSepChars - cm.getNoEllipsisCredit();
         final float rawSepCharsWithDecimal = rawSepCharsNoDecimal - cm.getDecimalCredit();
@@ -993,7 +1461,7 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
      * Return INVALID_MSD if there are not enough digits to prove the numeric value is
      * different from zero.  As usual, we assume an error of strictly less than 1 ulp.
      */
-    public static int getMsdIndexOf(String s) {
+    public static int getMsdIndexOf(CharSequence s) {
         final int len = s.length();
         int nonzeroIndex = -1;
         for (int i = 0; i < len; ++i) {
@@ -1017,7 +1485,7 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
      * Result is almost consistent through reevaluations: It may increase by one, once.
      */
     private int getMsdIndex(long index) {
-        ExprInfo ei = mExprs.get(index);
+        ExprInfo ei = ensureExprIsCached(index);
         if (ei.mMsdIndex != INVALID_MSD) {
             // 0.100000... can change to 0.0999999...  We may have to correct once by one digit.
             if (ei.mResultString.charAt(ei.mMsdIndex) == '0') {
@@ -1025,7 +1493,8 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
             }
             return ei.mMsdIndex;
         }
-        if (ei.mVal.get().definitelyZero()) {
+        final UnifiedReal val = ei.getResult();
+        if (val == null ? ei.mLsdOffset == Integer.MIN_VALUE : val.definitelyZero()) {
             return INVALID_MSD;  // None exists
         }
         int result = INVALID_MSD;
@@ -1064,7 +1533,7 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
      */
     public String getString(long index, int[] precOffset, int maxPrecOffset, int maxDigs,
             boolean[] truncated, boolean[] negative, EvaluationListener listener) {
-        ExprInfo ei = mExprs.get(index);
+        ExprInfo ei = ensureExprIsCached(index);
         int currentPrecOffset = precOffset[0];
         // Make sure we eventually get a complete answer
         if (ei.mResultString == null) {
@@ -1103,7 +1572,7 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
         }
         int startIndex = Math.max(endIndex + deficit - maxDigs, 0);
         truncated[0] = (startIndex > getMsdIndex(index));
-        String result = ei.mResultString.substring(startIndex, endIndex);
+        String result = ei.mResultString.subSequence(startIndex, endIndex).toString();
         if (deficit > 0) {
             result += StringUtils.repeat(' ', deficit);
             // Blank character is replaced during translation.
@@ -1118,10 +1587,12 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
      * Clear the cache for the main expression.
      */
     private void clearMainCache() {
-        mMainExpr.mVal.set(null);
+        mMainExpr.clearResult();
         mMainExpr.mResultString = null;
+        mMainExpr.mResultPrefix = null;
         mMainExpr.mResultStringOffset = mMainExpr.mResultStringOffsetReq = 0;
         mMainExpr.mMsdIndex = INVALID_MSD;
+        updateSize(MAIN_INDEX, mMainExpr);
     }
 
 
@@ -1139,6 +1610,7 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
         setMemoryIndex(0);
         mExprDB.eraseAll();
         mExprs.clear();
+        mCacheSize.set(0);
         setMainExpr(new ExprInfo(new CalculatorExpr(), dm));
     }
 
@@ -1151,13 +1623,13 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
      */
     private void evaluateResult(long index, EvaluationListener listener, CharMetricsInfo cmi,
             boolean required) {
-        ExprInfo ei = mExprs.get(index);
+        ExprInfo ei = ensureExprIsCached(index);
         if (index == MAIN_INDEX) {
             clearMainCache();
         }  // Otherwise the expression is immutable.
-        AsyncEvaluator eval =  new AsyncEvaluator(index, listener, cmi, ei.mDegreeMode, required);
+        AsyncEvaluator eval =  new AsyncEvaluator(index, listener, cmi, required);
         ei.mEvaluator = eval;
-        eval.execute();
+        mScheduler.execute(eval, getPriority(index, required));
         if (index == MAIN_INDEX) {
             mChangedValue = false;
         }
@@ -1168,9 +1640,9 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
      */
     void notifyImmediately(long index, ExprInfo ei, EvaluationListener listener,
             CharMetricsInfo cmi) {
-        final int dotIndex = ei.mResultString.indexOf('.');
-        final String truncatedWholePart = ei.mResultString.substring(0, dotIndex);
-        final int leastDigOffset = getLsdOffset(ei.mVal.get(), ei.mResultString, dotIndex);
+        final int dotIndex = StringUtils.indexOf(ei.mResultString, '.');
+        final String truncatedWholePart = ei.mResultString.subSequence(0, dotIndex).toString();
+        final int leastDigOffset = getLsdOffset(ei, ei.mResultString, dotIndex);
         final int msdIndex = getMsdIndex(index);
         final int preferredPrecOffset = getPreferredPrec(ei.mResultString, msdIndex,
                 leastDigOffset, cmi);
@@ -1193,7 +1665,7 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
         if (ei.mResultString != null && ei.mResultString != ERRONEOUS_RESULT
                 && !(index == MAIN_INDEX && mChangedValue)) {
             // Already done. Just notify.
-            notifyImmediately(MAIN_INDEX, mMainExpr, listener, cmi);
+            notifyImmediately(index, ei, listener, cmi);
             return;
         } else if (ei.mEvaluator != null) {
             // We only allow a single listener per expression, so this request must be redundant.
@@ -1263,16 +1735,16 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
                 ((AsyncEvaluator)(expr.mEvaluator)).suppressCancelMessage();
             }
             // Reevaluation in progress.
-            if (expr.mVal.get() != null) {
-                expr.mEvaluator.cancel(true);
+            if (expr.getResult() != null || expr.mEvaluator instanceof AsyncReevaluator) {
+                expr.mEvaluator.cancel();
                 expr.mResultStringOffsetReq = expr.mResultStringOffset;
                 // Backgound computation touches only constructive reals.
                 // OK not to wait.
                 expr.mEvaluator = null;
             } else {
-                expr.mEvaluator.cancel(true);
+                expr.mEvaluator.cancel();
                 if (expr == mMainExpr) {
-                    // The expression is modifiable, and the AsyncTask is reading it.
+                    // The expression is modifiable, and the background task is reading it.
                     // There seems to be no good way to wait for cancellation.
                     // Give ourselves a new copy to work on instead.
                     mMainExpr.mExpr = (CalculatorExpr)mMainExpr.mExpr.clone();
@@ -1406,16 +1878,22 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
      * mTimeStamp is not copied.
      */
     private ExprInfo copy(long index, boolean copyValue) {
-        ExprInfo fromEi = mExprs.get(index);
+        ExprInfo fromEi = ensureExprIsCached(index);
         ExprInfo ei = new ExprInfo((CalculatorExpr)fromEi.mExpr.clone(), fromEi.mDegreeMode);
         while (ei.mExpr.hasTrailingBinary()) {
             ei.mExpr.delete();
         }
         if (copyValue) {
-            ei.mVal = new AtomicReference<UnifiedReal>(fromEi.mVal.get());
+            final UnifiedReal val = fromEi.getResult();
+            if (val != null) {
+                ei.putResultIfAbsent(val);
+            }
             ei.mResultString = fromEi.mResultString;
+            ei.mResultPrefix = fromEi.mResultPrefix;
             ei.mResultStringOffset = ei.mResultStringOffsetReq = fromEi.mResultStringOffset;
             ei.mMsdIndex = fromEi.mMsdIndex;
+            ei.mLsdOffset = fromEi.mLsdOffset;
+            ei.mExactlyTruncatable = fromEi.mExactlyTruncatable;
         }
         ei.mLongTimeout = fromEi.mLongTimeout;
         return ei;
@@ -1455,8 +1933,8 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
         result.add(op);
         result.append(collapsed2);
         ExprInfo resultEi = new ExprInfo(result, false /* dont care about degrees/radians */);
-        resultEi.mLongTimeout = mExprs.get(index1).mLongTimeout
-                || mExprs.get(index2).mLongTimeout;
+        resultEi.mLongTimeout = ensureExprIsCached(index1).mLongTimeout
+                || ensureExprIsCached(index2).mLongTimeout;
         return resultEi;
     }
 
@@ -1479,7 +1957,7 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
         if (resultIndex == MAIN_INDEX) {
             throw new AssertionError("Should not store main expression");
         }
-        mExprs.put(resultIndex, ei);
+        putExpr(resultIndex, ei);
         return resultIndex;
     }
 
@@ -1495,7 +1973,9 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
         if (ei.mResultString == null || ei.mResultString == ERRONEOUS_RESULT) {
             throw new AssertionError("Preserving unevaluated expression");
         }
-        return addToDB(in_history, ei);
+        final long resultIndex = addToDB(in_history, ei);
+        persistResult(resultIndex, ei);
+        return resultIndex;
     }
 
     /**
@@ -1519,7 +1999,7 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
     public void copyMainToHistory() {
         cancel(HISTORY_MAIN_INDEX, true /* quiet */);
         ExprInfo ei = copy(MAIN_INDEX, true);
-        mExprs.put(HISTORY_MAIN_INDEX, ei);
+        putExpr(HISTORY_MAIN_INDEX, ei);
     }
 
     /**
@@ -1531,8 +2011,8 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
      */
     private CalculatorExpr getCollapsedExpr(long index) {
         long real_index = isMutableIndex(index) ? preserve(index, false) : index;
-        final ExprInfo ei = mExprs.get(real_index);
-        final String rs = ei.mResultString;
+        final ExprInfo ei = ensureExprIsCached(real_index);
+        final DigitString rs = ei.mResultString;
         // An error can occur here only under extremely unlikely conditions.
         // Check anyway, and just refuse.
         // rs *should* never be null, but it happens. Check as a workaround to protect against
@@ -1540,10 +2020,10 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
         if (rs == ERRONEOUS_RESULT || rs == null) {
             return null;
         }
-        final int dotIndex = rs.indexOf('.');
-        final int leastDigOffset = getLsdOffset(ei.mVal.get(), rs, dotIndex);
+        final int dotIndex = StringUtils.indexOf(rs, '.');
+        final int leastDigOffset = getLsdOffset(ei, rs, dotIndex);
         return ei.mExpr.abbreviate(real_index,
-                getShortString(rs, getMsdIndexOf(rs), leastDigOffset));
+                getShortString(rs.toString(), getMsdIndexOf(rs), leastDigOffset));
     }
 
     /**
@@ -1555,7 +2035,7 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
      * diverge, though it may generate errors of various kinds.  E.g.  sqrt(-10^-1000) .
      */
     public void collapse(long index) {
-        final boolean longTimeout = mExprs.get(index).mLongTimeout;
+        final boolean longTimeout = ensureExprIsCached(index).mLongTimeout;
         final CalculatorExpr abbrvExpr = getCollapsedExpr(index);
         clearMain();
         mMainExpr.mExpr.append(abbrvExpr);
@@ -1667,8 +2147,8 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
      * mExpr is left alone.  Return false if result is unavailable.
      */
     private boolean copyToSaved(long index) {
-        if (mExprs.get(index).mResultString == null
-                || mExprs.get(index).mResultString == ERRONEOUS_RESULT) {
+        final ExprInfo ei = ensureExprIsCached(index);
+        if (ei.mResultString == null || ei.mResultString == ERRONEOUS_RESULT) {
             return false;
         }
         setSavedIndex(isMutableIndex(index) ? preserve(index, false) : index);
@@ -1757,7 +2237,7 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
      * Append the expression at index as a pre-evaluated expression to the main expression.
      */
     public void appendExpr(long index) {
-        ExprInfo ei = mExprs.get(index);
+        ExprInfo ei = ensureExprIsCached(index);
         mChangedValue = true;
         mMainExpr.mLongTimeout |= ei.mLongTimeout;
         CalculatorExpr collapsed = getCollapsedExpr(index);
@@ -1788,7 +2268,7 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
     private ExprInfo ensureExprIsCached(long index) {
         ExprInfo ei = mExprs.get(index);
         if (ei != null) {
-            return ei;
+            return noteAccess(ei);
         }
         if (index == MAIN_INDEX) {
             throw new AssertionError("Main expression should be cached");
@@ -1803,11 +2283,58 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
         } catch(IOException e) {
             throw new AssertionError("IO Exception without real IO:" + e);
         }
+        restoreResult(row.mResult, ei);
+        ei.mRereadable = mExprDB.isRereadable(index);
+        ei.mSizeEstimate = estimateSize(ei);
         ExprInfo newEi = mExprs.putIfAbsent(index, ei);
-        return newEi == null ? ei : newEi;
+        if (newEi != null) {
+            return noteAccess(newEi);
+        }
+        mCacheSize.addAndGet(ei.mSizeEstimate);
+        return noteAccess(ei);
+    }
+
+    // Longest result string we record in the database.  Longer results are rare, and cheap to
+    // recompute compared to their storage cost.
+    private static final int MAX_PERSISTED_RESULT_LENGTH = 5000;
+
+    /**
+     * Record the cached result of ei, which was stored at the given index, in the database,
+     * so that it can be redisplayed after a restart without reevaluating the expression.
+     * The write is asynchronous.  Does nothing unless ei holds a successfully computed result.
+     */
+    private void persistResult(long index, ExprInfo ei) {
+        final DigitString rs = ei.mResultString;
+        final UnifiedReal val = ei.getResult();
+        if (rs == null || rs == ERRONEOUS_RESULT || val == null
+                || rs.length() > MAX_PERSISTED_RESULT_LENGTH) {
+            return;
+        }
+        final int dotIndex = StringUtils.indexOf(rs, '.');
+        mExprDB.putResult(index, new ExpressionDB.ResultData(rs.toString(),
+                ei.mResultStringOffset, getMsdIndexOf(rs), getLsdOffset(val, rs, dotIndex),
+                val.exactlyTruncatable()));
+    }
+
+    /**
+     * Initialize the cached result in ei from rd, as written by persistResult(), unless rd is
+     * null or inconsistent.  The result of ei is left null.
+     */
+    private static void restoreResult(ExpressionDB.ResultData rd, ExprInfo ei) {
+        if (rd == null || rd.mDigits == null || rd.mPrecOffset <= 0) {
+            return;
+        }
+        final int dotIndex = rd.mDigits.indexOf('.');
+        if (dotIndex <= 0 || rd.mDigits.length() - dotIndex - 1 != rd.mPrecOffset) {
+            return;
+        }
+        ei.mResultString = DigitString.valueOf(rd.mDigits);
+        ei.mResultStringOffset = ei.mResultStringOffsetReq = rd.mPrecOffset;
+        ei.mMsdIndex = rd.mMsdIndex;
+        ei.mLsdOffset = rd.mLsdOffset;
+        ei.mExactlyTruncatable = rd.exactlyTruncatable();
     }
 
-    @Override
     public CalculatorExpr getExpr(long index) {
         return ensureExprIsCached(index).mExpr;
     }
@@ -1820,25 +2347,34 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
         return ensureExprIsCached(index).mTimeStamp;
     }
 
-    @Override
     public boolean getDegreeMode(long index) {
         return ensureExprIsCached(index).mDegreeMode;
     }
 
-    @Override
     public UnifiedReal getResult(long index) {
-        return ensureExprIsCached(index).mVal.get();
+        return ensureExprIsCached(index).getResult();
     }
 
-    @Override
-    public UnifiedReal putResultIfAbsent(long index, UnifiedReal result) {
-        ExprInfo ei = mExprs.get(index);
-        if (ei.mVal.compareAndSet(null, result)) {
-            return result;
-        } else {
-            // Cannot change once non-null.
-            return ei.mVal.get();
+    /**
+     * Return the cached decimal result for the expression at the given index, truncated to
+     * precOffset digits to the right of the decimal point, if we already have those digits and
+     * they are known to be correctly truncated.  Otherwise return null.
+     * The result shares storage with the cache, and is returned in constant time.
+     * UI thread only.
+     */
+    public CharSequence getCachedTruncatedResult(long index, int precOffset) {
+        final ExprInfo ei = mExprs.get(index);
+        if (ei == null || ei.mResultString == null || ei.mResultString == ERRONEOUS_RESULT
+                || index == MAIN_INDEX && mChangedValue
+                || precOffset < 0 || precOffset > ei.mResultStringOffset) {
+            return null;
         }
+        final UnifiedReal val = ei.getResult();
+        if (val == null ? !ei.mExactlyTruncatable : !val.exactlyTruncatable()) {
+            return null;
+        }
+        final int len = ei.mResultString.length();
+        return ei.mResultString.subSequence(0, len - (ei.mResultStringOffset - precOffset));
     }
 
     /**
@@ -1951,6 +2487,7 @@ public class Evaluator implements CalculatorExpr.ExprResolver {
      * an open databse across tests. Cf. https://github.com/robolectric/robolectric/issues/1890 .
      */
     public void destroyEvaluator() {
+        mScheduler.shutdown();
         mExprDB.close();
         evaluator = null;
     }
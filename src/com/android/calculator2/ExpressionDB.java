@@ -17,6 +17,8 @@
 // We make some strong assumptions about the databases we manipulate.
 // We maintain a single table containg expressions, their indices in the sequence of
 // expressions, and some data associated with each expression.
+// A second table optionally holds the initially computed decimal digits of results, indexed
+// by the same row ids. It is purely a cache; its rows may be missing.
 // All indices are used, except for a small gap around zero.  New rows are added
 // either just below the current minimum (negative) index, or just above the current
 // maximum index. Currently no rows are deleted unless we clear the whole table.
@@ -69,6 +71,8 @@ public class ExpressionDB {
         public final byte[] mExpression;
         public final int mFlags;
         public long mTimeStamp;  // 0 ==> this and next field to be filled in when written.
+        // Cached result read along with the row, or null. Never written by toContentValues().
+        public final ResultData mResult;
         private static int flagsFromDegreeAndTimeout(Boolean DegreeMode, Boolean LongTimeout) {
             return (DegreeMode ? DEGREE_MODE : 0) | (LongTimeout ? LONG_TIMEOUT : 0);
         }
@@ -79,10 +83,11 @@ public class ExpressionDB {
             return (flags & LONG_TIMEOUT) != 0;
         }
         private static final int MILLIS_IN_15_MINS = 15 * 60 * 1000;
-        private RowData(byte[] expr, int flags, long timeStamp) {
+        private RowData(byte[] expr, int flags, long timeStamp, ResultData result) {
             mExpression = expr;
             mFlags = flags;
             mTimeStamp = timeStamp;
+            mResult = result;
         }
         /**
          * More client-friendly constructor that hides implementation ugliness.
@@ -90,7 +95,7 @@ public class ExpressionDB {
          * A zero timestamp will cause it to be automatically filled in.
          */
         public RowData(byte[] expr, boolean degreeMode, boolean longTimeout, long timeStamp) {
-            this(expr, flagsFromDegreeAndTimeout(degreeMode, longTimeout), timeStamp);
+            this(expr, flagsFromDegreeAndTimeout(degreeMode, longTimeout), timeStamp, null);
         }
         public boolean degreeMode() {
             return degreeModeFromFlags(mFlags);
@@ -113,6 +118,60 @@ public class ExpressionDB {
         }
     }
 
+    /* Result cache table contents */
+    public static class ResultEntry implements BaseColumns {
+        public static final String TABLE_NAME = "results";
+        public static final String COLUMN_NAME_DIGITS = "digits";
+        public static final String COLUMN_NAME_PREC_OFFSET = "precOffset";
+        public static final String COLUMN_NAME_MSD_INDEX = "msdIndex";
+        public static final String COLUMN_NAME_LSD_OFFSET = "lsdOffset";
+        public static final String COLUMN_NAME_FLAGS = "flags";
+    }
+
+    /* A cached result, as written to or read from the result table */
+    public static class ResultData {
+        private static final int EXACTLY_TRUNCATABLE = 1;
+        // Decimal digits, computed to exactly mPrecOffset digits to the right of the decimal
+        // point, as in Evaluator's mResultString.
+        public final String mDigits;
+        public final int mPrecOffset;
+        public final int mMsdIndex;
+        public final int mLsdOffset;
+        public final int mFlags;
+        private ResultData(String digits, int precOffset, int msdIndex, int lsdOffset,
+                int flags) {
+            mDigits = digits;
+            mPrecOffset = precOffset;
+            mMsdIndex = msdIndex;
+            mLsdOffset = lsdOffset;
+            mFlags = flags;
+        }
+        public ResultData(String digits, int precOffset, int msdIndex, int lsdOffset,
+                boolean exactlyTruncatable) {
+            this(digits, precOffset, msdIndex, lsdOffset,
+                    exactlyTruncatable ? EXACTLY_TRUNCATABLE : 0);
+        }
+        /**
+         * Can prefixes of mDigits be used as the correctly truncated result?
+         */
+        public boolean exactlyTruncatable() {
+            return (mFlags & EXACTLY_TRUNCATABLE) != 0;
+        }
+        /**
+         * Return a ContentValues object representing the current data for the given row id.
+         */
+        public ContentValues toContentValues(long index) {
+            ContentValues cvs = new ContentValues();
+            cvs.put(ResultEntry._ID, index);
+            cvs.put(ResultEntry.COLUMN_NAME_DIGITS, mDigits);
+            cvs.put(ResultEntry.COLUMN_NAME_PREC_OFFSET, mPrecOffset);
+            cvs.put(ResultEntry.COLUMN_NAME_MSD_INDEX, mMsdIndex);
+            cvs.put(ResultEntry.COLUMN_NAME_LSD_OFFSET, mLsdOffset);
+            cvs.put(ResultEntry.COLUMN_NAME_FLAGS, mFlags);
+            return cvs;
+        }
+    }
+
     private static final String SQL_CREATE_ENTRIES =
             "CREATE TABLE " + ExpressionEntry.TABLE_NAME + " ("
             + ExpressionEntry._ID + " INTEGER PRIMARY KEY,"
@@ -125,11 +184,35 @@ public class ExpressionDB {
             + ") FROM " + ExpressionEntry.TABLE_NAME;
     private static final String SQL_GET_MAX = "SELECT MAX(" + ExpressionEntry._ID
             + ") FROM " + ExpressionEntry.TABLE_NAME;
-    private static final String SQL_GET_ROW = "SELECT * FROM " + ExpressionEntry.TABLE_NAME
-            + " WHERE " + ExpressionEntry._ID + " = ?";
-    private static final String SQL_GET_ALL = "SELECT * FROM " + ExpressionEntry.TABLE_NAME
-            + " WHERE " + ExpressionEntry._ID + " <= ? AND " +
-            ExpressionEntry._ID +  " >= ?" + " ORDER BY " + ExpressionEntry._ID + " DESC ";
+    // Rows are read together with their cached results, if any, so that displaying a history
+    // entry takes no additional query. See readRow() for the column order.
+    private static final String SQL_SELECT_ROWS = "SELECT "
+            + "e." + ExpressionEntry._ID + ", "
+            + "e." + ExpressionEntry.COLUMN_NAME_EXPRESSION + ", "
+            + "e." + ExpressionEntry.COLUMN_NAME_FLAGS + ", "
+            + "e." + ExpressionEntry.COLUMN_NAME_TIMESTAMP + ", "
+            + "r." + ResultEntry.COLUMN_NAME_DIGITS + ", "
+            + "r." + ResultEntry.COLUMN_NAME_PREC_OFFSET + ", "
+            + "r." + ResultEntry.COLUMN_NAME_MSD_INDEX + ", "
+            + "r." + ResultEntry.COLUMN_NAME_LSD_OFFSET + ", "
+            + "r." + ResultEntry.COLUMN_NAME_FLAGS
+            + " FROM " + ExpressionEntry.TABLE_NAME + " e LEFT JOIN " + ResultEntry.TABLE_NAME
+            + " r ON r." + ResultEntry._ID + " = e." + ExpressionEntry._ID;
+    private static final String SQL_GET_ROW = SQL_SELECT_ROWS
+            + " WHERE e." + ExpressionEntry._ID + " = ?";
+    private static final String SQL_GET_ALL = SQL_SELECT_ROWS
+            + " WHERE e." + ExpressionEntry._ID + " <= ? AND " +
+            "e." + ExpressionEntry._ID +  " >= ?" + " ORDER BY e." + ExpressionEntry._ID + " DESC ";
+    private static final String SQL_CREATE_RESULTS =
+            "CREATE TABLE IF NOT EXISTS " + ResultEntry.TABLE_NAME + " ("
+            + ResultEntry._ID + " INTEGER PRIMARY KEY,"
+            + ResultEntry.COLUMN_NAME_DIGITS + " TEXT,"
+            + ResultEntry.COLUMN_NAME_PREC_OFFSET + " INTEGER,"
+            + ResultEntry.COLUMN_NAME_MSD_INDEX + " INTEGER,"
+            + ResultEntry.COLUMN_NAME_LSD_OFFSET + " INTEGER,"
+            + ResultEntry.COLUMN_NAME_FLAGS + " INTEGER)";
+    private static final String SQL_DROP_RESULTS =
+            "DROP TABLE IF EXISTS " + ResultEntry.TABLE_NAME;
     // We may eventually need an index by timestamp. We don't use it yet.
     private static final String SQL_CREATE_TIMESTAMP_INDEX =
             "CREATE INDEX timestamp_index ON " + ExpressionEntry.TABLE_NAME + "("
@@ -138,7 +221,7 @@ public class ExpressionDB {
 
     private class ExpressionDBHelper extends SQLiteOpenHelper {
         // If you change the database schema, you must increment the database version.
-        public static final int DATABASE_VERSION = 1;
+        public static final int DATABASE_VERSION = 2;
         public static final String DATABASE_NAME = "Expressions.db";
 
         public ExpressionDBHelper(Context context) {
@@ -147,11 +230,18 @@ public class ExpressionDB {
         public void onCreate(SQLiteDatabase db) {
             db.execSQL(SQL_CREATE_ENTRIES);
             db.execSQL(SQL_CREATE_TIMESTAMP_INDEX);
+            db.execSQL(SQL_CREATE_RESULTS);
         }
         public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-            // For now just throw away history on database version upgrade/downgrade.
+            if (oldVersion == 1 && newVersion == 2) {
+                // Version 2 only adds the result cache, which starts out empty.
+                db.execSQL(SQL_CREATE_RESULTS);
+                return;
+            }
+            // Otherwise just throw away history on database version upgrade/downgrade.
             db.execSQL(SQL_DROP_TIMESTAMP_INDEX);
             db.execSQL(SQL_DROP_TABLE);
+            db.execSQL(SQL_DROP_RESULTS);
             onCreate(db);
         }
         public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
@@ -189,6 +279,10 @@ public class ExpressionDB {
     // interference from updates as we're running. It's unclear whether or not this matters.
     private int mAllCursorBase;
 
+    // Minimum expression index covered by mAllCursor.  MAXIMUM_MIN_INDEX if there are no
+    // negative indices.
+    private long mAllCursorMinIndex = MAXIMUM_MIN_INDEX;
+
     // Database has been opened, mMinIndex and mMaxIndex are correct, mAllCursorBase and
     // mAllCursor have been set.
     private boolean mDBInitialized;
@@ -274,6 +368,7 @@ public class ExpressionDB {
                         throw new AssertionError("Expression index absurdly large");
                     }
                     mAllCursorBase = (int)mMaxIndex;
+                    mAllCursorMinIndex = mMinIndex;
                     if (mMaxIndex != 0L || mMinIndex != MAXIMUM_MIN_INDEX) {
                         // Set up a cursor for reading the entire database.
                         String args[] = new String[]
@@ -352,6 +447,7 @@ public class ExpressionDB {
         protected Void doInBackground(Void... nothings) {
             mExpressionDB.execSQL(SQL_DROP_TIMESTAMP_INDEX);
             mExpressionDB.execSQL(SQL_DROP_TABLE);
+            mExpressionDB.execSQL(SQL_DROP_RESULTS);
             try {
                 mExpressionDB.execSQL("VACUUM");
             } catch(Exception e) {
@@ -360,6 +456,7 @@ public class ExpressionDB {
             }
             mExpressionDB.execSQL(SQL_CREATE_ENTRIES);
             mExpressionDB.execSQL(SQL_CREATE_TIMESTAMP_INDEX);
+            mExpressionDB.execSQL(SQL_CREATE_RESULTS);
             return null;
         }
         @Override
@@ -368,7 +465,7 @@ public class ExpressionDB {
                 // Reinitialize everything to an empty and fully functional database.
                 mMinAccessible = -10000000L;
                 mMaxAccessible = 10000000L;
-                mMinIndex = MAXIMUM_MIN_INDEX;
+                mMinIndex = mAllCursorMinIndex = MAXIMUM_MIN_INDEX;
                 mMaxIndex = mAllCursorBase = 0;
                 mDBInitialized = true;
                 mLock.notifyAll();
@@ -505,6 +602,44 @@ public class ExpressionDB {
         return newIndex;
     }
 
+    /**
+     * Insert or replace a cached result without blocking the UI thread.
+     * These tasks must be executed on a serial executor, so that they follow the write of the
+     * corresponding expression, and cannot be reordered with an erasure.
+     * Failures are only logged; the result cache is optional.
+     */
+    private class AsyncResultWriter extends AsyncTask<ContentValues, Void, Void> {
+        @Override
+        protected Void doInBackground(ContentValues... cvs) {
+            try {
+                if (mExpressionDB != null) {
+                    mExpressionDB.insertWithOnConflict(ResultEntry.TABLE_NAME, null, cvs[0],
+                            SQLiteDatabase.CONFLICT_REPLACE);
+                }
+            } catch(SQLiteException e) {
+                Log.v("Calculator", "Result cache write failed\n", e);
+            } finally {
+                writeCompleted();
+            }
+            return null;
+        }
+        // On cancellation we do nothing;
+    }
+
+    /**
+     * Record the computed result for the expression with the given index, so that it can be
+     * displayed without reevaluating the expression after a restart.
+     * The expression must have been added with addRow(). Does not wait for the write.
+     */
+    public void putResult(long index, ResultData data) {
+        if (!inAccessibleRange(index)) {
+            return;
+        }
+        writeStarted();
+        AsyncResultWriter rwriter = new AsyncResultWriter();
+        rwriter.executeOnExecutor(AsyncTask.SERIAL_EXECUTOR, data.toContentValues(index));
+    }
+
     /**
      * Generate a fake database row that's good enough to hopefully prevent crashes,
      * but bad enough to avoid confusion with real data. In particular, the result
@@ -517,6 +652,20 @@ public class ExpressionDB {
         return new RowData(badExpr.toBytes(), false, false, 0);
     }
 
+    /**
+     * Construct a RowData from the current row of c, as selected by SQL_SELECT_ROWS.
+     */
+    private static RowData readRow(Cursor c) {
+        ResultData result = null;
+        if (!c.isNull(4)) {
+            result = new ResultData(c.getString(4), c.getInt(5) /* precOffset */,
+                    c.getInt(6) /* msdIndex */, c.getInt(7) /* lsdOffset */,
+                    c.getInt(8) /* flags */);
+        }
+        return new RowData(c.getBlob(1), c.getInt(2) /* flags */, c.getLong(3) /* timestamp */,
+                result);
+    }
+
     /**
      * Retrieve the row with the given index using a direct query.
      * Such a row must exist.
@@ -530,8 +679,7 @@ public class ExpressionDB {
                 setBadDB();
                 return makeBadRow();
             } else {
-                result = new RowData(resultC.getBlob(1), resultC.getInt(2) /* flags */,
-                        resultC.getLong(3) /* timestamp */);
+                result = readRow(resultC);
             }
         }
         return result;
@@ -550,8 +698,7 @@ public class ExpressionDB {
                 setBadDB();
                 return makeBadRow();
             }
-            return new RowData(mAllCursor.getBlob(1), mAllCursor.getInt(2) /* flags */,
-                        mAllCursor.getLong(3) /* timestamp */);
+            return readRow(mAllCursor);
         }
     }
 
@@ -596,6 +743,22 @@ public class ExpressionDB {
         return getRowFromCursor(position);
     }
 
+    /**
+     * Can getRow() be used to read back the expression with the given index?
+     * This holds for expressions that were already in the database when it was opened, but not
+     * for those added since, which may not even have been written yet.
+     * Does not wait for initialization; returns false if the database is not yet open.
+     */
+    public boolean isRereadable(long index) {
+        synchronized(mLock) {
+            if (!mDBInitialized || !inAccessibleRange(index)) {
+                return false;
+            }
+            return index > 0 && index <= mAllCursorBase
+                    || index < MAXIMUM_MIN_INDEX && index >= mAllCursorMinIndex;
+        }
+    }
+
     public long getMinIndex() {
         waitForDBInitialized();
         synchronized(mLock) {
@@ -73,6 +73,8 @@ public class HistoryAdapter extends RecyclerView.Adapter<HistoryAdapter.ViewHold
         }
 
         holder.mFormula.setText(item.getFormula());
+        // Keep the expression cached for as long as the view may display it.
+        mEvaluator.setBound(item.getEvaluatorIndex(), true);
         // Note: HistoryItems that are not the current expression will always have interesting ops.
         holder.mResult.setEvaluator(mEvaluator, item.getEvaluatorIndex());
         if (item.getEvaluatorIndex() != Evaluator.HISTORY_MAIN_INDEX) {
@@ -90,12 +92,31 @@ public class HistoryAdapter extends RecyclerView.Adapter<HistoryAdapter.ViewHold
         }
     }
 
+    @Override
+    public void onViewAttachedToWindow(ViewHolder holder) {
+        super.onViewAttachedToWindow(holder);
+        if (holder.getItemViewType() == EMPTY_VIEW_TYPE) {
+            return;
+        }
+        // Evaluate entries the user can actually see before prefetched or offscreen ones.
+        mEvaluator.setVisible(holder.getItemId(), true);
+    }
+
+    @Override
+    public void onViewDetachedFromWindow(ViewHolder holder) {
+        if (holder.getItemViewType() != EMPTY_VIEW_TYPE) {
+            mEvaluator.setVisible(holder.getItemId(), false);
+        }
+        super.onViewDetachedFromWindow(holder);
+    }
+
     @Override
     public void onViewRecycled(ViewHolder holder) {
         if (holder.getItemViewType() == EMPTY_VIEW_TYPE) {
             return;
         }
         mEvaluator.cancel(holder.getItemId(), true);
+        mEvaluator.setBound(holder.getItemId(), false);
 
         holder.mDate.setVisibility(View.VISIBLE);
         holder.mDivider.setVisibility(View.VISIBLE);
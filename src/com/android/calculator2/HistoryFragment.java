@@ -142,6 +142,7 @@ public class HistoryFragment extends Fragment {
             // Note that the view is destroyed when the fragment backstack is popped, so
             // these are essentially called when the DragLayout is closed.
             mEvaluator.cancelNonMain();
+            mEvaluator.clearHistoryViewState();
         }
     }
 